@@ -4,66 +4,2687 @@ import static java.nio.file.Paths.get;
 import static java.nio.file.Files.deleteIfExists;
 import static java.nio.file.Files.exists;
 import static java.nio.file.Files.walkFileTree;
-import static java.nio.file.Files.exists;
 import static javax.tools.ToolProvider.getSystemJavaCompiler;
 import static java.text.MessageFormat.format;
 
 import java.nio.charset.*;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
+import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
+import java.lang.module.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.util.stream.*;
+import java.net.*;
+import java.nio.channels.*;
+import javax.lang.model.element.*;
 import javax.tools.*;
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
 
 class build
 {
+  static final Path SOCKET = get("bld/build.sock");
+
   public static void main(String[] args)
   throws IOException
   {
-    out.println("BUILDING THE HANDMADE JAVA PROJECT (LOL)!");
+    var arguments = new ArrayList<>(List.of(args));
+    Profile profile = null;
+    try
+    {
+      profile = Profile.select(arguments);
+    }
+    catch (IllegalArgumentException e)
+    {
+      err.println(e.getMessage());
+      System.exit(2);
+    }
+    var task = arguments.isEmpty() ? "build" : arguments.remove(0);
+    switch (task)
+    {
+      case "daemon":
+        serve();
+      break;
+      case "stop":
+        {
+          if (forward("stop") == NO_DAEMON)
+          {
+            out.println("There is no build daemon running.");
+          }
+        }
+      break;
+      case "run":
+        {
+          if (!run(new Javac(), profile, arguments.toArray(new String[0])))
+          {
+            System.exit(1);
+          }
+        }
+      break;
+      case "build":
+        {
+          //a running daemon has a warm javac. use it, if we can.
+          var status = forward(task + " --profile " + profile.name);
+          if (status == NO_DAEMON)
+          {
+            status = build(new Javac(), profile);
+          }
+          if (status != BUILT)
+          {
+            System.exit(status);
+          }
+        }
+      break;
+      case "cds":
+        {
+          if (!buildFor(task, profile))
+          {
+            System.exit(1);
+          }
+          if (!cds(profile))
+          {
+            System.exit(1);
+          }
+        }
+      break;
+      case "jlink":
+        {
+          if (!buildFor(task, profile))
+          {
+            System.exit(1);
+          }
+          if (!jlink(profile, arguments))
+          {
+            System.exit(1);
+          }
+        }
+      break;
+      case "bench":
+        {
+          if (!buildFor(task, profile))
+          {
+            System.exit(1);
+          }
+          if (!bench(profile, arguments))
+          {
+            System.exit(1);
+          }
+        }
+      break;
+      case "trace":
+        {
+          if (!buildFor(task, profile))
+          {
+            System.exit(1);
+          }
+          if (!trace(profile, arguments))
+          {
+            System.exit(1);
+          }
+        }
+      break;
+      case "gc":
+        {
+          if (!buildFor(task, profile))
+          {
+            System.exit(1);
+          }
+          if (!gc(profile, arguments))
+          {
+            System.exit(1);
+          }
+        }
+      break;
+      case "pipeline":
+        {
+          if (!buildFor(task, profile))
+          {
+            System.exit(1);
+          }
+          System.exit(pipeline(profile, arguments));
+        }
+      break;
+      case "market":
+        {
+          if (!buildFor(task, profile))
+          {
+            System.exit(1);
+          }
+          System.exit(market(profile, arguments));
+        }
+      break;
+      case "launch":
+        {
+          if (!buildFor(task, profile))
+          {
+            System.exit(1);
+          }
+          System.exit(launch(profile, arguments));
+        }
+      break;
+      default:
+        {
+          err.println(format("Unknown task ''{0}''. Known tasks are: build, run, launch, cds, jlink, bench, gc, trace, pipeline, market, daemon, stop. Select a profile with --profile <{1}>.", task, String.join("|", Profile.ALL.keySet())));
+          System.exit(2);
+        }
+    }
+  }
+
+  /**
+  * The expensive parts of javac, that can outlive a build.
+  * A one-off build pays for them once, the daemon keeps them warm.
+  * The file managers hold on to the opened JDK image and the indices of its packages.
+  * They are not thread-safe, so every module gets its own.
+  */
+  static final class Javac
+  {
+    final Locale locale = Locale.getDefault();
+    final Charset charset = StandardCharsets.UTF_8;
+    private JavaCompiler compiler;
+    private final Map<String, StandardJavaFileManager> file_managers = new ConcurrentHashMap<>();
+
+    synchronized JavaCompiler compiler()
+    {
+      if (compiler == null)
+      {
+        compiler = getSystemJavaCompiler();
+      }
+      return compiler;
+    }
+
+    /**
+    * Options, that configure the file manager (like `-d` or `--module-source-path`) are applied to it once.
+    * A file manager refuses some of them a second time, so they must not be passed to its tasks again.
+    * @param options All options for the compiler. The ones meant for the file manager are taken out.
+    * @return The file manager of `module`, configured with the options, that were taken out.
+    */
+    StandardJavaFileManager fileManager(String module, List<String> options)
+    {
+      var file_manager_options = new ArrayList<String>();
+      var probe = file_managers.computeIfAbsent("", __ -> compiler().getStandardFileManager(null, locale, charset));
+      for (var index = 0; index < options.size();)
+      {
+        var arity = probe.isSupportedOption(options.get(index));
+        if (arity < 0)
+        {
+          index = index + 1;
+          continue;
+        }
+        var option = options.subList(index, index + 1 + arity);
+        file_manager_options.addAll(option);
+        option.clear();
+      }
+      return file_managers.computeIfAbsent(module + "\n" + String.join("\n", file_manager_options), __ ->
+      {
+        var file_manager = compiler().getStandardFileManager(null, locale, charset);
+        var arguments = file_manager_options.iterator();
+        while (arguments.hasNext())
+        {
+          file_manager.handleOption(arguments.next(), arguments);
+        }
+        return file_manager;
+      });
+    }
+  }
+
+  /**
+  * Runs the build daemon in the foreground, until someone runs `java build.java stop`.
+  * Requests come in over a Unix domain socket, one at a time.
+  * The output of the build goes back to the client, followed by the exit code.
+  */
+  static void serve()
+  throws IOException
+  {
+    Files.createDirectories(SOCKET.getParent());
+    if (forward("ping") != NO_DAEMON)
+    {
+      err.println("A build daemon is already running.");
+      System.exit(1);
+    }
+    deleteIfExists(SOCKET);
+    var javac = new Javac();
+    try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+    {
+      server.bind(UnixDomainSocketAddress.of(SOCKET));
+      out.println(format("Build daemon listening on {0}. Warming up...", SOCKET));
+      build(javac, Profile.DEBUG);
+      out.println("Build daemon is warm.");
+      var stdout = System.out;
+      var stderr = System.err;
+      while (true)
+      {
+        try (var client = server.accept())
+        {
+          var request = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8)).readLine();
+          var arguments = new ArrayList<>(List.of(request == null ? new String[0] : request.split(" ")));
+          var response = new PrintStream(Channels.newOutputStream(client), true, StandardCharsets.UTF_8);
+          Profile profile;
+          try
+          {
+            profile = Profile.select(arguments);
+          }
+          catch (IllegalArgumentException e)
+          {
+            response.println(e.getMessage());
+            response.println(EXIT + 2);
+            continue;
+          }
+          var task = arguments.isEmpty() ? "build" : arguments.get(0);
+          if ("stop".equals(task))
+          {
+            response.println(EXIT + 0);
+            break;
+          }
+          if ("build".equals(task))
+          {
+            System.setOut(response);
+            System.setErr(response);
+            var status = FAILED;
+            try
+            {
+              status = build(javac, profile);
+            }
+            catch (Exception e)
+            {
+              e.printStackTrace(response);
+            }
+            finally
+            {
+              System.setOut(stdout);
+              System.setErr(stderr);
+            }
+            response.println(EXIT + status);
+          }
+          else if ("ping".equals(task))
+          {
+            response.println(EXIT + 0);
+          }
+          else
+          {
+            response.println(format("The build daemon does not know ''{0}''. It knows: build, stop.", request));
+            response.println(EXIT + 2);
+          }
+          stdout.println(format("Served ''{0}''.", request));
+        }
+        catch (IOException e)
+        {
+          //a client hung up on us. that is their problem.
+          err.println(format("Lost a client: {0}", e.getMessage()));
+        }
+      }
+    }
+    finally
+    {
+      deleteIfExists(SOCKET);
+    }
+    out.println("Build daemon stopped.");
+  }
+  static final String EXIT = "\0EXIT ";
+  /** The status of a build, that compiled and stayed within its budgets. Also the exit status of the build task. */
+  static final int BUILT = 0;
+  /** The status of a build, that did not compile. */
+  static final int FAILED = 1;
+  /** The status of a build, that compiled, but took longer than its budget. The classes are there, tasks, that run them, go on. */
+  static final int OVER_BUDGET = 3;
+  /** Returned by {@link #forward(String)}, when there is no daemon to forward to. */
+  static final int NO_DAEMON = -1;
+
+  /**
+  * Hands a request to the build daemon and relays its output.
+  * @return The exit status, that the daemon reports, {@link #NO_DAEMON} if no daemon is listening.
+  * Exits the JVM, if the daemon hangs up without one.
+  */
+  static int forward(String request)
+  throws IOException
+  {
+    //`-Dbuild.local=true` builds in this JVM, like when the JVM itself is what is measured (`java build.java gc`).
+    if (!exists(SOCKET) || Boolean.getBoolean("build.local"))
+    {
+      return NO_DAEMON;
+    }
+    SocketChannel daemon;
+    try
+    {
+      daemon = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET));
+    }
+    catch (IOException __)
+    {
+      //the daemon died without cleaning up.
+      deleteIfExists(SOCKET);
+      return NO_DAEMON;
+    }
+    try (daemon)
+    {
+      var writer = new PrintStream(Channels.newOutputStream(daemon), true, StandardCharsets.UTF_8);
+      writer.println(request);
+      var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(daemon), StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        if (line.startsWith(EXIT))
+        {
+          return Integer.parseInt(line.substring(EXIT.length()));
+        }
+        out.println(line);
+      }
+    }
+    err.println("The build daemon hung up without an answer.");
+    System.exit(1);
+    return FAILED;
+  }
+
+  /**
+  * Builds for a task, that runs what was built: with the daemon, if there is one, in this JVM otherwise.
+  * A build, that only exceeded its budget, is reported, and the task goes on. A budget is about the edit-compile loop, not about whether the classes are there.
+  * @return true if the classes are there.
+  */
+  static boolean buildFor(String task, Profile profile)
+  throws IOException
+  {
+    var status = forward("build --profile " + profile.name);
+    if (status == NO_DAEMON)
+    {
+      status = build(new Javac(), profile);
+    }
+    if (status == OVER_BUDGET)
+    {
+      err.println(format("The build is over budget (see above). Going on with ''{0}'' anyway.", task));
+    }
+    return status == BUILT || status == OVER_BUDGET;
+  }
+
+  /**
+  * Builds all modules in `src` into the output tree of `profile`.
+  * @param javac The compiler to use. Nothing is looked up, if nothing changed.
+  * @return {@link #BUILT}, {@link #FAILED} or {@link #OVER_BUDGET}.
+  */
+  static int build(Javac javac, Profile profile)
+  throws IOException
+  {
+    out.println(format("BUILDING THE HANDMADE JAVA PROJECT (LOL)! PROFILE: {0}", profile.name));
+    var start = System.nanoTime();
+    var timings = new Timings();
  		var src = get("src");
- 		var mainMod = get("src/main/module-info.java");
- 		var main = get("src/main/main/Main.java");
- 		var bld = get("bld");
- 		var locale = Locale.getDefault();
-    var utf8 = StandardCharsets.UTF_8;
+ 		var bld = profile.output;
+ 		var manifest_file = bld.resolve("build.manifest");
+ 		var locale = javac.locale;
+    var utf8 = javac.charset;
+		var options = profile.options(src, bld);
+		/*
+		* Find out what changed since the last build, before paying for the compiler.
+		* A source is dirty when its content hash differs from the one in the manifest,
+		* or when it depends on a dirty source.
+		* If the options changed, or there is no manifest, every class file in `bld` is suspect.
+		*/
+		var sources = findSources(src);
+		var previous = Manifest.read(manifest_file);
+		var options_hash = hash(String.join("\n", options).getBytes(utf8));
+		if (previous == null || !options_hash.equals(previous.options_hash))
+		{
+			deleteDir(bld);
+			previous = new Manifest(options_hash);
+		}
+		var next = new Manifest(options_hash);
+		var hashes = new HashMap<Path, String>();
+		var changed = new HashSet<Path>();
+		for (var source : sources)
+		{
+			var content_hash = hash(Files.readAllBytes(source));
+			hashes.put(source, content_hash);
+			var unit = previous.units.get(source);
+			if (unit == null || !unit.hash.equals(content_hash))
+			{
+				changed.add(source);
+			}
+		}
+		//sources that disappeared take their class files with them.
+		for (var unit : previous.units.values())
+		{
+			if (!hashes.containsKey(unit.source))
+			{
+				changed.add(unit.source);
+				deleteOutputs(unit);
+			}
+		}
+		var dirty = previous.dependents(changed);
+		dirty.retainAll(hashes.keySet());
+		for (var unit : previous.units.values())
+		{
+			if (hashes.containsKey(unit.source) && !dirty.contains(unit.source))
+			{
+				next.units.put(unit.source, unit);
+			}
+		}
+		var skipped = next.units.size();
+		timings.add("discovery", System.nanoTime() - start);
+		if (dirty.isEmpty())
+		{
+			out.println(format("Nothing to do. Compiled 0 units, skipped {0} units in {1} ms.", skipped, millisSince(start)));
+			return timings.finish(profile, start, true, 0, skipped);
+		}
+		for (var source : dirty)
+		{
+			var unit = previous.units.get(source);
+			if (unit != null)
+			{
+				deleteOutputs(unit);
+			}
+			next.units.put(source, new Unit(source, hashes.get(source)));
+		}
+		options = profile.supportedOptions(javac, src, bld);
+		/*
+		* Every module gets its own javac task, so that modules, that do not require each other, compile at the same time.
+		* A module starts compiling, as soon as all modules it requires are done.
+		* This way, the wall time approaches the critical path through the module graph, not the sum of all modules.
+		*/
+		var modules = findModules(src);
+		var compiler_options = options;
+		var pool = POOL;
+		var results = new LinkedHashMap<String, CompletableFuture<ModuleResult>>();
+		for (var module : sortModules(modules))
+		{
+			var module_dirty = new ArrayList<Path>();
+			for (var source : dirty)
+			{
+				if (source.startsWith(module.dir))
+				{
+					module_dirty.add(source);
+				}
+			}
+			var requirements = module.requires.stream()
+				.filter(results::containsKey)
+				.map(results::get)
+				.toArray(CompletableFuture<?>[]::new);
+			results.put(module.name, CompletableFuture.allOf(requirements).thenApplyAsync(__ ->
+			{
+				for (var requirement : module.requires)
+				{
+					var result = results.get(requirement);
+					if (result != null && !result.join().success)
+					{
+						return new ModuleResult(module, module_dirty, false, 0, format("Skipping module {0}, because it requires the broken module {1}.\n", module.name, requirement), List.of(), Map.of());
+					}
+				}
+				return compileModule(javac, module, module_dirty, moduleOptions(compiler_options, module, modules), next, timings);
+			}, pool));
+		}
+		var success = true;
+		var compiled = 0;
+		var module_millis = 0L;
+		for (var future : results.values())
+		{
+			var result = future.join();
+			var dump_start = System.nanoTime();
+			err.print(result.log);
+			result.diagnostics.stream()
+			.map(d -> format("{0} [{1}] ''{2}:{3}'' MSG: {4}",
+											 d.getKind(),
+											 d.getCode(),
+											 d.getSource() == null ? "" : d.getSource().getName(),
+											 d.getLineNumber(),
+											 d.getMessage(locale)))
+			.forEach(err::println);
+			timings.add("diagnostics", System.nanoTime() - dump_start);
+			for (var output : result.outputs.entrySet())
+			{
+				var unit = next.units.get(output.getKey());
+				if (unit != null)
+				{
+					unit.classes.addAll(output.getValue());
+				}
+			}
+			if (!result.success)
+			{
+				success = false;
+				//forget the units we tried, so the next build retries them.
+				for (var source : result.dirty)
+				{
+					deleteOutputs(next.units.remove(source));
+				}
+			}
+			compiled = compiled + result.dirty.size();
+			module_millis = module_millis + result.millis;
+			if (!result.dirty.isEmpty())
+			{
+				out.println(format("  module {0}: {1} units in {2} ms{3}", result.module.name, result.dirty.size(), result.millis, result.success ? "" : " FAILED"));
+			}
+		}
+		next.write(manifest_file);
+		out.println(format("{0}. Compiled {1} units, skipped {2} units in {3} ms ({4} ms spent in modules).", success ? "Done" : "FAILED", compiled, skipped, millisSince(start), module_millis));
+		return timings.finish(profile, start, success, compiled, skipped);
+  }
+  static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+  static final Path TIMINGS = get("bld/timings.jsonl");
+
+  /**
+  * Measures where the time of a build goes.
+  * The phases of javac are summed over all modules, so with concurrent modules, they can add up to more than `total`.
+  * Every build appends one line of JSON to `bld/timings.jsonl`, which survives clean builds, so that regressions can be tracked across commits.
+  */
+  static final class Timings
+  {
+    final Map<String, LongAdder> nanos = new ConcurrentHashMap<>();
+
+    void add(String phase, long duration)
+    {
+      nanos.computeIfAbsent(phase, __ -> new LongAdder()).add(duration);
+    }
+
+    long millis(String phase)
+    {
+      var phase_nanos = nanos.get(phase);
+      return phase_nanos == null ? 0 : phase_nanos.sum() / 1_000_000;
+    }
+
+    /**
+    * @return A listener for one javac task, that measures parse, enter, analyze and generate.
+    */
+    TaskListener listener()
+    {
+      var started = new ConcurrentHashMap<List<String>, Long>();
+      return new TaskListener()
+      {
+        @Override public void started(TaskEvent event)
+        {
+          if (phase(event) != null)
+          {
+            started.put(key(event), System.nanoTime());
+          }
+        }
+
+        @Override public void finished(TaskEvent event)
+        {
+          var phase = phase(event);
+          var start = phase == null ? null : started.remove(key(event));
+          if (start != null)
+          {
+            add(phase, System.nanoTime() - start);
+          }
+        }
+
+        String phase(TaskEvent event)
+        {
+          switch (event.getKind())
+          {
+            case PARSE: return "parse";
+            case ENTER: return "enter";
+            case ANALYZE: return "analyze";
+            case GENERATE: return "generate";
+            default: return null;
+          }
+        }
+
+        List<String> key(TaskEvent event)
+        {
+          return List.of(event.getKind().name(), String.valueOf(event.getSourceFile()), String.valueOf(event.getTypeElement()));
+        }
+      };
+    }
+
+    /**
+    * Prints the timings, appends them to the record and checks them against the budgets of `profile`.
+    * The budgets are for incremental builds. A cold build, that skips nothing, compiles every unit and warms up javac on top, so it is only recorded.
+    * @return {@link #BUILT}, {@link #FAILED} or {@link #OVER_BUDGET}.
+    */
+    int finish(Profile profile, long start, boolean success, int compiled, int skipped)
+    throws IOException
+    {
+      add("total", System.nanoTime() - start);
+      var phases = List.of("discovery", "file_manager", "parse", "enter", "analyze", "generate", "diagnostics", "total");
+      var report = new StringBuilder("  timings:");
+      for (var phase : phases)
+      {
+        report.append(format(" {0}={1}ms", phase, millis(phase)));
+      }
+      out.println(report);
+      var cold = skipped == 0 && compiled > 0;
+      var within_budget = true;
+      for (var budget : profile.budgets.entrySet())
+      {
+        var spent = millis(budget.getKey());
+        if (!cold && spent > budget.getValue())
+        {
+          within_budget = false;
+          err.println(format("BUDGET EXCEEDED: {0} took {1} ms, but the {2} budget is {3} ms.", budget.getKey(), spent, profile.name, budget.getValue()));
+        }
+      }
+      if (cold && !profile.budgets.isEmpty())
+      {
+        out.println(format("  a cold build. the {0} budgets apply to incremental builds.", profile.name));
+      }
+      var record = new StringBuilder();
+      record.append(format("'{'\"time\":\"{0}\",\"commit\":\"{1}\",\"profile\":\"{2}\",\"success\":{3},\"within_budget\":{4},\"cold\":{5},\"compiled\":{6,number,#},\"skipped\":{7,number,#}",
+        java.time.Instant.now(), gitCommit(), profile.name, success, within_budget, cold, compiled, skipped));
+      for (var phase : phases)
+      {
+        record.append(format(",\"{0}_ms\":{1,number,#}", phase, millis(phase)));
+      }
+      record.append("}\n");
+      Files.createDirectories(TIMINGS.getParent());
+      Files.writeString(TIMINGS, record, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      return !success ? FAILED : within_budget ? BUILT : OVER_BUDGET;
+    }
+  }
+
+  /**
+  * Reads the commit of HEAD straight from `.git`. No need to start a process for that.
+  * @return The hash of the checked out commit, or "unknown".
+  */
+  static String gitCommit()
+  {
+    try
+    {
+      var head = Files.readString(get(".git/HEAD"), StandardCharsets.UTF_8).trim();
+      if (!head.startsWith("ref: "))
+      {
+        return head;
+      }
+      var ref = head.substring(5);
+      var loose = get(".git").resolve(ref);
+      if (exists(loose))
+      {
+        return Files.readString(loose, StandardCharsets.UTF_8).trim();
+      }
+      var packed = get(".git/packed-refs");
+      if (exists(packed))
+      {
+        for (var line : Files.readAllLines(packed, StandardCharsets.UTF_8))
+        {
+          if (line.endsWith(" " + ref))
+          {
+            return line.substring(0, line.indexOf(' '));
+          }
+        }
+      }
+    }
+    catch (IOException __)
+    {
+      //not a git checkout. no big deal.
+    }
+    return "unknown";
+  }
+
+  /**
+  * A named way to build and run the project.
+  * Every profile compiles into its own tree below `bld`, so switching between them never throws away the classes of another.
+  * The option lists are resolved once per profile (and output directory) and then reused, which pays off in the daemon.
+  */
+  static final class Profile
+  {
 		/*
 		* These flags are the same as one would use with the `javac` cli interface.
-		* TODO: this is a debug build right now. we will need different flags for other builds (release,test,etc.)
 		* These settings are unrealistically strict right now.
 		* The idea is to start out with a very strict set of rules.
 		* And then, as we get increaingly annoyed by stupid rules, we deactivate those.
 		* This should converge to a resonable set of rules.
 		* TODO: different parts of the application probably will require different strictness. we can apply them per package/module/naming-pattern/...
 		*/
-		var options = List.of(
-			"--module-source-path", src.toString(), // input location of all source files. they have to be modules!
-			"-d", bld.toString(), //output class files to build folder
-			"-g", //generate debug info
-			"-Werror", //quit on warnings
-			"-Xdoclint:all/public", //warn about malformed docs
-			"--doclint-format", "html5", //use modern docs
-			"-Xlint:all", //lint our code
-			"-Xpkginfo:always", //require package-info.java files so that generated Javadoc gets nice comments for packages.
-			"-verbose", //to learn what happens
-			"--limit-modules", "java.base,java.desktop", //by limiting the modules, we prevent loading of unused ones.
-			"-deprecation", //print uses of deprecated code
-			"-encoding", utf8.toString() //expected encoding of source files
-			);
-    var javac = getSystemJavaCompiler();
-		var diagnostics = new DiagnosticCollector<JavaFileObject>();
-    var file_manager = javac.getStandardFileManager(diagnostics, locale, utf8);
-    var compilation_units = file_manager.getJavaFileObjects(mainMod, main);
-    deleteDir(bld);
-    javac.getTask(new PrintWriter(err), file_manager, diagnostics, options, null, compilation_units).call();
+    static final Profile DEBUG = new Profile("debug",
+      List.of(
+        "-implicit:none", //unchanged sources are read from their class files in `bld`. never write classes we were not asked to compile.
+        "-g", //generate debug info
+        "-Werror", //quit on warnings
+        "-Xdoclint:all/public", //warn about malformed docs
+        "--doclint-format", "html5", //use modern docs
+        "-Xlint:all", //lint our code
+        "-Xpkginfo:always", //require package-info.java files so that generated Javadoc gets nice comments for packages.
+        "-verbose", //to learn what happens
+        "--limit-modules", LIMIT_MODULES, //by limiting the modules, we prevent loading of unused ones.
+        "-deprecation", //print uses of deprecated code
+        "-encoding", "UTF-8" //expected encoding of source files
+      ),
+      List.of("-ea"), //assertions are our cheapest tests
+      Map.of("total", 1000L), //"we aim to keep the build time of the debug build under a second"
+      1);
+    /**
+    * The release build is not bound by wall time. But it does not waste any either:
+    * no debug info, no doclint and nobody reading `-verbose` output.
+    */
+    static final Profile RELEASE = new Profile("release",
+      List.of(
+        "-implicit:none",
+        "-g:none",
+        "-Werror",
+        "-Xlint:all",
+        "-Xpkginfo:always",
+        "--limit-modules", LIMIT_MODULES,
+        "-encoding", "UTF-8"
+      ),
+      List.of(),
+      Map.of(),
+      1);
+    /**
+    * Like debug, but quiet. Tests are run with all assertions enabled, including the ones of the JDK.
+    */
+    static final Profile TEST = new Profile("test",
+      List.of(
+        "-implicit:none",
+        "-g",
+        "-Werror",
+        "-Xdoclint:all/public",
+        "--doclint-format", "html5",
+        "-Xlint:all",
+        "-Xpkginfo:always",
+        "--limit-modules", LIMIT_MODULES,
+        "-deprecation",
+        "-encoding", "UTF-8"
+      ),
+      List.of("-ea", "-esa"),
+      Map.of("total", 1000L),
+      1);
+    /**
+    * Benchmarks measure release code. Like JMH, every measurement gets a few fresh JVMs (forks),
+    * with a fixed, pre-touched heap, so that resizing the heap does not show up in the numbers.
+    */
+    static final Profile BENCH = new Profile("bench",
+      RELEASE.javac_options,
+      List.of("-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"),
+      Map.of(),
+      3);
+    static final Map<String, Profile> ALL = Stream.of(DEBUG, RELEASE, TEST, BENCH)
+      .collect(Collectors.toMap(profile -> profile.name, profile -> profile, (a, b) -> a, LinkedHashMap::new));
+
+    final String name;
+    final Path output;
+    /** Where the modules of this profile are packaged as jars. CDS does not archive classes from directories. */
+    final Path jars;
+    /** Options for javac, except for the locations of sources and classes. */
+    final List<String> javac_options;
+    /** Options for the JVM, that runs the built application. */
+    final List<String> runtime_options;
+    /** Phase → budget in milliseconds, for incremental builds. Exceeding any of them fails the build task, even if javac was happy. Tasks, that run the classes, go on. */
+    final Map<String, Long> budgets;
+    /** How many JVMs a measurement is repeated in. */
+    final int forks;
+    private final Map<Path, List<String>> resolved = new ConcurrentHashMap<>();
+    private final Map<Path, List<String>> supported = new ConcurrentHashMap<>();
+
+    private Profile(String name, List<String> javac_options, List<String> runtime_options, Map<String, Long> budgets, int forks)
+    {
+      this.name = name;
+      this.output = get("bld", name);
+      this.jars = get("bld", "lib", name);
+      this.javac_options = javac_options;
+      this.runtime_options = runtime_options;
+      this.budgets = budgets;
+      this.forks = forks;
+    }
+
+    /**
+    * @return Where the dynamic AppCDS archive of the grid goes.
+    */
+    Path archive()
+    {
+      return jars.resolve("main.jsa");
+    }
+
+    /**
+    * Takes `--profile &lt;name&gt;` out of `arguments`.
+    * Without it, the system property `profile` decides, so that a profile can be picked with an @file: `java @release build.java`.
+    * @return The selected profile. debug by default.
+    * @throws IllegalArgumentException if there is no profile of that name.
+    */
+    static Profile select(List<String> arguments)
+    {
+      var name = System.getProperty("profile", DEBUG.name);
+      var index = arguments.indexOf("--profile");
+      if (index >= 0 && index + 1 < arguments.size())
+      {
+        name = arguments.remove(index + 1);
+        arguments.remove(index);
+      }
+      var profile = ALL.get(name);
+      if (profile == null)
+      {
+        throw new IllegalArgumentException(format("Unknown profile ''{0}''. Known profiles are: {1}.", name, String.join(", ", ALL.keySet())));
+      }
+      return profile;
+    }
+
+    /**
+    * @param src Where the sources of all modules are.
+    * @param output Where the class files go.
+    * @return The options for compiling the modules in `src` with this profile.
+    */
+    List<String> options(Path src, Path output)
+    {
+      return resolved.computeIfAbsent(output, __ ->
+      {
+        var options = new ArrayList<String>();
+        options.addAll(List.of("--module-source-path", src.toString())); // input location of all source files. they have to be modules!
+        options.addAll(List.of("-d", output.toString())); //output class files to build folder
+        options.addAll(javac_options);
+        return List.copyOf(options);
+      });
+    }
+
+    /**
+    * @return `options(src, output)` as understood by the running javac.
+    */
+    List<String> supportedOptions(Javac javac, Path src, Path output)
+    {
+      return supported.computeIfAbsent(output, __ -> supported(javac, options(src, output)));
+    }
+  }
+  static final String LIMIT_MODULES = "java.base,java.desktop,java.management";
+
+  /**
+  * @return `options` without the ones, the running javac does not know anymore.
+  */
+  static List<String> supported(Javac javac, List<String> options)
+  {
+		if (options.contains("--doclint-format") && javac.compiler().isSupportedOption("--doclint-format") < 0)
+		{
+			//`--doclint-format` is gone since JDK 17, which only knows HTML5 anyway.
+			var supported = new ArrayList<>(options);
+			var index = supported.indexOf("--doclint-format");
+			supported.subList(index, index + 2).clear();
+			return List.copyOf(supported);
+		}
+		return options;
+  }
+
+  /**
+  * Compiles all modules straight into memory and runs `main/main.Main` from there, in this JVM.
+  * Not a single class file touches the disk. `bld` is neither read nor written.
+  * The edit-compile-run loop pays for one javac task, one module layer and nothing else.
+  * @param args Passed on to `main.Main`.
+  * @return false if the compilation failed.
+  */
+  static boolean run(Javac javac, Profile profile, String[] args)
+  throws IOException
+  {
+    var start = System.nanoTime();
+    var src = get("src");
+    var modules = findModules(src);
+    //javac insists on an output directory in multi-module mode. it never gets created, because the classes are caught in memory.
+    var options = new ArrayList<>(profile.supportedOptions(javac, src, get("bld/memory")));
+    var limit = options.indexOf("--limit-modules") + 1;
+    var observable = new StringBuilder(options.get(limit));
+    modules.forEach(module -> observable.append(',').append(module.name));
+    options.set(limit, observable.toString());
+    //this task does not share its file manager. it would keep the options of the last run forever.
+    var file_manager = new MemoryFileManager(javac.compiler().getStandardFileManager(null, javac.locale, javac.charset));
+    var log = new StringWriter();
+    var diagnostics = new DiagnosticCollector<JavaFileObject>();
+    var compilation_units = file_manager.getJavaFileObjectsFromPaths(findSources(src));
+    var success = javac.compiler().getTask(new PrintWriter(log), file_manager, diagnostics, options, null, compilation_units).call();
+    file_manager.close();
     diagnostics.getDiagnostics().stream()
     .map(d -> format("{0} [{1}] ''{2}:{3}'' MSG: {4}",
     								 d.getKind(),
     								 d.getCode(),
-    								 d.getSource().getName(),
+    								 d.getSource() == null ? "" : d.getSource().getName(),
     								 d.getLineNumber(),
-    								 d.getMessage(locale)))
-	  .forEach(err::println);
+    								 d.getMessage(javac.locale)))
+    .forEach(err::println);
+    if (!success)
+    {
+      err.print(log);
+      return false;
+    }
+    var classes = file_manager.classes;
+    out.println(format("Compiled {0} modules into memory in {1} ms. Running main/main.Main.", classes.size(), millisSince(start)));
+    var configuration = ModuleLayer.boot().configuration().resolve(memoryModules(classes), ModuleFinder.of(), Set.of("main"));
+    var controller = ModuleLayer.defineModulesWithOneLoader(configuration, List.of(ModuleLayer.boot()), ClassLoader.getSystemClassLoader());
+    var main_module = controller.layer().findModule("main").orElseThrow();
+    //`main.Main` is not public and its package is not exported. that is none of our business, we only want to start it.
+    controller.addOpens(main_module, "main", build.class.getModule());
+    try
+    {
+      var main = Class.forName(main_module, "main.Main").getDeclaredMethod("main", String[].class);
+      main.setAccessible(true);
+      main.invoke(null, (Object) args);
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new IllegalStateException("Could not run main/main.Main", e instanceof InvocationTargetException ? e.getCause() : e);
+    }
+    return true;
+  }
+
+  /**
+  * Starts `main/main.Main` from the output tree of `profile` in a JVM of its own, with the runtime options of the profile.
+  * If `java build.java cds` left an archive, that still matches the classes, the JVM starts from it.
+  * @param args Passed on to `main.Main`.
+  * @return The exit code of the application.
+  */
+  static int launch(Profile profile, List<String> args)
+  throws IOException
+  {
+    var command = new ArrayList<String>();
+    command.add(JAVA.toString());
+    command.addAll(profile.runtime_options);
+    if (hasFreshArchive(profile))
+    {
+      command.addAll(List.of("-XX:SharedArchiveFile=" + profile.archive(), "--module-path", profile.jars.toString()));
+    }
+    else
+    {
+      command.addAll(List.of("--module-path", profile.output.toString()));
+    }
+    command.addAll(List.of("--module", "main/main.Main"));
+    command.addAll(args);
+    try
+    {
+      return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return 1;
+    }
+  }
+
+  static final Path JAVA = get(System.getProperty("java.home"), "bin", "java");
+
+  /**
+  * Runs the microbenchmarks of `bench/bench.Harness`, JMH style, without JMH (no third-party dependencies).
+  * Every fork is a fresh JVM with the runtime options of `profile` and the given flags. The harness in it does the warmup and measurement iterations.
+  * The iterations of all forks are the samples of a benchmark. Their statistics go to `bld/bench/&lt;profile&gt;.json` and `.csv`.
+  * Then they are compared with the baseline in `bld/bench/&lt;profile&gt;.baseline.csv`, which `--save-baseline` replaces.
+  * Being slower than the baseline by more than the threshold fails the task, if the difference is significant (Welch's t-test).
+  * Arguments: `--forks &lt;n&gt;` (default: the forks of `profile`), `--jvm &lt;flag&gt;` (repeatable), `--threshold &lt;percent&gt;` (default 5), `--save-baseline`.
+  * Everything else goes to the harness: `--warmup &lt;n&gt;`, `--iterations &lt;n&gt;`, `--time &lt;ms&gt;`, `--param &lt;name&gt;=&lt;values&gt;` and name filters.
+  * @return false if an argument lacks its value, a fork failed or a benchmark regressed.
+  */
+  static boolean bench(Profile profile, List<String> arguments)
+  throws IOException
+  {
+    var forks = profile.forks;
+    var threshold = 0.05;
+    var save_baseline = false;
+    var jvm_options = new ArrayList<String>();
+    var harness_arguments = new ArrayList<String>();
+    for (var index = 0; index < arguments.size(); index++)
+    {
+      if (index + 1 == arguments.size() && List.of("--forks", "--jvm", "--threshold").contains(arguments.get(index)))
+      {
+        err.println(format("Missing value for ''{0}''.", arguments.get(index)));
+        return false;
+      }
+      switch (arguments.get(index))
+      {
+        case "--forks":
+          forks = Integer.parseInt(arguments.get(++index));
+        break;
+        case "--jvm":
+          jvm_options.add(arguments.get(++index));
+        break;
+        case "--threshold":
+          threshold = Double.parseDouble(arguments.get(++index)) / 100;
+        break;
+        case "--save-baseline":
+          save_baseline = true;
+        break;
+        default:
+          harness_arguments.add(arguments.get(index));
+      }
+    }
+    //benchmark + tab + parameters → nanoseconds per operation of every measurement iteration of every fork
+    var samples = new LinkedHashMap<String, List<Double>>();
+    for (var fork = 0; fork < forks; fork++)
+    {
+      var command = new ArrayList<String>();
+      command.add(JAVA.toString());
+      command.addAll(profile.runtime_options);
+      command.addAll(jvm_options);
+      command.add("-Djava.awt.headless=true");
+      command.addAll(List.of("--module-path", profile.output.toString(), "--module", "bench/bench.Harness"));
+      command.addAll(harness_arguments);
+      out.println(format("Fork {0,number,#} of {1,number,#}: {2}", fork + 1, forks, String.join(" ", command)));
+      var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      try (var lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+      {
+        String line;
+        while ((line = lines.readLine()) != null)
+        {
+          if (!line.startsWith("RESULT\t"))
+          {
+            out.println(line);
+            continue;
+          }
+          var fields = line.split("\t");
+          samples.computeIfAbsent(fields[1] + "\t" + fields[2], __ -> new ArrayList<>()).add(Double.parseDouble(fields[5]) / Long.parseLong(fields[4]));
+        }
+      }
+      try
+      {
+        if (process.waitFor() != 0)
+        {
+          err.println(format("Fork {0,number,#} failed.", fork + 1));
+          return false;
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    if (samples.isEmpty())
+    {
+      err.println("No benchmark matched.");
+      return false;
+    }
+    var scores = new ArrayList<Score>();
+    for (var sample : samples.entrySet())
+    {
+      var key = sample.getKey().split("\t");
+      scores.add(new Score(key[0], key[1], sample.getValue()));
+    }
+    var csv = new ArrayList<String>();
+    csv.add("benchmark,parameters,samples,mean_ns,deviation_ns,ci95_ns");
+    var json = new StringBuilder("[\n");
+    out.println(format("{0} {1} {2}", String.format("%-16s %-32s", "benchmark", "parameters"), String.format("%14s", "ns/op"), String.format("%10s", "+-95%")));
+    for (var score : scores)
+    {
+      out.println(format("{0} {1} {2}", String.format("%-16s %-32s", score.benchmark, score.parameters), String.format("%14.2f", score.mean), String.format("%10.2f", score.confidence())));
+      csv.add(String.join(",", score.benchmark, score.parameters, String.valueOf(score.samples), String.valueOf(score.mean), String.valueOf(score.deviation), String.valueOf(score.confidence())));
+      json.append(format("  '{'\"benchmark\":\"{0}\",\"parameters\":\"{1}\",\"samples\":{2,number,#},\"mean_ns\":{3},\"deviation_ns\":{4},\"ci95_ns\":{5}'}'{6}\n",
+        score.benchmark, score.parameters, score.samples, String.valueOf(score.mean), String.valueOf(score.deviation), String.valueOf(score.confidence()), score == scores.get(scores.size() - 1) ? "" : ","));
+    }
+    json.append("]\n");
+    var results = get("bld", "bench");
+    Files.createDirectories(results);
+    Files.write(results.resolve(profile.name + ".csv"), csv, StandardCharsets.UTF_8);
+    Files.writeString(results.resolve(profile.name + ".json"), json, StandardCharsets.UTF_8);
+    var baseline = results.resolve(profile.name + ".baseline.csv");
+    if (save_baseline)
+    {
+      Files.write(baseline, csv, StandardCharsets.UTF_8);
+      out.println("Saved the results as the new baseline " + baseline);
+      return true;
+    }
+    if (!exists(baseline))
+    {
+      out.println("There is no baseline to compare with yet. Save one with --save-baseline.");
+      return true;
+    }
+    var before = new HashMap<String, Score>();
+    var baseline_lines = Files.readAllLines(baseline, StandardCharsets.UTF_8);
+    for (var line : baseline_lines.subList(1, baseline_lines.size()))
+    {
+      var fields = line.split(",");
+      before.put(fields[0] + "\t" + fields[1], new Score(fields[0], fields[1], Long.parseLong(fields[2]), Double.parseDouble(fields[3]), Double.parseDouble(fields[4])));
+    }
+    var regressed = false;
+    for (var score : scores)
+    {
+      var old = before.get(score.benchmark + "\t" + score.parameters);
+      if (old == null)
+      {
+        continue;
+      }
+      var change = score.mean / old.mean - 1;
+      var significant = score.welch(old) > Score.T_CRITICAL;
+      var verdict = change > threshold && significant ? "REGRESSION" : change < -threshold && score.welch(old) < -Score.T_CRITICAL ? "improvement" : "same";
+      regressed = regressed || verdict.equals("REGRESSION");
+      out.println(format("{0} {1} vs baseline: {2}", score.benchmark, score.parameters, String.format("%+.1f%% (t=%.2f) %s", change * 100, score.welch(old), verdict)));
+    }
+    if (regressed)
+    {
+      err.println(format("At least one benchmark is significantly slower than the baseline by more than {0}%.", String.valueOf(threshold * 100)));
+    }
+    return !regressed;
+  }
+
+  /**
+  * The statistics of one benchmark with one combination of parameters.
+  */
+  static final class Score
+  {
+    /** Roughly the two-sided 95% critical value of Student's t-distribution for the degrees of freedom of a few forks of iterations. */
+    static final double T_CRITICAL = 2.0;
+    final String benchmark;
+    final String parameters;
+    final long samples;
+    final double mean;
+    final double deviation;
+    Score(String benchmark, String parameters, long samples, double mean, double deviation)
+    {
+      this.benchmark = benchmark;
+      this.parameters = parameters;
+      this.samples = samples;
+      this.mean = mean;
+      this.deviation = deviation;
+    }
+    Score(String benchmark, String parameters, List<Double> values)
+    {
+      this(benchmark, parameters, values.size(), mean(values), deviation(values, mean(values)));
+    }
+    static double mean(List<Double> values)
+    {
+      return values.stream().mapToDouble(value -> value).average().orElse(0);
+    }
+    /**
+    * @return The sample standard deviation.
+    */
+    static double deviation(List<Double> values, double mean)
+    {
+      return Math.sqrt(values.stream().mapToDouble(value -> (value - mean) * (value - mean)).sum() / Math.max(1, values.size() - 1));
+    }
+    /**
+    * @return Half of the 95% confidence interval of the mean.
+    */
+    double confidence()
+    {
+      return 1.96 * deviation / Math.sqrt(samples);
+    }
+    /**
+    * @return Welch's t statistic of this mean against the mean of `other`. Positive means slower than `other`.
+    */
+    double welch(Score other)
+    {
+      var error = Math.sqrt(deviation * deviation / samples + other.deviation * other.deviation / other.samples);
+      return error == 0 ? 0 : (mean - other.mean) / error;
+    }
+  }
+
+  /**
+  * Traces the startup of the grid (`-Dmain.trace=true`, see `main.Trace`) and prints the median timeline.
+  * Variants make it an A/B test: `--variant &lt;name&gt;=&lt;JVM options, separated by spaces&gt;` (repeatable),
+  * like `--variant skip=-Dmain.skip=menu_bar,icon_image`. Without variants, there is one variant with no options.
+  * The runs of the variants are interleaved, so that they suffer the same noise.
+  * Arguments: `--runs &lt;n&gt;` (default 5), `--jfr` to record every run with Flight Recorder into `bld/trace`.
+  * @return false if the arguments make no sense or a run did not reach its first frame.
+  */
+  static boolean trace(Profile profile, List<String> arguments)
+  throws IOException
+  {
+    var runs = 5;
+    var jfr = false;
+    var variants = new LinkedHashMap<String, List<String>>();
+    for (var index = 0; index < arguments.size(); index++)
+    {
+      if (index + 1 == arguments.size() && List.of("--runs", "--variant").contains(arguments.get(index)))
+      {
+        err.println(format("Missing value for ''{0}''.", arguments.get(index)));
+        return false;
+      }
+      switch (arguments.get(index))
+      {
+        case "--runs":
+          runs = Integer.parseInt(arguments.get(++index));
+        break;
+        case "--jfr":
+          jfr = true;
+        break;
+        case "--variant":
+          {
+            var variant = arguments.get(++index).split("=", 2);
+            variants.put(variant[0], variant.length < 2 || variant[1].isBlank() ? List.of() : List.of(variant[1].trim().split("\\s+")));
+          }
+        break;
+        default:
+          err.println(format("Unknown argument ''{0}''.", arguments.get(index)));
+          return false;
+      }
+    }
+    if (variants.isEmpty())
+    {
+      variants.put("default", List.of());
+    }
+    var traces = get("bld", "trace");
+    Files.createDirectories(traces);
+    //variant → milestone → milliseconds since the start of the JVM, one per run
+    var timelines = new LinkedHashMap<String, Map<String, List<Double>>>();
+    var milestones = new LinkedHashSet<String>();
+    for (var run = 0; run < runs; run++)
+    {
+      for (var variant : variants.entrySet())
+      {
+        var command = new ArrayList<String>();
+        command.add(JAVA.toString());
+        command.addAll(profile.runtime_options);
+        command.addAll(variant.getValue());
+        command.addAll(List.of("--add-modules", "java.management", "-Dmain.trace=true", "-Dmain.probe=true"));
+        if (jfr)
+        {
+          command.add(format("-XX:StartFlightRecording=filename={0},settings=profile", traces.resolve(format("{0}-{1,number,#}.jfr", variant.getKey(), run))));
+        }
+        command.addAll(List.of("--module-path", profile.output.toString(), "--module", "main/main.Main"));
+        var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        var first_frame = false;
+        try (var lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+        {
+          String line;
+          while ((line = lines.readLine()) != null)
+          {
+            if (line.startsWith("TRACE "))
+            {
+              var fields = line.trim().split("\\s+");
+              milestones.add(fields[4]);
+              timelines.computeIfAbsent(variant.getKey(), __ -> new LinkedHashMap<>()).computeIfAbsent(fields[4], __ -> new ArrayList<>()).add(Double.parseDouble(fields[1]));
+            }
+            else if (line.equals("FIRST_FRAME"))
+            {
+              first_frame = true;
+              //closing stdin tells the grid to exit.
+              process.getOutputStream().close();
+            }
+          }
+          process.waitFor();
+        }
+        catch (InterruptedException e)
+        {
+          process.destroy();
+          Thread.currentThread().interrupt();
+          return false;
+        }
+        if (!first_frame)
+        {
+          err.println(format("Run {0,number,#} of variant ''{1}'' did not show a frame.", run, variant.getKey()));
+          return false;
+        }
+      }
+    }
+    var header = new StringBuilder(String.format("%-22s", "milestone [ms]"));
+    for (var variant : variants.keySet())
+    {
+      header.append(String.format(" %12s", variant));
+    }
+    out.println(format("Median over {0,number,#} runs, since the start of the JVM:", runs));
+    out.println(header);
+    for (var milestone : milestones)
+    {
+      var row = new StringBuilder(String.format("%-22s", milestone));
+      for (var variant : variants.keySet())
+      {
+        var times = timelines.getOrDefault(variant, Map.of()).getOrDefault(milestone, List.of());
+        var sorted = times.stream().sorted().collect(Collectors.toList());
+        row.append(sorted.isEmpty() ? String.format(" %12s", "-") : String.format(" %12.2f", sorted.get(sorted.size() / 2)));
+      }
+      out.println(row);
+    }
+    if (jfr)
+    {
+      out.println(format("Flight recordings are in {0}. Open them with `jfr print` or JDK Mission Control.", traces));
+    }
+    return true;
+  }
+
+  /**
+  * The garbage collectors `java build.java gc` compares, by name. Those, that the JDK at hand lacks, are skipped.
+  */
+  static final Map<String, List<String>> COLLECTORS = new LinkedHashMap<>();
+  static
+  {
+    COLLECTORS.put("serial", List.of("-XX:+UseSerialGC"));
+    COLLECTORS.put("parallel", List.of("-XX:+UseParallelGC"));
+    COLLECTORS.put("g1", List.of("-XX:+UseG1GC"));
+    COLLECTORS.put("z", List.of("-XX:+UseZGC"));
+    COLLECTORS.put("shenandoah", List.of("-XX:+UseShenandoahGC"));
+    //no collection at all. like the `x` file does for one-off builds.
+    COLLECTORS.put("epsilon", List.of("-XX:+UnlockExperimentalVMOptions", "-XX:+UseEpsilonGC"));
+  }
+
+  /**
+  * Something to run under every garbage collector: one of the modes, the project ships in.
+  */
+  interface Workload
+  {
+    /**
+    * @return The arguments for `java`, after the JVM options.
+    */
+    List<String> arguments(Profile profile);
+    /**
+    * Drives the started workload until it is done.
+    * @return The throughput in {@link #unit()}, or -1 if the workload failed.
+    */
+    double drive(Profile profile, Process process, int seconds)
+    throws IOException, InterruptedException;
+    String unit();
+  }
+
+  /**
+  * The workloads of `java build.java gc`, by name.
+  */
+  static final Map<String, Workload> WORKLOADS = new LinkedHashMap<>();
+  static
+  {
+    //standalone: a full release build. the one-off JVM of `java build.java`.
+    WORKLOADS.put("build", new Workload()
+    {
+      public List<String> arguments(Profile profile)
+      {
+        return List.of("-Dbuild.local=true", "build.java", "build", "--profile", Profile.RELEASE.name);
+      }
+      public double drive(Profile profile, Process process, int seconds)
+      throws IOException, InterruptedException
+      {
+        //a build, that has nothing to do, measures nothing.
+        var start = System.nanoTime();
+        process.getInputStream().transferTo(OutputStream.nullOutputStream());
+        return process.waitFor() == 0 ? 1e9 / (System.nanoTime() - start) : -1;
+      }
+      public String unit()
+      {
+        return "builds/s";
+      }
+    });
+    //GUI: the render loop of the grid, as fast as it goes, for a while.
+    WORKLOADS.put("grid", new Workload()
+    {
+      public List<String> arguments(Profile profile)
+      {
+        return List.of("-Dmain.probe=true", "-Dmain.pacing=fixed:1000", "--module-path", profile.output.toString(), "--module", "main/main.Main");
+      }
+      public double drive(Profile profile, Process process, int seconds)
+      throws IOException, InterruptedException
+      {
+        var lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = lines.readLine()) != null && !line.equals("FIRST_FRAME"));
+        if (line == null)
+        {
+          process.waitFor();
+          return -1;
+        }
+        var start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        //closing stdin tells the grid to report its frames and exit.
+        process.getOutputStream().close();
+        var frames = -1L;
+        while ((line = lines.readLine()) != null)
+        {
+          if (line.startsWith("FRAMES "))
+          {
+            frames = Long.parseLong(line.substring("FRAMES ".length()));
+          }
+        }
+        process.waitFor();
+        return frames < 0 ? -1 : frames * 1e9 / (System.nanoTime() - start);
+      }
+      public String unit()
+      {
+        return "frames/s";
+      }
+    });
+    //server: the market under load from `market.Load`, as fast as it goes, for a while.
+    WORKLOADS.put("market", new Workload()
+    {
+      public List<String> arguments(Profile profile)
+      {
+        return List.of("-Dmarket.probe=true", "--module-path", profile.output.toString(), "--module", "market/market.Server", "--port", "0");
+      }
+      public double drive(Profile profile, Process process, int seconds)
+      throws IOException, InterruptedException
+      {
+        var lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        var port = listening(lines);
+        if (port < 0)
+        {
+          process.waitFor();
+          return -1;
+        }
+        var load = load(profile, port, List.of("--connections", "1000", "--idle", "0", "--seconds", String.valueOf(seconds))).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        var throughput = -1.0;
+        for (var line : new String(load.getInputStream().readAllBytes(), StandardCharsets.UTF_8).split("\n"))
+        {
+          if (line.startsWith("THROUGHPUT "))
+          {
+            throughput = Double.parseDouble(line.substring("THROUGHPUT ".length()));
+          }
+        }
+        //closing stdin tells the market to exit.
+        process.getOutputStream().close();
+        lines.transferTo(Writer.nullWriter());
+        process.waitFor();
+        return load.waitFor() == 0 ? throughput : -1;
+      }
+      public String unit()
+      {
+        return "requests/s";
+      }
+    });
+  }
+
+  /**
+  * Reads the output of `market.Server` until it accepts connections.
+  * @return The port it listens on, -1 if it did not start.
+  */
+  static int listening(BufferedReader lines)
+  throws IOException
+  {
+    String line;
+    while ((line = lines.readLine()) != null)
+    {
+      if (line.startsWith("LISTENING "))
+      {
+        return Integer.parseInt(line.substring("LISTENING ".length()));
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * @return The load generator of the market, `market.Load`, against the market at `port`.
+  */
+  static ProcessBuilder load(Profile profile, int port, List<String> args)
+  {
+    var command = new ArrayList<String>();
+    command.addAll(List.of(JAVA.toString(), "--module-path", profile.output.toString(), "--module", "market/market.Load", "--port", String.valueOf(port)));
+    command.addAll(args);
+    return new ProcessBuilder(command);
+  }
+
+  /**
+  * Runs a workload under every available garbage collector and heap size, to back the GC flags of every mode with numbers.
+  * The heap is fixed (`-Xms` = `-Xmx`), like in the `x` file. The JVM writes a unified GC log, which yields the pause times
+  * and the allocation rate. The peak resident set size comes from `/proc` (Linux only).
+  * Arguments: `--workload build|grid|market` (default build), `--collectors serial,parallel,...` (default all),
+  * `--heaps 64m,256m,1g` (default), `--runs &lt;n&gt;` (default 3), `--seconds &lt;n&gt;` (for workloads, that run until stopped, default 5).
+  * The table goes to stdout and `bld/gc/&lt;workload&gt;.csv`.
+  * @return false if the arguments make no sense. Workloads, that fail under a configuration (say, out of memory with Epsilon), are reported, not fatal.
+  */
+  static boolean gc(Profile profile, List<String> arguments)
+  throws IOException
+  {
+    var workload_name = "build";
+    var collectors = new ArrayList<>(COLLECTORS.keySet());
+    var heaps = List.of("64m", "256m", "1g");
+    var runs = 3;
+    var seconds = 5;
+    for (var index = 0; index < arguments.size(); index++)
+    {
+      if (index + 1 == arguments.size() && List.of("--workload", "--collectors", "--heaps", "--runs", "--seconds").contains(arguments.get(index)))
+      {
+        err.println(format("Missing value for ''{0}''.", arguments.get(index)));
+        return false;
+      }
+      switch (arguments.get(index))
+      {
+        case "--workload":
+          workload_name = arguments.get(++index);
+        break;
+        case "--collectors":
+          collectors = new ArrayList<>(List.of(arguments.get(++index).split(",")));
+        break;
+        case "--heaps":
+          heaps = List.of(arguments.get(++index).split(","));
+        break;
+        case "--runs":
+          runs = Integer.parseInt(arguments.get(++index));
+        break;
+        case "--seconds":
+          seconds = Integer.parseInt(arguments.get(++index));
+        break;
+        default:
+          err.println(format("Unknown argument ''{0}''.", arguments.get(index)));
+          return false;
+      }
+    }
+    var workload = WORKLOADS.get(workload_name);
+    if (workload == null)
+    {
+      err.println(format("Unknown workload ''{0}''. Known workloads are: {1}.", workload_name, String.join(", ", WORKLOADS.keySet())));
+      return false;
+    }
+    var results = get("bld", "gc");
+    Files.createDirectories(results);
+    var csv = new ArrayList<String>();
+    csv.add(format("collector,heap,run,exit,wall_ms,pauses,pause_total_ms,pause_p50_ms,pause_p99_ms,pause_max_ms,allocation_mb_s,peak_rss_mb,throughput_{0}", workload.unit().replace('/', '_')));
+    out.println(String.format("%-10s %-6s %8s %7s %9s %9s %9s %11s %9s %12s", "collector", "heap", "wall_ms", "pauses", "p50_ms", "p99_ms", "max_ms", "alloc_mb_s", "rss_mb", workload.unit()));
+    for (var collector : collectors)
+    {
+      var flags = COLLECTORS.get(collector);
+      if (flags == null)
+      {
+        err.println(format("Unknown collector ''{0}''. Known collectors are: {1}.", collector, String.join(", ", COLLECTORS.keySet())));
+        return false;
+      }
+      if (!isAvailable(flags))
+      {
+        out.println(format("{0}: not available in this JDK. Skipped.", collector));
+        continue;
+      }
+      for (var heap : heaps)
+      {
+        var runs_of_configuration = new ArrayList<GcRun>();
+        for (var run = 0; run < runs; run++)
+        {
+          var log = results.resolve(format("{0}-{1}-{2}-{3,number,#}.log", workload_name, collector, heap, run));
+          deleteIfExists(log);
+          if (workload_name.equals("build"))
+          {
+            deleteDir(Profile.RELEASE.output);
+          }
+          var command = new ArrayList<String>();
+          command.add(JAVA.toString());
+          command.addAll(flags);
+          command.addAll(List.of("-Xms" + heap, "-Xmx" + heap, "-Xlog:gc,gc+phases,gc+heap+exit:file=" + log + ":uptime,tags"));
+          command.addAll(workload.arguments(profile));
+          var result = measure(profile, command, workload, seconds, log);
+          runs_of_configuration.add(result);
+          csv.add(String.join(",", collector, heap, String.valueOf(run), String.valueOf(result.exit), String.valueOf(result.wall_ms), String.valueOf(result.pauses.size()),
+            String.valueOf(result.pauseTotal()), String.valueOf(result.pause(0.5)), String.valueOf(result.pause(0.99)), String.valueOf(result.pause(1)),
+            String.valueOf(result.allocationRate()), result.peak_rss < 0 ? "" : String.valueOf(result.peak_rss >> 20), result.throughput < 0 ? "" : String.valueOf(result.throughput)));
+        }
+        //the median run of the configuration, by wall time.
+        runs_of_configuration.sort(Comparator.comparingLong(run -> run.wall_ms));
+        var median = runs_of_configuration.get(runs_of_configuration.size() / 2);
+        if (median.throughput < 0)
+        {
+          out.println(String.format("%-10s %-6s failed with exit code %d. See %s", collector, heap, median.exit, results));
+          continue;
+        }
+        out.println(String.format("%-10s %-6s %8d %7d %9.2f %9.2f %9.2f %11.1f %9s %12.2f", collector, heap, median.wall_ms, median.pauses.size(), median.pause(0.5), median.pause(0.99), median.pause(1),
+          median.allocationRate(), median.peak_rss < 0 ? "n/a" : String.valueOf(median.peak_rss >> 20), median.throughput));
+      }
+    }
+    Files.write(results.resolve(workload_name + ".csv"), csv, StandardCharsets.UTF_8);
+    out.println(format("Every run is in {0}.", results.resolve(workload_name + ".csv")));
+    return true;
+  }
+
+  /**
+  * @return Whether the JVM starts with these flags, like a collector, that this build of the JDK may not have.
+  */
+  static boolean isAvailable(List<String> flags)
+  throws IOException
+  {
+    var command = new ArrayList<String>();
+    command.add(JAVA.toString());
+    command.addAll(flags);
+    command.add("-version");
+    try
+    {
+      return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor() == 0;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+  * One run of a workload under one GC configuration.
+  */
+  static final class GcRun
+  {
+    final int exit;
+    final long wall_ms;
+    /** In milliseconds, sorted. */
+    final List<Double> pauses;
+    /** Bytes. */
+    final long allocated;
+    final long peak_rss;
+    final double throughput;
+    GcRun(int exit, long wall_ms, List<Double> pauses, long allocated, long peak_rss, double throughput)
+    {
+      this.exit = exit;
+      this.wall_ms = wall_ms;
+      this.pauses = pauses;
+      this.allocated = allocated;
+      this.peak_rss = peak_rss;
+      this.throughput = throughput;
+    }
+    double pauseTotal()
+    {
+      return pauses.stream().mapToDouble(pause -> pause).sum();
+    }
+    /**
+    * @return The pause at the quantile, 0 if there was none.
+    */
+    double pause(double quantile)
+    {
+      return pauses.isEmpty() ? 0 : pauses.get(Math.max(0, Math.min(pauses.size() - 1, (int) Math.ceil(quantile * pauses.size()) - 1)));
+    }
+    /**
+    * @return MB allocated per second of wall time.
+    */
+    double allocationRate()
+    {
+      return wall_ms == 0 ? 0 : allocated / 1e6 / (wall_ms / 1e3);
+    }
+  }
+
+  static final java.util.regex.Pattern PAUSE = java.util.regex.Pattern.compile("Pause.*?(\\d+(?:\\.\\d+)?)ms\\s*$");
+  static final java.util.regex.Pattern TRANSITION = java.util.regex.Pattern.compile("(\\d+)([KMG])(?:\\([^)]*\\))?->(\\d+)([KMG])");
+  /** What Epsilon logs about its heap. It never frees anything, so used is allocated. */
+  static final java.util.regex.Pattern USED = java.util.regex.Pattern.compile("(\\d+)([KMG]) \\([\\d.]+%\\) used");
+
+  /**
+  * Starts a workload, drives it and reads its GC log.
+  */
+  static GcRun measure(Profile profile, List<String> command, Workload workload, int seconds, Path log)
+  throws IOException
+  {
+    var start = System.nanoTime();
+    var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+    //VmHWM is the peak of the resident set size. it only grows, so sampling it until the end catches the peak.
+    var peak_rss = new java.util.concurrent.atomic.AtomicLong(-1);
+    var sampler = new Thread(() ->
+    {
+      while (process.isAlive())
+      {
+        var peak = peakResidentSetSize(process.pid());
+        if (peak > 0)
+        {
+          peak_rss.set(peak);
+        }
+        try
+        {
+          Thread.sleep(20);
+        }
+        catch (InterruptedException __)
+        {
+          return;
+        }
+      }
+    }, "rss");
+    sampler.setDaemon(true);
+    sampler.start();
+    double throughput;
+    int exit;
+    try
+    {
+      throughput = workload.drive(profile, process, seconds);
+      exit = process.waitFor();
+    }
+    catch (InterruptedException e)
+    {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      return new GcRun(-1, 0, List.of(), 0, -1, -1);
+    }
+    var wall_ms = millisSince(start);
+    var pauses = new ArrayList<Double>();
+    var allocated = 0L;
+    var previous_after = 0L;
+    if (exists(log))
+    {
+      for (var line : Files.readAllLines(log, StandardCharsets.UTF_8))
+      {
+        var pause = PAUSE.matcher(line);
+        if (pause.find())
+        {
+          pauses.add(Double.parseDouble(pause.group(1)));
+        }
+        var transition = TRANSITION.matcher(line);
+        if (line.contains("[gc ") || line.contains("[gc]"))
+        {
+          if (transition.find())
+          {
+            //what was allocated since the last collection left the heap at `previous_after`.
+            var before = bytes(transition.group(1), transition.group(2));
+            allocated = allocated + Math.max(0, before - previous_after);
+            previous_after = bytes(transition.group(3), transition.group(4));
+          }
+          var used = USED.matcher(line);
+          if (used.find())
+          {
+            allocated = Math.max(allocated, bytes(used.group(1), used.group(2)));
+          }
+        }
+      }
+    }
+    Collections.sort(pauses);
+    return new GcRun(exit, wall_ms, pauses, allocated, peak_rss.get(), exit == 0 ? throughput : -1);
+  }
+
+  static long bytes(String amount, String unit)
+  {
+    var value = Long.parseLong(amount);
+    switch (unit)
+    {
+      case "G": return value << 30;
+      case "M": return value << 20;
+      default: return value << 10;
+    }
+  }
+
+  /**
+  * @return The peak resident set size of process `pid` in bytes, or -1 if the OS does not tell.
+  */
+  static long peakResidentSetSize(long pid)
+  {
+    try
+    {
+      for (var line : Files.readAllLines(get("/proc", Long.toString(pid), "status"), StandardCharsets.UTF_8))
+      {
+        if (line.startsWith("VmHWM:"))
+        {
+          return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+        }
+      }
+    }
+    catch (IOException | NumberFormatException __)
+    {
+      //not Linux, or the process is gone.
+    }
+    return -1;
+  }
+
+  /**
+  * Runs the headless benchmarks of the painting pipeline, `bench/bench.Pipeline`, in a JVM of its own.
+  * Without a display (no `DISPLAY`, like on a CI box), AWT runs headless and the pipeline draws into offscreen images.
+  * The results go to `bld/bench/pipeline.csv`.
+  * @param args Passed on to `bench.Pipeline`, like `--iterations 500 region queue`.
+  * @return The exit code of the benchmark.
+  */
+  static int pipeline(Profile profile, List<String> args)
+  throws IOException
+  {
+    var command = new ArrayList<String>();
+    command.add(JAVA.toString());
+    command.addAll(profile.runtime_options);
+    if (System.getenv("DISPLAY") == null && !System.getProperty("os.name").startsWith("Windows") && !System.getProperty("os.name").startsWith("Mac"))
+    {
+      command.add("-Djava.awt.headless=true");
+    }
+    command.addAll(List.of("--module-path", profile.output.toString(), "--module", "bench/bench.Pipeline"));
+    command.addAll(args);
+    try
+    {
+      return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return 1;
+    }
+  }
+
+  /**
+  * Starts the market, `market/market.Server`, in a small heap and points the load generator, `market.Load`, at it.
+  * The generator opens tens of thousands of connections, leaves them idle, prints what the server says about its heap meanwhile,
+  * and checks, that every connection still gets its pipelined responses.
+  * Arguments: `--heap &lt;size&gt;` of the server (default 64m), everything else goes to `market.Load`, like `--connections 50000 --seconds 10`.
+  * @return The exit code of the load generator: 0 if every connection was served.
+  */
+  static int market(Profile profile, List<String> args)
+  throws IOException
+  {
+    var arguments = new ArrayList<>(args);
+    var heap = "64m";
+    var index = arguments.indexOf("--heap");
+    if (index >= 0 && index + 1 < arguments.size())
+    {
+      heap = arguments.remove(index + 1);
+      arguments.remove(index);
+    }
+    //`java.management` for the GC metrics, that the market pushes to the grid (`-Dmain.market=bld/market.sock`).
+    var server = new ProcessBuilder(JAVA.toString(), "-Xms" + heap, "-Xmx" + heap, "-Dmarket.probe=true", "--add-modules", "java.management", "--module-path", profile.output.toString(), "--module", "market/market.Server", "--port", "0")
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+    try
+    {
+      var lines = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+      var port = listening(lines);
+      if (port < 0)
+      {
+        err.println("The market did not start.");
+        return 1;
+      }
+      out.println(format("The market listens on port {0,number,#} with a heap of {1}.", port, heap));
+      var exit = load(profile, port, arguments).inheritIO().start().waitFor();
+      server.getOutputStream().close();
+      lines.lines().forEach(out::println);
+      server.waitFor();
+      return exit;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return 1;
+    }
+    finally
+    {
+      server.destroy();
+    }
+  }
+
+  /**
+  * Makes `main/main.Main` start from a dynamic AppCDS archive.
+  * CDS only archives classes from jars, so every module of `profile` is packaged into `bld/lib/&lt;profile&gt;` first.
+  * A training run of the grid (`-XX:ArchiveClassesAtExit`) records every class it loads until the first frame is shown.
+  * Afterwards, the time to the first frame is measured with and without the archive, to prove it was worth it.
+  * @return false if the archive could not be created.
+  */
+  static boolean cds(Profile profile)
+  throws IOException
+  {
+    if (!packageModules(profile))
+    {
+      return false;
+    }
+    var archive = profile.archive();
+    deleteIfExists(archive);
+    out.println(format("Training {0}...", archive));
+    var training = probe(JAVA, List.of("-XX:ArchiveClassesAtExit=" + archive), profile.jars, profile);
+    if (training.ttff < 0 || !exists(archive))
+    {
+      err.println(format("The grid exited with {0} before showing a frame. Not keeping a half-trained {1}.", training.exit, archive));
+      deleteIfExists(archive);
+      return false;
+    }
+    var runs = 5;
+    var without = new long[runs];
+    var with = new long[runs];
+    for (var run = 0; run < runs; run++)
+    {
+      //interleaved, so that both sides suffer the same noise.
+      without[run] = probe(JAVA, List.of(), profile.jars, profile).ttff;
+      with[run] = probe(JAVA, List.of("-XX:SharedArchiveFile=" + archive), profile.jars, profile).ttff;
+    }
+    out.println(format("Time to first frame over {0} runs. without archive: {1} with archive: {2}", runs, summary(without, 1_000_000, "ms"), summary(with, 1_000_000, "ms")));
+    return true;
+  }
+
+  /**
+  * Packages every module in the output tree of `profile` into a modular jar below `bld/lib/&lt;profile&gt;`.
+  * @return false if the jar tool failed.
+  */
+  static boolean packageModules(Profile profile)
+  throws IOException
+  {
+    var jar = java.util.spi.ToolProvider.findFirst("jar").orElseThrow();
+    deleteDir(profile.jars);
+    Files.createDirectories(profile.jars);
+    try (var modules = Files.newDirectoryStream(profile.output, Files::isDirectory))
+    {
+      for (var module : modules)
+      {
+        var file = profile.jars.resolve(module.getFileName() + ".jar");
+        if (jar.run(out, err, "--create", "--file", file.toString(), "-C", module.toString(), ".") != 0)
+        {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+  * An archive is only worth something, if nothing was compiled since it was made.
+  * The manifest of a profile only changes, when something was compiled.
+  */
+  static boolean hasFreshArchive(Profile profile)
+  throws IOException
+  {
+    var archive = profile.archive();
+    var manifest = profile.output.resolve("build.manifest");
+    return exists(archive) && exists(manifest) && Files.getLastModifiedTime(archive).compareTo(Files.getLastModifiedTime(manifest)) > 0;
+  }
+
+  /**
+  * Links the grid into a minimal runtime image `bld/image/&lt;profile&gt;` and proves (or disproves) that it starts faster and smaller than the full JDK.
+  * <ol>
+  * <li>jdeps computes the JDK modules `main` really needs.</li>
+  * <li>jlink links only those, without debug info, headers and man pages.</li>
+  * <li>A training run of the image dumps the list of classes the grid loads until its first frame.
+  *     The default CDS archive of the image is regenerated from that list, so the grid itself is archived too.</li>
+  * <li>The grid is started `--runs N` times (default 10) from the full JDK and from the image, interleaved.
+  *     Time to first frame and resident set size of every run go to `bld/image/&lt;profile&gt;.csv`.</li>
+  * </ol>
+  * @return false if any tool failed.
+  */
+  static boolean jlink(Profile profile, List<String> arguments)
+  throws IOException
+  {
+    var runs = 10;
+    var index = arguments.indexOf("--runs");
+    if (index >= 0 && index + 1 < arguments.size())
+    {
+      runs = Integer.parseInt(arguments.get(index + 1));
+    }
+    if (!packageModules(profile))
+    {
+      return false;
+    }
+    var report = new StringWriter();
+    var jdeps = java.util.spi.ToolProvider.findFirst("jdeps").orElseThrow();
+    //jdeps does not resolve `requires static` (`java.management`, for the trace). the image leaves such modules out, and the grid does without them.
+    if (jdeps.run(new PrintWriter(report), new PrintWriter(err), "--module-path", profile.jars.toString(), "--ignore-missing-deps", "--print-module-deps", "--module", "main") != 0)
+    {
+      return false;
+    }
+    var jdk_modules = report.toString().trim();
+    var image = get("bld", "image", profile.name);
+    deleteDir(image);
+    out.println(format("Linking {0} with main,{1}...", image, jdk_modules));
+    var jlink = java.util.spi.ToolProvider.findFirst("jlink").orElseThrow();
+    var linked = jlink.run(out, err,
+      "--module-path", profile.jars + File.pathSeparator + get(System.getProperty("java.home"), "jmods"),
+      "--add-modules", "main," + jdk_modules,
+      "--output", image.toString(),
+      "--launcher", "grid=main/main.Main",
+      "--strip-debug",
+      "--compress=1", //string sharing only. zip (2) makes the image smaller, but every class has to be inflated at startup.
+      "--no-header-files",
+      "--no-man-pages");
+    if (linked != 0)
+    {
+      return false;
+    }
+    var image_java = image.resolve("bin").resolve(JAVA.getFileName());
+    var class_list = get("bld", "image", profile.name + ".classlist");
+    deleteIfExists(class_list);
+    var training = probe(image_java, List.of("-XX:DumpLoadedClassList=" + class_list), null, profile);
+    var dump = new ArrayList<>(List.of(image_java.toString(), "-Xshare:dump"));
+    if (training.ttff >= 0 && exists(class_list))
+    {
+      dump.add("-XX:SharedClassListFile=" + class_list);
+    }
+    else
+    {
+      err.println("The training run did not show a frame. The image gets the default class list of the JDK.");
+    }
+    try
+    {
+      if (new ProcessBuilder(dump).redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectError(ProcessBuilder.Redirect.INHERIT).start().waitFor() != 0)
+      {
+        return false;
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    var jdk_ttff = new long[runs];
+    var jdk_rss = new long[runs];
+    var image_ttff = new long[runs];
+    var image_rss = new long[runs];
+    var csv = new ArrayList<String>();
+    csv.add("variant,run,ttff_ms,rss_kb");
+    for (var run = 0; run < runs; run++)
+    {
+      //interleaved, so that both sides suffer the same noise.
+      var jdk = probe(JAVA, List.of(), profile.jars, profile);
+      var linked_image = probe(image_java, List.of(), null, profile);
+      jdk_ttff[run] = jdk.ttff;
+      jdk_rss[run] = jdk.rss;
+      image_ttff[run] = linked_image.ttff;
+      image_rss[run] = linked_image.rss;
+      csv.add(format("jdk,{0,number,#},{1},{2}", run, jdk.ttff < 0 ? "" : String.valueOf(jdk.ttff / 1_000_000.0), jdk.rss < 0 ? "" : String.valueOf(jdk.rss / 1024)));
+      csv.add(format("image,{0,number,#},{1},{2}", run, linked_image.ttff < 0 ? "" : String.valueOf(linked_image.ttff / 1_000_000.0), linked_image.rss < 0 ? "" : String.valueOf(linked_image.rss / 1024)));
+    }
+    Files.write(get("bld", "image", profile.name + ".csv"), csv, StandardCharsets.UTF_8);
+    out.println(format("Time to first frame over {0} runs. full JDK: {1} image: {2}", runs, summary(jdk_ttff, 1_000_000, "ms"), summary(image_ttff, 1_000_000, "ms")));
+    out.println(format("Resident set size at first frame.  full JDK: {0} image: {1}", summary(jdk_rss, 1024 * 1024, "MiB"), summary(image_rss, 1024 * 1024, "MiB")));
+    return true;
+  }
+
+  /**
+  * What a probe run of the grid found out.
+  * `ttff` is the time from starting the process until the grid reported its first frame, in nanoseconds.
+  * `rss` is the resident set size of the grid at that moment, in bytes. Only Linux tells us that cheaply.
+  * Both are -1 if unknown.
+  */
+  static final class Probe
+  {
+    final long ttff;
+    final long rss;
+    final int exit;
+    Probe(long ttff, long rss, int exit)
+    {
+      this.ttff = ttff;
+      this.rss = rss;
+      this.exit = exit;
+    }
+  }
+
+  /**
+  * Starts the grid in probe mode (`-Dmain.probe=true`), waits for its first frame and closes it again.
+  * @param java The java launcher to use.
+  * @param jvm_options Added to the runtime options of `profile`.
+  * @param module_path Where to find the modules. null, if they are linked into the runtime image of `java`.
+  */
+  static Probe probe(Path java, List<String> jvm_options, Path module_path, Profile profile)
+  throws IOException
+  {
+    var command = new ArrayList<String>();
+    command.add(java.toString());
+    command.addAll(profile.runtime_options);
+    command.addAll(jvm_options);
+    command.add("-Dmain.probe=true");
+    if (module_path != null)
+    {
+      command.addAll(List.of("--module-path", module_path.toString()));
+    }
+    command.addAll(List.of("--module", "main/main.Main"));
+    var start = System.nanoTime();
+    var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    var ttff = -1L;
+    var rss = -1L;
+    try (var lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+    {
+      String line;
+      while ((line = lines.readLine()) != null)
+      {
+        if (line.equals("FIRST_FRAME"))
+        {
+          ttff = System.nanoTime() - start;
+          rss = residentSetSize(process.pid());
+          break;
+        }
+        out.println(line);
+      }
+      //closing stdin tells the grid to exit.
+      process.getOutputStream().close();
+      while ((line = lines.readLine()) != null)
+      {
+        out.println(line);
+      }
+      return new Probe(ttff, rss, process.waitFor());
+    }
+    catch (InterruptedException e)
+    {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      return new Probe(-1, -1, -1);
+    }
+  }
+
+  /**
+  * @return The current resident set size of process `pid` in bytes, or -1 if the OS does not tell.
+  */
+  static long residentSetSize(long pid)
+  {
+    try
+    {
+      for (var line : Files.readAllLines(get("/proc", Long.toString(pid), "status"), StandardCharsets.UTF_8))
+      {
+        if (line.startsWith("VmRSS:"))
+        {
+          return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+        }
+      }
+    }
+    catch (IOException | NumberFormatException __)
+    {
+      //not Linux. no numbers.
+    }
+    return -1;
+  }
+
+  /**
+  * @param values Measurements. Negative means "unknown".
+  * @param divisor To convert the measurements to `unit`.
+  * @return Median, minimum and maximum in `unit`.
+  */
+  static String summary(long[] values, long divisor, String unit)
+  {
+    var sorted = values.clone();
+    Arrays.sort(sorted);
+    if (sorted[0] < 0)
+    {
+      return "n/a";
+    }
+    return format("median={0,number,#}{3} min={1,number,#}{3} max={2,number,#}{3}", sorted[sorted.length / 2] / divisor, sorted[0] / divisor, sorted[sorted.length - 1] / divisor, unit);
+  }
+
+  /**
+  * Keeps the class files, that javac generates, in byte arrays instead of writing them to disk.
+  * Everything else (reading sources, the JDK) is left to the standard file manager.
+  */
+  static final class MemoryFileManager
+  extends ForwardingJavaFileManager<StandardJavaFileManager>
+  {
+    /** module name → binary class name → class file */
+    final Map<String, Map<String, byte[]>> classes = new ConcurrentHashMap<>();
+    MemoryFileManager(StandardJavaFileManager file_manager)
+    {
+      super(file_manager);
+    }
+
+    Iterable<? extends JavaFileObject> getJavaFileObjectsFromPaths(Collection<Path> paths)
+    {
+      return fileManager.getJavaFileObjectsFromPaths(paths);
+    }
+
+    @Override public JavaFileObject getJavaFileForOutput(Location location, String class_name, JavaFileObject.Kind kind, FileObject sibling)
+    throws IOException
+    {
+      if (kind != JavaFileObject.Kind.CLASS)
+      {
+        return super.getJavaFileForOutput(location, class_name, kind, sibling);
+      }
+      var module = inferModuleName(location);
+      var module_classes = classes.computeIfAbsent(module, __ -> new ConcurrentHashMap<>());
+      return new SimpleJavaFileObject(URI.create("memory:///" + module + "/" + class_name.replace('.', '/') + kind.extension), kind)
+      {
+        @Override public OutputStream openOutputStream()
+        {
+          return new ByteArrayOutputStream()
+          {
+            @Override public void close()
+            {
+              module_classes.put(class_name, toByteArray());
+            }
+          };
+        }
+      };
+    }
+  }
+
+  /**
+  * @param classes module name → binary class name → class file
+  * @return A finder for the modules in `classes`, that reads straight from the byte arrays.
+  */
+  static ModuleFinder memoryModules(Map<String, Map<String, byte[]>> classes)
+  {
+    var references = new HashMap<String, ModuleReference>();
+    for (var module_classes : classes.values())
+    {
+      var resources = new HashMap<String, byte[]>();
+      var packages = new HashSet<String>();
+      module_classes.forEach((class_name, bytes) ->
+      {
+        resources.put(class_name.replace('.', '/') + ".class", bytes);
+        var dot = class_name.lastIndexOf('.');
+        if (dot > 0)
+        {
+          packages.add(class_name.substring(0, dot));
+        }
+      });
+      var descriptor = ModuleDescriptor.read(ByteBuffer.wrap(module_classes.get("module-info")), () -> packages);
+      references.put(descriptor.name(), new ModuleReference(descriptor, null)
+      {
+        @Override public ModuleReader open()
+        {
+          return new ModuleReader()
+          {
+            //there is no URI for a byte array. class loading only needs `read`.
+            @Override public Optional<URI> find(String name)
+            {
+              return Optional.empty();
+            }
+
+            @Override public Optional<InputStream> open(String name)
+            {
+              return Optional.ofNullable(resources.get(name)).map(ByteArrayInputStream::new);
+            }
+
+            @Override public Optional<ByteBuffer> read(String name)
+            {
+              return Optional.ofNullable(resources.get(name)).map(ByteBuffer::wrap);
+            }
+
+            @Override public Stream<String> list()
+            {
+              return resources.keySet().stream();
+            }
+
+            @Override public void close()
+            {
+            }
+          };
+        }
+      });
+    }
+    return new ModuleFinder()
+    {
+      @Override public Optional<ModuleReference> find(String name)
+      {
+        return Optional.ofNullable(references.get(name));
+      }
+
+      @Override public Set<ModuleReference> findAll()
+      {
+        return Set.copyOf(references.values());
+      }
+    };
+  }
+
+  /**
+  * A module below `src`, as declared by its `module-info.java`.
+  * Only `requires` of other modules in `src` are kept. The JDK is always there.
+  */
+  static final class ModuleSource
+  {
+    final String name;
+    final Path dir;
+    final Set<String> requires = new TreeSet<>();
+    ModuleSource(String name, Path dir)
+    {
+      this.name = name;
+      this.dir = dir;
+    }
+  }
+
+  /**
+  * What came out of compiling one module.
+  * The log and the diagnostics are printed by the main thread, so that concurrent modules do not garble each other.
+  */
+  static final class ModuleResult
+  {
+    final ModuleSource module;
+    final List<Path> dirty;
+    final boolean success;
+    final long millis;
+    final String log;
+    final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+    final Map<Path, List<Path>> outputs;
+    ModuleResult(ModuleSource module, List<Path> dirty, boolean success, long millis, String log, List<Diagnostic<? extends JavaFileObject>> diagnostics, Map<Path, List<Path>> outputs)
+    {
+      this.module = module;
+      this.dirty = dirty;
+      this.success = success;
+      this.millis = millis;
+      this.log = log;
+      this.diagnostics = diagnostics;
+      this.outputs = outputs;
+    }
+  }
+
+  /**
+  * Compiles the dirty sources of one module with a task (and file manager) of its own.
+  * Runs concurrently with other modules. It must only touch the units of its own module.
+  */
+  static ModuleResult compileModule(Javac javac, ModuleSource module, List<Path> dirty, List<String> options, Manifest next, Timings timings)
+  {
+    if (dirty.isEmpty())
+    {
+      return new ModuleResult(module, dirty, true, 0, "", List.of(), Map.of());
+    }
+    var start = System.nanoTime();
+    var log = new StringWriter();
+		var diagnostics = new DiagnosticCollector<JavaFileObject>();
+    var task_options = new ArrayList<>(options);
+    var file_manager = new RecordingFileManager(javac.fileManager(module.name, task_options));
+    var compilation_units = file_manager.getJavaFileObjectsFromPaths(dirty);
+    timings.add("file_manager", System.nanoTime() - start);
+		var task = (JavacTask) javac.compiler().getTask(new PrintWriter(log), file_manager, diagnostics, task_options, null, compilation_units);
+		var trees = Trees.instance(task);
+		task.addTaskListener(timings.listener());
+		task.addTaskListener(new TaskListener()
+		{
+			@Override public void finished(TaskEvent event)
+			{
+				if (event.getKind() == TaskEvent.Kind.ANALYZE)
+				{
+					var unit = next.units.get(relative(Path.of(event.getSourceFile().toUri())));
+					if (unit != null)
+					{
+						recordDependencies(trees, event.getCompilationUnit(), unit);
+					}
+				}
+			}
+		});
+    var success = task.call();
+    try
+    {
+      //keep the underlying file manager open for the next build. only write out what is pending.
+      file_manager.flush();
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException(e);
+    }
+    return new ModuleResult(module, dirty, success, millisSince(start), log.toString(), diagnostics.getDiagnostics(), file_manager.outputs);
+  }
+
+  /**
+  * Modules outside of `--limit-modules` are invisible, even our own.
+  * Each module gets to see itself and the modules it (transitively) requires. Nothing more.
+  * They are added here, instead of the options list, so that a new module does not change the options hash.
+  */
+  static List<String> moduleOptions(List<String> options, ModuleSource module, List<ModuleSource> modules)
+  {
+    var by_name = new HashMap<String, ModuleSource>();
+    modules.forEach(m -> by_name.put(m.name, m));
+    var visible = new ArrayList<ModuleSource>();
+    visit(module, by_name, new HashSet<>(), new HashSet<>(), visible);
+    var module_options = new ArrayList<>(options);
+    var limit = module_options.indexOf("--limit-modules") + 1;
+    var observable = new StringBuilder(module_options.get(limit));
+    visible.forEach(m -> observable.append(',').append(m.name));
+    module_options.set(limit, observable.toString());
+    return module_options;
+  }
+
+  /**
+  * Finds every module in `src`, following the layout expected by `--module-source-path`:
+  * `src/&lt;module&gt;/module-info.java`.
+  */
+  static List<ModuleSource> findModules(Path src)
+  throws IOException
+  {
+    var modules = new ArrayList<ModuleSource>();
+    try (var dirs = Files.newDirectoryStream(src, Files::isDirectory))
+    {
+      for (var dir : dirs)
+      {
+        var module_info = dir.resolve("module-info.java");
+        if (exists(module_info))
+        {
+          var module = new ModuleSource(dir.getFileName().toString(), relative(dir));
+          var declaration = Files.readString(module_info, StandardCharsets.UTF_8)
+            .replaceAll("(?s)/\\*.*?\\*/", " ")
+            .replaceAll("//[^\\n]*", " ");
+          var requires = REQUIRES.matcher(declaration);
+          while (requires.find())
+          {
+            module.requires.add(requires.group(1));
+          }
+          modules.add(module);
+        }
+      }
+    }
+    var names = new HashSet<String>();
+    modules.forEach(module -> names.add(module.name));
+    modules.forEach(module -> module.requires.retainAll(names));
+    return modules;
+  }
+  static final java.util.regex.Pattern REQUIRES = java.util.regex.Pattern.compile("\\brequires\\s+(?:(?:transitive|static)\\s+)*([\\w.]+)\\s*;");
+
+  /**
+  * @return The modules, ordered so that every module comes after the modules it requires.
+  */
+  static List<ModuleSource> sortModules(List<ModuleSource> modules)
+  {
+    var by_name = new TreeMap<String, ModuleSource>();
+    modules.forEach(module -> by_name.put(module.name, module));
+    var sorted = new ArrayList<ModuleSource>();
+    var visiting = new HashSet<String>();
+    var visited = new HashSet<String>();
+    for (var module : by_name.values())
+    {
+      visit(module, by_name, visiting, visited, sorted);
+    }
+    return sorted;
+  }
+
+  static void visit(ModuleSource module, Map<String, ModuleSource> by_name, Set<String> visiting, Set<String> visited, List<ModuleSource> sorted)
+  {
+    if (visited.contains(module.name))
+    {
+      return;
+    }
+    if (!visiting.add(module.name))
+    {
+      throw new IllegalStateException("The modules in src require each other in a cycle through " + module.name);
+    }
+    for (var requirement : module.requires)
+    {
+      visit(by_name.get(requirement), by_name, visiting, visited, sorted);
+    }
+    visiting.remove(module.name);
+    visited.add(module.name);
+    sorted.add(module);
+  }
+
+  /**
+  * Everything the build remembers about one source file.
+  * `defines` and `uses` hold the qualified names of top-level types.
+  * A unit depends on every unit, that defines a type it uses.
+  */
+  static final class Unit
+  {
+    final Path source;
+    final String hash;
+    final List<Path> classes = new ArrayList<>();
+    final Set<String> defines = new TreeSet<>();
+    final Set<String> uses = new TreeSet<>();
+    Unit(Path source, String hash)
+    {
+      this.source = source;
+      this.hash = hash;
+    }
+  }
+
+  /**
+  * The persistent state of the incremental build.
+  * It is a plain text file, one fact per line, so that it can be read (and debugged) by humans:
+  * <pre>
+  * options &lt;hash of the javac options&gt;
+  * source &lt;path&gt; &lt;hash of the content&gt;
+  * class &lt;path of a class file generated from the source above&gt;
+  * defines &lt;top-level type declared in the source above&gt;
+  * uses &lt;top-level type referenced by the source above&gt;
+  * </pre>
+  */
+  static final class Manifest
+  {
+    final String options_hash;
+    final Map<Path, Unit> units = new TreeMap<>();
+    Manifest(String options_hash)
+    {
+      this.options_hash = options_hash;
+    }
+
+    /**
+    * @return The manifest, or null if there is none, or it cannot be understood.
+    */
+    static Manifest read(Path file)
+    throws IOException
+    {
+      if (!exists(file))
+      {
+        return null;
+      }
+      Manifest manifest = null;
+      Unit unit = null;
+      for (var line : Files.readAllLines(file, StandardCharsets.UTF_8))
+      {
+        var space = line.indexOf(' ');
+        if (space < 0)
+        {
+          return null;
+        }
+        var key = line.substring(0, space);
+        var value = line.substring(space + 1);
+        if (manifest == null)
+        {
+          if (!key.equals("options"))
+          {
+            return null;
+          }
+          manifest = new Manifest(value);
+          continue;
+        }
+        switch (key)
+        {
+          case "source":
+            {
+              var split = value.lastIndexOf(' ');
+              unit = new Unit(get(value.substring(0, split)), value.substring(split + 1));
+              manifest.units.put(unit.source, unit);
+            }
+          break;
+          case "class":
+            unit.classes.add(get(value));
+          break;
+          case "defines":
+            unit.defines.add(value);
+          break;
+          case "uses":
+            unit.uses.add(value);
+          break;
+          default:
+            return null;
+        }
+      }
+      return manifest;
+    }
+
+    void write(Path file)
+    throws IOException
+    {
+      var defined = new HashSet<String>();
+      units.values().forEach(unit -> defined.addAll(unit.defines));
+      var lines = new ArrayList<String>();
+      lines.add("options " + options_hash);
+      for (var unit : units.values())
+      {
+        lines.add("source " + unit.source + " " + unit.hash);
+        unit.classes.forEach(c -> lines.add("class " + c));
+        unit.defines.forEach(d -> lines.add("defines " + d));
+        //only our own types are interesting. the JDK does not change under our feet.
+        unit.uses.stream().filter(defined::contains).filter(u -> !unit.defines.contains(u)).forEach(u -> lines.add("uses " + u));
+      }
+      Files.createDirectories(file.getParent());
+      Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+    * @param changed Sources, that changed since the last build.
+    * @return `changed` plus every source, that (transitively) depends on them.
+    */
+    Set<Path> dependents(Set<Path> changed)
+    {
+      var dirty = new TreeSet<Path>(changed);
+      var work = new ArrayDeque<Path>(changed);
+      while (!work.isEmpty())
+      {
+        var source = work.pop();
+        var unit = units.get(source);
+        var module_info = source.getFileName().toString().equals("module-info.java");
+        for (var candidate : units.values())
+        {
+          if (dirty.contains(candidate.source))
+          {
+            continue;
+          }
+          var affected = module_info
+            ? candidate.source.startsWith(source.getParent())
+            : unit != null && !Collections.disjoint(unit.defines, candidate.uses);
+          if (affected)
+          {
+            dirty.add(candidate.source);
+            work.push(candidate.source);
+          }
+        }
+      }
+      return dirty;
+    }
+  }
+
+  /**
+  * Remembers which class files javac generated from which source.
+  */
+  static final class RecordingFileManager
+  extends ForwardingJavaFileManager<StandardJavaFileManager>
+  {
+    final Map<Path, List<Path>> outputs = new HashMap<>();
+    RecordingFileManager(StandardJavaFileManager file_manager)
+    {
+      super(file_manager);
+    }
+
+    Iterable<? extends JavaFileObject> getJavaFileObjectsFromPaths(Collection<Path> paths)
+    {
+      return fileManager.getJavaFileObjectsFromPaths(paths);
+    }
+
+    @Override public JavaFileObject getJavaFileForOutput(Location location, String class_name, JavaFileObject.Kind kind, FileObject sibling)
+    throws IOException
+    {
+      var file = super.getJavaFileForOutput(location, class_name, kind, sibling);
+      if (sibling != null)
+      {
+        outputs.computeIfAbsent(relative(Path.of(sibling.toUri())), __ -> new ArrayList<>()).add(relative(Path.of(file.toUri())));
+      }
+      return file;
+    }
+  }
+
+  static void recordDependencies(Trees trees, CompilationUnitTree tree, Unit unit)
+  {
+    for (var type : tree.getTypeDecls())
+    {
+      if (type instanceof ClassTree)
+      {
+        var element = (TypeElement) trees.getElement(trees.getPath(tree, type));
+        if (element != null)
+        {
+          unit.defines.add(element.getQualifiedName().toString());
+        }
+      }
+    }
+    new TreePathScanner<Void, Void>()
+    {
+      @Override public Void visitIdentifier(IdentifierTree node, Void __)
+      {
+        use(getCurrentPath());
+        return super.visitIdentifier(node, __);
+      }
+
+      @Override public Void visitMemberSelect(MemberSelectTree node, Void __)
+      {
+        use(getCurrentPath());
+        return super.visitMemberSelect(node, __);
+      }
+
+      void use(TreePath path)
+      {
+        var element = trees.getElement(path);
+        while (element != null && element.getEnclosingElement() != null && element.getEnclosingElement().getKind() != ElementKind.PACKAGE)
+        {
+          element = element.getEnclosingElement();
+        }
+        if (element instanceof TypeElement)
+        {
+          unit.uses.add(((TypeElement) element).getQualifiedName().toString());
+        }
+      }
+    }.scan(tree, null);
+  }
+
+  static List<Path> findSources(Path src)
+  throws IOException
+  {
+    try (var files = Files.walk(src))
+    {
+      return files
+        .filter(file -> file.toString().endsWith(".java"))
+        .map(build::relative)
+        .sorted()
+        .collect(Collectors.toList());
+    }
+  }
+
+  static void deleteOutputs(Unit unit)
+  throws IOException
+  {
+    if (unit == null)
+    {
+      return;
+    }
+    for (var file : unit.classes)
+    {
+      deleteIfExists(file);
+    }
+  }
+
+  static Path relative(Path path)
+  {
+    return get("").toAbsolutePath().relativize(path.toAbsolutePath());
+  }
+
+  static String hash(byte[] content)
+  {
+    try
+    {
+      var digest = MessageDigest.getInstance("SHA-256").digest(content);
+      var hex = new StringBuilder(digest.length * 2);
+      for (var b : digest)
+      {
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      //every JDK is required to ship SHA-256.
+      throw new AssertionError(e);
+    }
+  }
+
+  static long millisSince(long start)
+  {
+    return (System.nanoTime() - start) / 1_000_000;
   }
 
   static void deleteDir(Path dir)
@@ -72,7 +2693,7 @@ class build
 	  if(!exists(dir)){
 			return;
 	  }
-	  
+
   	walkFileTree(dir,
       new SimpleFileVisitor<>() {
         @Override public FileVisitResult postVisitDirectory( Path dir, IOException __)
@@ -81,7 +2702,7 @@ class build
             deleteIfExists(dir);
             return FileVisitResult.CONTINUE;
         }
-         
+
         @Override public FileVisitResult visitFile( Path file, BasicFileAttributes __)
         throws IOException
         {
@@ -0,0 +1,46 @@
+import static java.lang.System.out;
+import static java.lang.System.err;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * The smallest possible front-end for the build daemon of `build.java`.
+ * `java build.java` asks the daemon as well, but it has to compile all of `build.java` first.
+ * This file is tiny on purpose, so that the source launcher is done with it in no time.
+ * Start the daemon with `java build.java daemon`, then build with `java build_client.java`.
+ * The protocol has to match `build.serve`: one request line in, the build output and an exit line out.
+ */
+class build_client
+{
+  public static void main(String[] args)
+  throws IOException
+  {
+    var socket = Paths.get("bld/build.sock");
+    if (!Files.exists(socket))
+    {
+      err.println("There is no build daemon running. Start one with 'java build.java daemon'.");
+      System.exit(1);
+    }
+    try (var daemon = SocketChannel.open(UnixDomainSocketAddress.of(socket)))
+    {
+      var request = new PrintStream(Channels.newOutputStream(daemon), true, StandardCharsets.UTF_8);
+      request.println(args.length == 0 ? "build" : String.join(" ", args));
+      var response = new BufferedReader(new InputStreamReader(Channels.newInputStream(daemon), StandardCharsets.UTF_8));
+      String line;
+      while ((line = response.readLine()) != null)
+      {
+        if (line.startsWith("\0EXIT "))
+        {
+          System.exit(Integer.parseInt(line.substring(6)));
+        }
+        out.println(line);
+      }
+    }
+    err.println("The build daemon hung up without an answer.");
+    System.exit(1);
+  }
+}
@@ -0,0 +1,30 @@
+package bench;
+import java.util.*;
+/**
+ * One operation to measure, like a `@Benchmark` method of JMH.
+ * The harness calls {@link #setUp(Map)} once for every combination of parameter values and then {@link #run(Blackhole)} as often as it can.
+ */
+interface Benchmark
+{
+/**
+ * @return The name in the results. Filters match against it.
+ */
+String name();
+/**
+ * @return Parameter → the values to measure with, like `@Param` of JMH. Every combination is measured.
+ */
+default Map<String, List<String>> parameters()
+{
+	return Map.of();
+}
+/**
+ * Prepares the state for a combination of parameter values. Not measured.
+ */
+default void setUp(Map<String, String> parameters)
+{
+}
+/**
+ * The operation. Whatever it computes goes into the blackhole.
+ */
+void run(Blackhole blackhole);
+}
@@ -0,0 +1,54 @@
+package bench;
+/**
+ * Swallows the results of benchmarks, so that the JIT cannot prove them unused and throw the benchmarked code away (dead code elimination).
+ * Like the blackhole of JMH: a result is compared with two volatile fields, that never hold the same value.
+ * The JIT has to compute the result to do the comparison, but the comparison never succeeds, so nothing is ever written.
+ */
+final class Blackhole
+{
+private volatile int int_1 = 1, int_2 = 2;
+private volatile long long_1 = 1, long_2 = 2;
+private volatile double double_1 = 1, double_2 = 2;
+private volatile Object object = new Object();
+/** Only written, if the impossible happens. Keeps the comparisons from being folded away. */
+private volatile boolean tripped;
+void consume(int value)
+{
+	if (value == int_1 & value == int_2)
+	{
+		tripped = true;
+	}
+}
+void consume(long value)
+{
+	if (value == long_1 & value == long_2)
+	{
+		tripped = true;
+	}
+}
+void consume(double value)
+{
+	if (value == double_1 & value == double_2)
+	{
+		tripped = true;
+	}
+}
+void consume(boolean value)
+{
+	consume(value ? 1 : 0);
+}
+void consume(Object value)
+{
+	if (value == object)
+	{
+		tripped = true;
+	}
+}
+/**
+ * @return Whether the impossible happened. Read it, so that nobody calls the blackhole pointless.
+ */
+boolean tripped()
+{
+	return tripped;
+}
+}
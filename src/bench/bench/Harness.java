@@ -0,0 +1,148 @@
+package bench;
+import static java.lang.System.out;
+import java.util.*;
+/**
+ * Runs microbenchmarks inside one JVM, a fork in terms of JMH.
+ * `java build.java bench` starts the forks, collects their results, computes the statistics and compares them with the baseline.
+ *
+ * Every benchmark runs a number of warmup iterations and then a number of measurement iterations for every combination of its parameters.
+ * An iteration calls the benchmark as often as it can within a fixed time.
+ * Every measurement iteration prints one line, that `build.java` parses:
+ * `RESULT &lt;benchmark&gt; &lt;parameters&gt; &lt;iteration&gt; &lt;operations&gt; &lt;nanoseconds&gt;`, separated by tabs.
+ */
+final class Harness
+{
+/**
+ * All benchmarks, that the harness knows about.
+ */
+static List<Benchmark> benchmarks()
+{
+	var benchmarks = new ArrayList<Benchmark>();
+	benchmarks.addAll(Painting.all());
+	benchmarks.addAll(Protocols.all());
+	return benchmarks;
+}
+/**
+ * `--warmup <iterations>` (default 5),
+ * `--iterations <iterations>` (default 10),
+ * `--time <milliseconds per iteration>` (default 200),
+ * `--param <name>=<value>,<value>` to measure with other parameter values,
+ * followed by parts of benchmark names to run only those.
+ * @param args See above.
+ */
+public static void main(String[] args)
+{
+	var warmup = 5;
+	var iterations = 10;
+	var time_nanos = 200_000_000L;
+	var overrides = new HashMap<String, List<String>>();
+	var filters = new ArrayList<String>();
+	for (var index = 0; index < args.length; index = index + 1)
+	{
+		switch (args[index])
+		{
+			case "--warmup":
+				{
+					index = index + 1;
+					warmup = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--iterations":
+				{
+					index = index + 1;
+					iterations = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--time":
+				{
+					index = index + 1;
+					time_nanos = Long.parseLong(args[index]) * 1_000_000;
+				}
+			break;
+			case "--param":
+				{
+					index = index + 1;
+					var parameter = args[index].split("=", 2);
+					overrides.put(parameter[0], List.of(parameter[1].split(",")));
+				}
+			break;
+			default:
+				{
+					filters.add(args[index]);
+				}
+		}
+	}
+	var blackhole = new Blackhole();
+	for (var benchmark : benchmarks())
+	{
+		if (!filters.isEmpty() && filters.stream().noneMatch(benchmark.name()::contains))
+		{
+			continue;
+		}
+		var parameters = new TreeMap<String, List<String>>(benchmark.parameters());
+		for (var override : overrides.entrySet())
+		{
+			parameters.computeIfPresent(override.getKey(), (__, ___) -> override.getValue());
+		}
+		for (var combination : combinations(parameters))
+		{
+			benchmark.setUp(combination);
+			var label = combination.isEmpty() ? "-" : combination.toString().replace(", ", ";").replace("{", "").replace("}", "");
+			for (var iteration = 0; iteration < warmup; iteration = iteration + 1)
+			{
+				iterate(benchmark, blackhole, time_nanos);
+			}
+			for (var iteration = 0; iteration < iterations; iteration = iteration + 1)
+			{
+				var start = System.nanoTime();
+				var operations = iterate(benchmark, blackhole, time_nanos);
+				var nanos = System.nanoTime() - start;
+				out.println("RESULT\t" + benchmark.name() + "\t" + label + "\t" + iteration + "\t" + operations + "\t" + nanos);
+			}
+		}
+	}
+	if (blackhole.tripped())
+	{
+		out.println("The blackhole tripped. That should never happen.");
+	}
+}
+/**
+ * Calls the benchmark, until the time is up.
+ * @return How often it was called.
+ */
+private static long iterate(Benchmark benchmark, Blackhole blackhole, long time_nanos)
+{
+	var deadline = System.nanoTime() + time_nanos;
+	var operations = 0L;
+	do
+	{
+		benchmark.run(blackhole);
+		operations = operations + 1;
+	}
+	while (System.nanoTime() - deadline < 0);
+	return operations;
+}
+/**
+ * @return Every combination of the parameter values, in a stable order.
+ */
+private static List<Map<String, String>> combinations(SortedMap<String, List<String>> parameters)
+{
+	var combinations = new ArrayList<Map<String, String>>();
+	combinations.add(new TreeMap<>());
+	for (var parameter : parameters.entrySet())
+	{
+		var extended = new ArrayList<Map<String, String>>();
+		for (var combination : combinations)
+		{
+			for (var value : parameter.getValue())
+			{
+				var next = new TreeMap<>(combination);
+				next.put(parameter.getKey(), value);
+				extended.add(next);
+			}
+		}
+		combinations = extended;
+	}
+	return combinations;
+}
+}
@@ -0,0 +1,86 @@
+package bench;
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+/**
+ * Microbenchmarks of the drawing primitives the grid is built on.
+ */
+final class Painting
+{
+private Painting()
+{
+}
+/**
+ * @return All painting benchmarks.
+ */
+static List<Benchmark> all()
+{
+	return List.of(new Text(), new Copy());
+}
+/**
+ * Drawing a line of text. What every tile with text pays for every line it draws again.
+ */
+private static final class Text
+implements Benchmark
+{
+	private final BufferedImage image = new BufferedImage(1024, 128, BufferedImage.TYPE_INT_RGB);
+	private Graphics2D gfx;
+	private String text;
+	@Override public String name()
+	{
+		return "painting.text";
+	}
+	@Override public Map<String, List<String>> parameters()
+	{
+		return Map.of("font_size", List.of("12", "24"), "length", List.of("8", "64"));
+	}
+	@Override public void setUp(Map<String, String> parameters)
+	{
+		if (gfx != null)
+		{
+			gfx.dispose();
+		}
+		gfx = image.createGraphics();
+		gfx.setFont(new Font(Font.MONOSPACED, Font.PLAIN, Integer.parseInt(parameters.get("font_size"))));
+		text = "The quick brown fox jumps over the lazy dog. 0123456789 ".repeat(2).substring(0, Integer.parseInt(parameters.get("length")));
+	}
+	@Override public void run(Blackhole blackhole)
+	{
+		gfx.drawString(text, 0, 64);
+		blackhole.consume(image.getRGB(0, 63));
+	}
+}
+/**
+ * Moving pixels with `copyArea` instead of drawing them again (see `Grid.translate` of the grid).
+ */
+private static final class Copy
+implements Benchmark
+{
+	private final BufferedImage image = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB);
+	private Graphics2D gfx;
+	private int rows;
+	@Override public String name()
+	{
+		return "painting.copy";
+	}
+	@Override public Map<String, List<String>> parameters()
+	{
+		return Map.of("rows", List.of("64", "512"));
+	}
+	@Override public void setUp(Map<String, String> parameters)
+	{
+		if (gfx != null)
+		{
+			gfx.dispose();
+		}
+		gfx = image.createGraphics();
+		rows = Integer.parseInt(parameters.get("rows"));
+	}
+	@Override public void run(Blackhole blackhole)
+	{
+		gfx.copyArea(0, 0, image.getWidth(), rows, 0, rows);
+		blackhole.consume(image.getRGB(0, rows));
+	}
+}
+}
@@ -0,0 +1,309 @@
+package bench;
+import static java.lang.System.out;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.swing.*;
+/**
+ * The experiments of `xprmnts` as repeatable scenarios, that need no human to press "1" and read a number off a window.
+ * Every scenario runs its variants of the painting pipeline for a number of iterations and writes the statistics to a CSV file.
+ *
+ * The pipeline draws into an offscreen target, a {@link BufferedImage} or, if there is a display (like Xvfb), a {@link VolatileImage}.
+ * So it runs on a CI box without a display, with `-Djava.awt.headless=true`.
+ * Input is synthesized by posting events to the system event queue.
+ */
+final class Pipeline
+{
+/**
+ * One variant of a scenario.
+ */
+interface Variant
+{
+	/**
+	 * @return How long one iteration took, in nanoseconds.
+	 */
+	long run(Target target)
+	throws InterruptedException;
+}
+/**
+ * Where the pipeline draws to.
+ */
+static final class Target
+{
+	final Image image;
+	final int width, height;
+	Target(Image image)
+	{
+		this.image = image;
+		this.width = image.getWidth(null);
+		this.height = image.getHeight(null);
+	}
+	Graphics2D graphics()
+	{
+		return (Graphics2D) image.getGraphics();
+	}
+}
+private static final int TEXT_LINES = 40;
+/**
+ * Runs the scenarios.
+ * `--iterations <n>` (default 1000, plus a tenth of it for warmup),
+ * `--target image|volatile` (default image),
+ * `--size <width>x<height>` (default 1920x1080),
+ * `--output <file>` (default `bld/bench/pipeline.csv`),
+ * followed by the names of the scenarios to run (default all of them).
+ * @param args See above.
+ */
+public static void main(String[] args)
+throws IOException, InterruptedException
+{
+	var iterations = 1000;
+	var target_kind = "image";
+	var width = 1920;
+	var height = 1080;
+	var output = Paths.get("bld/bench/pipeline.csv");
+	var selected = new HashSet<String>();
+	for (var index = 0; index < args.length; index = index + 1)
+	{
+		switch (args[index])
+		{
+			case "--iterations":
+				{
+					index = index + 1;
+					iterations = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--target":
+				{
+					index = index + 1;
+					target_kind = args[index];
+				}
+			break;
+			case "--size":
+				{
+					index = index + 1;
+					var size = args[index].split("x");
+					width = Integer.parseInt(size[0]);
+					height = Integer.parseInt(size[1]);
+				}
+			break;
+			case "--output":
+				{
+					index = index + 1;
+					output = Paths.get(args[index]);
+				}
+			break;
+			default:
+				{
+					selected.add(args[index]);
+				}
+		}
+	}
+	var target = new Target(target(target_kind, width, height));
+	var scenarios = scenarios(target);
+	if (output.getParent() != null)
+	{
+		Files.createDirectories(output.getParent());
+	}
+	out.println(String.format("%-24s %10s %10s %10s %10s %10s %10s", "scenario [us]", "mean", "+-95%", "p50", "p99", "p999", "max"));
+	try (var csv = new PrintWriter(Files.newBufferedWriter(output)))
+	{
+		csv.println("scenario,variant,target,iterations,mean_ns,deviation_ns,ci95_low_ns,ci95_high_ns,min_ns,p50_ns,p90_ns,p99_ns,p999_ns,max_ns");
+		for (var scenario : scenarios.entrySet())
+		{
+			var name = scenario.getKey();
+			if (!selected.isEmpty() && !selected.contains(name.substring(0, name.indexOf('/'))))
+			{
+				continue;
+			}
+			var variant = scenario.getValue();
+			//warmup: let the JIT and the pipeline settle.
+			for (var iteration = 0; iteration < iterations / 10; iteration = iteration + 1)
+			{
+				variant.run(target);
+			}
+			var samples = new long[iterations];
+			for (var iteration = 0; iteration < iterations; iteration = iteration + 1)
+			{
+				samples[iteration] = variant.run(target);
+			}
+			var statistics = new Statistics(samples);
+			out.println(String.format("%-24s %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f", name, statistics.mean / 1000, statistics.confidence / 1000, statistics.p50 / 1000.0, statistics.p99 / 1000.0, statistics.p999 / 1000.0, statistics.max / 1000.0));
+			csv.println(String.join(",", name.substring(0, name.indexOf('/')), name.substring(name.indexOf('/') + 1), target_kind, String.valueOf(statistics.count), String.valueOf(Math.round(statistics.mean)), String.valueOf(Math.round(statistics.deviation)), String.valueOf(Math.round(statistics.mean - statistics.confidence)), String.valueOf(Math.round(statistics.mean + statistics.confidence)), String.valueOf(statistics.min), String.valueOf(statistics.p50), String.valueOf(statistics.p90), String.valueOf(statistics.p99), String.valueOf(statistics.p999), String.valueOf(statistics.max)));
+		}
+	}
+	out.println("Results written to " + output);
+	//the event queue thread would keep us alive.
+	System.exit(0);
+}
+/**
+ * A {@link VolatileImage} needs a screen. Without one, the target is a {@link BufferedImage}, as on a CI box.
+ */
+private static Image target(String kind, int width, int height)
+{
+	if (kind.equals("volatile"))
+	{
+		if (GraphicsEnvironment.isHeadless())
+		{
+			throw new IllegalArgumentException("A volatile target needs a display. Run under Xvfb or use '--target image'.");
+		}
+		return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleVolatileImage(width, height);
+	}
+	return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+}
+/**
+ * @return The variants of all scenarios, named `scenario/variant`, in the order they run.
+ */
+private static Map<String, Variant> scenarios(Target target)
+{
+	var scenarios = new LinkedHashMap<String, Variant>();
+	//`xprmnts/RegionExtension`: two small squares in opposite corners. Swing merges them into one region, that covers the screen.
+	var first_square = new Rectangle(0, target.height - 10, 10, 10);
+	var second_square = new Rectangle(target.width - 10, 0, 10, 10);
+	scenarios.put("region/merged", __ ->
+	{
+		var start = System.nanoTime();
+		paintClipped(target, first_square.union(second_square));
+		return System.nanoTime() - start;
+	});
+	scenarios.put("region/separate", __ ->
+	{
+		var start = System.nanoTime();
+		paintClipped(target, first_square);
+		paintClipped(target, second_square);
+		return System.nanoTime() - start;
+	});
+	//`xprmnts/BufferingOverhead` and `xprmnts/BufferReuse`: drawing straight into the target, or into a back buffer, that is copied over.
+	var back_buffer = new BufferedImage(target.width, target.height, BufferedImage.TYPE_INT_RGB);
+	scenarios.put("buffering/single", __ ->
+	{
+		var start = System.nanoTime();
+		var gfx = target.graphics();
+		paintScene(gfx, target.width, target.height);
+		gfx.dispose();
+		return System.nanoTime() - start;
+	});
+	scenarios.put("buffering/double", __ ->
+	{
+		var start = System.nanoTime();
+		var back = back_buffer.createGraphics();
+		paintScene(back, target.width, target.height);
+		back.dispose();
+		var gfx = target.graphics();
+		gfx.drawImage(back_buffer, 0, 0, null);
+		gfx.dispose();
+		return System.nanoTime() - start;
+	});
+	//`xprmnts/PipelineFlush`: a small update, with or without flushing the pipeline of the window system.
+	var toolkit = Toolkit.getDefaultToolkit();
+	scenarios.put("flush/no_flush", __ ->
+	{
+		var start = System.nanoTime();
+		paintClipped(target, first_square);
+		return System.nanoTime() - start;
+	});
+	scenarios.put("flush/flush", __ ->
+	{
+		var start = System.nanoTime();
+		paintClipped(target, first_square);
+		toolkit.sync();
+		return System.nanoTime() - start;
+	});
+	//`xprmnts/IncrementalPainting`: drawing a text area again, or copying the pixels, that are already there.
+	scenarios.put("incremental/redraw", __ ->
+	{
+		var start = System.nanoTime();
+		var gfx = target.graphics();
+		paintText(gfx, 0, target.height / 2);
+		gfx.dispose();
+		return System.nanoTime() - start;
+	});
+	scenarios.put("incremental/copy", __ ->
+	{
+		var start = System.nanoTime();
+		var gfx = target.graphics();
+		gfx.copyArea(0, 0, target.width, target.height / 2, 0, target.height / 2);
+		gfx.dispose();
+		return System.nanoTime() - start;
+	});
+	//`xprmnts/QueueDelay`: from posting a synthesized mouse press to its listener, with an empty queue or with paint work queued before it.
+	scenarios.put("queue/idle", new QueueDelay(target, 0));
+	scenarios.put("queue/loaded", new QueueDelay(target, 16));
+	return scenarios;
+}
+/**
+ * Posts a mouse press to the event queue and waits for the listener to receive it.
+ */
+private static final class QueueDelay
+extends MouseAdapter
+implements Variant
+{
+	private final Target target;
+	private final int queued_paints;
+	private final JComponent component = new JPanel();
+	private final SynchronousQueue<Long> received = new SynchronousQueue<>();
+	QueueDelay(Target target, int queued_paints)
+	{
+		this.target = target;
+		this.queued_paints = queued_paints;
+		component.addMouseListener(this);
+	}
+	@Override public long run(Target __)
+	throws InterruptedException
+	{
+		var queue = Toolkit.getDefaultToolkit().getSystemEventQueue();
+		for (var paint = 0; paint < queued_paints; paint = paint + 1)
+		{
+			EventQueue.invokeLater(() -> paintClipped(target, new Rectangle(0, 0, target.width, target.height / 8)));
+		}
+		var start = System.nanoTime();
+		queue.postEvent(new MouseEvent(component, MouseEvent.MOUSE_PRESSED, System.currentTimeMillis(), 0, 1, 1, 1, false, MouseEvent.BUTTON1));
+		return received.take() - start;
+	}
+	@Override public void mousePressed(MouseEvent __)
+	{
+		try
+		{
+			received.put(System.nanoTime());
+		}
+		catch (InterruptedException ___)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
+/**
+ * Draws the scene of `xprmnts/RegionExtension` with the given clip.
+ */
+private static void paintClipped(Target target, Rectangle clip)
+{
+	var gfx = target.graphics();
+	gfx.setClip(clip);
+	paintScene(gfx, target.width, target.height);
+	gfx.dispose();
+}
+/**
+ * A background, some text and two squares. What the experiments draw.
+ */
+private static void paintScene(Graphics2D gfx, int width, int height)
+{
+	gfx.setColor(Color.BLACK);
+	gfx.fillRect(0, 0, width, height);
+	gfx.setColor(Color.WHITE);
+	paintText(gfx, 0, height / 2);
+	gfx.setColor(Color.BLUE);
+	gfx.fillRect(0, height - 10, 10, 10);
+	gfx.fillRect(width - 10, 0, 10, 10);
+}
+private static void paintText(Graphics2D gfx, int x, int height)
+{
+	var line_height = Math.max(1, height / TEXT_LINES);
+	for (var line = 0; line < TEXT_LINES; line = line + 1)
+	{
+		gfx.drawString("The quick brown fox jumps over the lazy dog. 0123456789", x + 7, (line + 1) * line_height);
+	}
+}
+}
@@ -0,0 +1,244 @@
+package bench;
+import static java.lang.System.out;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import wire.*;
+/**
+ * Round trips to the market, over HTTP and over the binary {@link Wire} protocol, on the same port of the same server.
+ * The market runs in its own JVM, started once for all of them, with a catalog of made up widgets.
+ * Before measuring, every combination prints, how many bytes a round trip costs on the wire.
+ */
+final class Protocols
+{
+private static final int WIDGETS = 40;
+private static InetSocketAddress market;
+private Protocols()
+{
+}
+/**
+ * @return All protocol benchmarks.
+ */
+static List<Benchmark> all()
+{
+	return List.of(new RoundTrip());
+}
+/**
+ * Starts the market, unless it runs already. It goes away with this JVM.
+ * @return Where it listens.
+ */
+private static synchronized InetSocketAddress market()
+throws IOException
+{
+	if (market != null)
+	{
+		return market;
+	}
+	var artifacts = Files.createTempDirectory("market");
+	artifacts.toFile().deleteOnExit();
+	for (var widget = 0; widget < WIDGETS; widget = widget + 1)
+	{
+		var artifact = artifacts.resolve("widget-" + widget + ".jar");
+		Files.write(artifact, new byte[1000 + widget * 997]);
+		artifact.toFile().deleteOnExit();
+	}
+	var java = Paths.get(System.getProperty("java.home"), "bin", "java");
+	var process = new ProcessBuilder(java.toString(), "-Dmarket.artifacts=" + artifacts, "--module-path", System.getProperty("jdk.module.path"), "--module", "market/market.Server", "--port", "0", "--metrics", "none")
+		.redirectError(ProcessBuilder.Redirect.INHERIT)
+		.start();
+	Runtime.getRuntime().addShutdownHook(new Thread(process::destroy));
+	var lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+	String line;
+	while ((line = lines.readLine()) != null && !line.startsWith("LISTENING "))
+	{
+		//nothing before it, that matters.
+	}
+	if (line == null)
+	{
+		throw new IOException("The market did not start.");
+	}
+	var port = Integer.parseInt(line.substring("LISTENING ".length()));
+	//whatever else the market prints must not fill the pipe.
+	var drain = new Thread(() ->
+	{
+		try
+		{
+			lines.transferTo(Writer.nullWriter());
+		}
+		catch (IOException __)
+		{
+			//the market is gone.
+		}
+	}, "market-output");
+	drain.setDaemon(true);
+	drain.start();
+	market = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+	return market;
+}
+/**
+ * One request and its response, on a connection, that stays open. What the grid would pay per question to the market.
+ */
+private static final class RoundTrip
+implements Benchmark
+{
+	private final BufferPool pool = new BufferPool(64 * 1024, 4);
+	private final ByteBuffer response = ByteBuffer.allocateDirect(64 * 1024);
+	private final ByteBuffer empty = ByteBuffer.allocate(0);
+	private SocketChannel http;
+	private ByteBuffer http_request;
+	private Client wire;
+	private int op;
+	private long http_sent, http_received;
+	@Override public String name()
+	{
+		return "market.roundtrip";
+	}
+	@Override public Map<String, List<String>> parameters()
+	{
+		return Map.of("protocol", List.of("http", "wire"), "request", List.of("status", "listing"));
+	}
+	@Override public void setUp(Map<String, String> parameters)
+	{
+		try
+		{
+			if (http != null)
+			{
+				http.close();
+				http = null;
+			}
+			if (wire != null)
+			{
+				wire.close();
+				wire = null;
+			}
+			var status = parameters.get("request").equals("status");
+			if (parameters.get("protocol").equals("http"))
+			{
+				http = SocketChannel.open(market());
+				http.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				var request = ("GET " + (status ? "/status" : "/widgets") + " HTTP/1.1\r\nHost: market\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+				http_request = ByteBuffer.allocateDirect(request.length).put(request);
+			}
+			else
+			{
+				wire = Client.connect(market(), pool, 16);
+				op = status ? Wire.STATUS : Wire.LIST;
+			}
+			//the bytes of the connection setup (the preface) are not part of a round trip.
+			var sent = sent();
+			var received = received();
+			var count = 100;
+			for (var call = 0; call < count; call = call + 1)
+			{
+				roundTrip();
+			}
+			out.println(String.format("market.roundtrip %s: %d bytes out, %d bytes in per round trip.", parameters, (sent() - sent) / count, (received() - received) / count));
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	@Override public void run(Blackhole blackhole)
+	{
+		try
+		{
+			blackhole.consume(roundTrip());
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	/**
+	 * @return The length of the response.
+	 */
+	private int roundTrip()
+	throws IOException
+	{
+		response.clear();
+		if (wire != null)
+		{
+			var status = wire.call(op, empty, response);
+			if (status != Wire.OK)
+			{
+				throw new IOException("The market answered " + status + ".");
+			}
+			return response.position();
+		}
+		http_request.rewind();
+		while (http_request.hasRemaining())
+		{
+			http_sent = http_sent + http.write(http_request);
+		}
+		var end = -1;
+		while (end < 0 || response.position() < end)
+		{
+			var count = http.read(response);
+			if (count < 0)
+			{
+				throw new EOFException("The market closed the connection.");
+			}
+			http_received = http_received + count;
+			if (end < 0)
+			{
+				end = responseEnd(response);
+			}
+		}
+		return response.position();
+	}
+	/**
+	 * @return Where the response, whose start is in `buffer` up to its position, ends. -1 if the headers are not complete yet.
+	 */
+	private static int responseEnd(ByteBuffer buffer)
+	{
+		//the market always sends `Content-Length`, spelled just like this.
+		var header = "\r\nContent-Length: ";
+		var length = -1L;
+		for (var index = 0; index + 3 < buffer.position(); index = index + 1)
+		{
+			if (length < 0 && matches(buffer, index, header))
+			{
+				length = 0;
+				for (var digit = index + header.length(); buffer.get(digit) >= '0' && buffer.get(digit) <= '9'; digit = digit + 1)
+				{
+					length = length * 10 + buffer.get(digit) - '0';
+				}
+			}
+			if (buffer.get(index) == '\r' && buffer.get(index + 1) == '\n' && buffer.get(index + 2) == '\r' && buffer.get(index + 3) == '\n')
+			{
+				return (int) (index + 4 + Math.max(0, length));
+			}
+		}
+		return -1;
+	}
+	private static boolean matches(ByteBuffer buffer, int index, String text)
+	{
+		if (index + text.length() > buffer.position())
+		{
+			return false;
+		}
+		for (var offset = 0; offset < text.length(); offset = offset + 1)
+		{
+			if (buffer.get(index + offset) != text.charAt(offset))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	private long sent()
+	{
+		return wire != null ? wire.bytesSent() : http_sent;
+	}
+	private long received()
+	{
+		return wire != null ? wire.bytesReceived() : http_received;
+	}
+}
+}
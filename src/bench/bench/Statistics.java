@@ -0,0 +1,49 @@
+package bench;
+import java.util.*;
+/**
+ * Summarizes the samples of one benchmark: mean, standard deviation, percentiles and the 95% confidence interval of the mean.
+ */
+final class Statistics
+{
+/** The 97.5% quantile of the normal distribution. Good enough for a confidence interval from more than 30 samples. */
+private static final double Z_95 = 1.96;
+final long count;
+final double mean, deviation, confidence;
+final long min, p50, p90, p99, p999, max;
+/**
+ * @param samples Not empty. Sorted in place.
+ */
+Statistics(long[] samples)
+{
+	assert samples.length > 0;
+	Arrays.sort(samples);
+	count = samples.length;
+	var sum = 0.0;
+	for (var sample : samples)
+	{
+		sum = sum + sample;
+	}
+	mean = sum / count;
+	var squares = 0.0;
+	for (var sample : samples)
+	{
+		squares = squares + (sample - mean) * (sample - mean);
+	}
+	deviation = count > 1 ? Math.sqrt(squares / (count - 1)) : 0;
+	confidence = Z_95 * deviation / Math.sqrt(count);
+	min = samples[0];
+	p50 = percentile(samples, 0.5);
+	p90 = percentile(samples, 0.9);
+	p99 = percentile(samples, 0.99);
+	p999 = percentile(samples, 0.999);
+	max = samples[samples.length - 1];
+}
+/**
+ * Nearest rank.
+ */
+private static long percentile(long[] sorted, double quantile)
+{
+	var rank = (int) Math.ceil(quantile * sorted.length);
+	return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+}
+}
@@ -0,0 +1,8 @@
+/**
+* Automated, headless versions of the experiments in `xprmnts`.
+*/
+module bench {
+	requires java.base;
+	requires java.desktop;
+	requires wire;
+}
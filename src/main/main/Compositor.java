@@ -0,0 +1,96 @@
+package main;
+import java.awt.*;
+import java.awt.image.*;
+/**
+ * The surface the grid is drawn on, before it goes to the screen.
+ * Unlike the back buffer of a {@link BufferStrategy}, which may keep, clear or scramble whatever was not drawn again (`xprmnts/BufferReuse`),
+ * the surface belongs to us and keeps its content across frames. So a frame only draws what changed and then copies the surface to the screen once.
+ *
+ * The surface is a {@link VolatileImage}, which lives in video memory, if there is any.
+ * Video memory can be taken away at any time. Then the surface is restored and reports, that its content is gone.
+ * With `-Dmain.surface=buffered` the surface is a {@link BufferedImage} in main memory, that never loses its content.
+ *
+ * Only the render thread may use a compositor.
+ */
+final class Compositor
+{
+private final boolean accelerated;
+private VolatileImage volatile_surface;
+private BufferedImage buffered_surface;
+/**
+ * @param accelerated Whether the surface should be a {@link VolatileImage}.
+ */
+Compositor(boolean accelerated)
+{
+	this.accelerated = accelerated;
+}
+/**
+ * Uses `-Dmain.surface=volatile|buffered` to pick the kind of surface.
+ */
+static Compositor create()
+{
+	return new Compositor(!System.getProperty("main.surface", "volatile").equals("buffered"));
+}
+/**
+ * Makes sure, the surface exists, has the given size and fits the given configuration.
+ * Has to be called before drawing on the surface.
+ * @return Whether the surface lost its content (or never had any). Then everything has to be drawn again.
+ */
+boolean validate(GraphicsConfiguration configuration, int width, int height)
+{
+	if (!accelerated)
+	{
+		if (buffered_surface != null && buffered_surface.getWidth() == width && buffered_surface.getHeight() == height)
+		{
+			return false;
+		}
+		buffered_surface = configuration.createCompatibleImage(Math.max(1, width), Math.max(1, height));
+		return true;
+	}
+	if (volatile_surface != null && volatile_surface.getWidth() == width && volatile_surface.getHeight() == height)
+	{
+		switch (volatile_surface.validate(configuration))
+		{
+			case VolatileImage.IMAGE_OK:
+				{
+					return false;
+				}
+			case VolatileImage.IMAGE_RESTORED:
+				{
+					return true;
+				}
+			default:
+				{
+					//IMAGE_INCOMPATIBLE: the surface does not fit the device anymore. a new one it is.
+				}
+		}
+	}
+	if (volatile_surface != null)
+	{
+		volatile_surface.flush();
+	}
+	volatile_surface = configuration.createCompatibleVolatileImage(Math.max(1, width), Math.max(1, height));
+	return true;
+}
+/**
+ * @return Graphics to draw on the surface. Has to be disposed.
+ */
+Graphics2D createGraphics()
+{
+	return accelerated ? volatile_surface.createGraphics() : buffered_surface.createGraphics();
+}
+/**
+ * @return Whether the content got lost since the last {@link #validate}. Then the frame has to be drawn again.
+ */
+boolean contentsLost()
+{
+	return accelerated && volatile_surface.contentsLost();
+}
+/**
+ * Copies the whole surface to the given graphics, which usually belong to the back buffer of the screen.
+ */
+void blit(Graphics gfx)
+{
+	gfx.drawImage(accelerated ? volatile_surface : buffered_surface, 0, 0, null);
+}
+}
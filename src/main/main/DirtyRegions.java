@@ -0,0 +1,266 @@
+package main;
+/**
+ * The parts of the screen, that have to be drawn again in the next frame.
+ * The regions are disjoint rectangles. Two of them are merged only, if their bounding box wastes little area,
+ * unlike the `RepaintManager` of Swing, that merges two small squares in opposite corners into the whole screen (`xprmnts/RegionExtension`).
+ *
+ * The tracker counts the pixels that changed (as reported to {@link #add(int, int, int, int)}) and the pixels that were drawn again,
+ * so that the cost of merging can be measured.
+ *
+ * Not thread-safe. The owner has to synchronize.
+ */
+final class DirtyRegions
+{
+/** Beyond this many regions, the bookkeeping costs more than drawing a few pixels too many. Everything is merged into one. */
+private static final int MAX_REGIONS = 64;
+private final double waste;
+private int bounds_width, bounds_height;
+private int[] x = new int[16], y = new int[16], width = new int[16], height = new int[16];
+private int count;
+/** Rectangles, that still have to be added. Holds the pieces of split rectangles. */
+private int[] pending = new int[16];
+private int pending_count;
+private long frame_changed, changed, repainted, frames;
+/**
+ * @param waste How much of the bounding box of two regions may be covered by neither of them, for them to be merged. Between 0 and 1.
+ */
+DirtyRegions(double waste)
+{
+	assert waste >= 0 && waste <= 1;
+	this.waste = waste;
+}
+/**
+ * Regions are clipped to these bounds.
+ */
+void bounds(int width, int height)
+{
+	bounds_width = width;
+	bounds_height = height;
+}
+/**
+ * Marks pixels as changed.
+ */
+void add(int x, int y, int width, int height)
+{
+	add(x, y, width, height, true);
+}
+/**
+ * Marks pixels to be drawn again, although they did not change. Like after the content of a buffer was lost.
+ */
+void repaint(int x, int y, int width, int height)
+{
+	add(x, y, width, height, false);
+}
+private void add(int x, int y, int width, int height, boolean is_change)
+{
+	push(x, y, width, height);
+	outer:
+	while (pending_count > 0)
+	{
+		pending_count = pending_count - 4;
+		var left = Math.max(0, pending[pending_count]);
+		var top = Math.max(0, pending[pending_count + 1]);
+		var right = Math.min(bounds_width, pending[pending_count] + pending[pending_count + 2]);
+		var bottom = Math.min(bounds_height, pending[pending_count + 1] + pending[pending_count + 3]);
+		if (right <= left || bottom <= top)
+		{
+			continue;
+		}
+		for (var region = 0; region < count; region = region + 1)
+		{
+			if (overlaps(region, left, top, right, bottom))
+			{
+				//keep the regions disjoint: only the parts outside of the existing region are new.
+				pushOutside(left, top, right, bottom, this.x[region], this.y[region], this.x[region] + this.width[region], this.y[region] + this.height[region]);
+				continue outer;
+			}
+		}
+		if (is_change)
+		{
+			frame_changed = frame_changed + (long) (right - left) * (bottom - top);
+		}
+		insert(left, top, right, bottom);
+	}
+}
+/**
+ * Adds a rectangle, that does not overlap any region, merging it with regions as long as that wastes little enough area.
+ */
+private void insert(int left, int top, int right, int bottom)
+{
+	var merged = true;
+	while (merged)
+	{
+		merged = false;
+		for (var region = 0; region < count; region = region + 1)
+		{
+			var union_left = Math.min(left, x[region]);
+			var union_top = Math.min(top, y[region]);
+			var union_right = Math.max(right, x[region] + width[region]);
+			var union_bottom = Math.max(bottom, y[region] + height[region]);
+			var union = (long) (union_right - union_left) * (union_bottom - union_top);
+			var used = (long) (right - left) * (bottom - top) + (long) width[region] * height[region];
+			if (union - used <= waste * union)
+			{
+				remove(region);
+				left = union_left;
+				top = union_top;
+				right = union_right;
+				bottom = union_bottom;
+				carve(left, top, right, bottom);
+				merged = true;
+				break;
+			}
+		}
+	}
+	append(left, top, right, bottom);
+	if (count > MAX_REGIONS)
+	{
+		collapse();
+	}
+}
+/**
+ * Cuts the given rectangle out of all regions. Regions inside of it disappear, the others keep the parts outside of it.
+ */
+private void carve(int left, int top, int right, int bottom)
+{
+	var start = pending_count;
+	//backwards, so that removing (which moves the last region into the gap) does not skip a region.
+	for (var region = count - 1; region >= 0; region = region - 1)
+	{
+		if (overlaps(region, left, top, right, bottom))
+		{
+			var region_left = x[region];
+			var region_top = y[region];
+			var region_right = region_left + width[region];
+			var region_bottom = region_top + height[region];
+			remove(region);
+			pushOutside(region_left, region_top, region_right, region_bottom, left, top, right, bottom);
+		}
+	}
+	//the pieces are disjoint from each other, from the carved rectangle and from all other regions.
+	while (pending_count > start)
+	{
+		pending_count = pending_count - 4;
+		append(pending[pending_count], pending[pending_count + 1], pending[pending_count] + pending[pending_count + 2], pending[pending_count + 1] + pending[pending_count + 3]);
+	}
+}
+/**
+ * Merges all regions into their bounding box.
+ */
+private void collapse()
+{
+	int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+	for (var region = 0; region < count; region = region + 1)
+	{
+		left = Math.min(left, x[region]);
+		top = Math.min(top, y[region]);
+		right = Math.max(right, x[region] + width[region]);
+		bottom = Math.max(bottom, y[region] + height[region]);
+	}
+	count = 0;
+	append(left, top, right, bottom);
+}
+/**
+ * Pushes the up to four pieces of the rectangle `a`, that lie outside of the rectangle `b`.
+ */
+private void pushOutside(int a_left, int a_top, int a_right, int a_bottom, int b_left, int b_top, int b_right, int b_bottom)
+{
+	if (b_top > a_top)
+	{
+		push(a_left, a_top, a_right - a_left, b_top - a_top);
+	}
+	if (b_bottom < a_bottom)
+	{
+		push(a_left, b_bottom, a_right - a_left, a_bottom - b_bottom);
+	}
+	var middle_top = Math.max(a_top, b_top);
+	var middle_bottom = Math.min(a_bottom, b_bottom);
+	if (b_left > a_left)
+	{
+		push(a_left, middle_top, b_left - a_left, middle_bottom - middle_top);
+	}
+	if (b_right < a_right)
+	{
+		push(b_right, middle_top, a_right - b_right, middle_bottom - middle_top);
+	}
+}
+private void push(int x, int y, int width, int height)
+{
+	if (pending_count + 4 > pending.length)
+	{
+		pending = java.util.Arrays.copyOf(pending, pending.length * 2);
+	}
+	pending[pending_count] = x;
+	pending[pending_count + 1] = y;
+	pending[pending_count + 2] = width;
+	pending[pending_count + 3] = height;
+	pending_count = pending_count + 4;
+}
+private void append(int left, int top, int right, int bottom)
+{
+	if (count == x.length)
+	{
+		x = java.util.Arrays.copyOf(x, count * 2);
+		y = java.util.Arrays.copyOf(y, count * 2);
+		width = java.util.Arrays.copyOf(width, count * 2);
+		height = java.util.Arrays.copyOf(height, count * 2);
+	}
+	x[count] = left;
+	y[count] = top;
+	width[count] = right - left;
+	height[count] = bottom - top;
+	count = count + 1;
+}
+private void remove(int region)
+{
+	count = count - 1;
+	x[region] = x[count];
+	y[region] = y[count];
+	width[region] = width[count];
+	height[region] = height[count];
+}
+private boolean overlaps(int region, int left, int top, int right, int bottom)
+{
+	return x[region] < right && left < x[region] + width[region] && y[region] < bottom && top < y[region] + height[region];
+}
+/**
+ * @return Whether any region overlaps the given rectangle.
+ */
+boolean intersects(int x, int y, int width, int height)
+{
+	for (var region = 0; region < count; region = region + 1)
+	{
+		if (overlaps(region, x, y, x + width, y + height))
+		{
+			return true;
+		}
+	}
+	return false;
+}
+boolean isEmpty() { return count == 0; }
+int count() { return count; }
+int x(int region) { return x[region]; }
+int y(int region) { return y[region]; }
+int width(int region) { return width[region]; }
+int height(int region) { return height[region]; }
+/**
+ * Called, after the regions were drawn. Updates the counters and forgets the regions.
+ */
+void endFrame()
+{
+	for (var region = 0; region < count; region = region + 1)
+	{
+		repainted = repainted + (long) width[region] * height[region];
+	}
+	changed = changed + frame_changed;
+	frame_changed = 0;
+	frames = frames + 1;
+	count = 0;
+}
+/** @return How many pixels changed, over all frames. */
+long changedPixels() { return changed; }
+/** @return How many pixels were drawn again, over all frames. At least {@link #changedPixels()}. */
+long repaintedPixels() { return repainted; }
+/** @return How many frames were drawn. */
+long frames() { return frames; }
+}
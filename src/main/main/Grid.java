@@ -0,0 +1,496 @@
+package main;
+import java.awt.*;
+import java.awt.event.*;
+/**
+ * The grid of tiles, as the render thread draws it and the user rearranges it.
+ * Tiles are dragged with the mouse: press on a tile, release over another slot and the two tiles swap places.
+ * The geometry comes from a {@link Layout}. Every change of the layout marks only the tiles that moved as dirty.
+ * A frame draws only the {@link DirtyRegions}, each tile clipped to the regions it overlaps. The rest survives on the surface of the {@link Compositor}.
+ * Content, that only moves, is copied instead of drawn again (`xprmnts/IncrementalPainting`):
+ * see {@link #translate(int, int, int, int, int, int)} and {@link #scroll(int, int, int)}. Widgets get there through their {@link widget.Tile}.
+ * A tile, that is dragged to another slot, takes its pixels along with one `copyArea`.
+ *
+ * Tiles show the widgets of the {@link Plugins}. A widget is loaded, when its tile is drawn for the first time.
+ *
+ * Input arrives on the EDT, frames are drawn on the render thread. Both go through the monitor of the grid.
+ */
+final class Grid
+implements Renderer.Scene, MouseListener, ComponentListener, Plugins.Host
+{
+/** Space between neighbouring tiles, in pixels. Half of it on each side of a tile. */
+private static final int GAP = 4;
+private static final Color BACKGROUND = Color.BLACK;
+private static final Color TILE = new Color(0x20, 0x20, 0x28);
+private static final Color DRAGGED = new Color(0x60, 0x60, 0x90);
+private static final Color LABEL = Color.GRAY;
+/** Where the latency overlay goes. */
+private static final int OVERLAY_X = 16, OVERLAY_Y = 16, OVERLAY_WIDTH = 480, OVERLAY_HEIGHT = 120;
+private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+private final Layout layout = new Layout();
+//`-Dmain.dirty.waste=<fraction>`
+private final DirtyRegions dirty = new DirtyRegions(Double.parseDouble(System.getProperty("main.dirty.waste", "0.25")));
+private final int first_tile, tile_count;
+private final Latency latency;
+private final Plugins plugins;
+private boolean overlay;
+private final TileCache.Painter painter = this::paintContent;
+/** Created with the first frame, when the device is known. */
+private TileCache cache;
+private int width = -1, height = -1;
+private int dragged = -1;
+/** Marks a pending move, that copies a whole rectangle to another place, instead of moving the pixels within it. */
+private static final int MOVE = -2;
+/** Pending moves of pixels, 7 ints each: tile (-1 for none, or {@link #MOVE}), x, y, width, height, dx, dy. Applied with the next frame. */
+private int[] translations = new int[7 * 8];
+private int translation_count;
+private volatile Runnable on_change = () -> {};
+/**
+ * @param first_tile The number of the first tile. With several screens, every screen has a grid with a share of the tiles.
+ * @param tile_count How many tiles the grid has.
+ * @param latency Shown by the overlay.
+ * @param plugins The widgets. Tile `n` of the grid shows widget `first_tile + n`.
+ */
+Grid(int first_tile, int tile_count, Latency latency, Plugins plugins)
+{
+	this.first_tile = first_tile;
+	this.tile_count = tile_count;
+	this.latency = latency;
+	this.plugins = plugins;
+}
+/**
+ * Shows or hides the overlay with the latency percentiles of every stage.
+ */
+synchronized void toggleOverlay()
+{
+	overlay = !overlay;
+	//whatever was under the overlay has to come back.
+	dirty.add(OVERLAY_X, OVERLAY_Y, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+	on_change.run();
+}
+/**
+ * @param on_change Called, whenever the grid needs to be drawn again. Usually {@link Renderer#requestFrame()}.
+ */
+void onChange(Runnable on_change)
+{
+	this.on_change = on_change;
+}
+/**
+ * @return Whether the tile needs to be drawn again.
+ */
+synchronized boolean isDirty(int tile)
+{
+	return dirty.intersects(layout.x(tile), layout.y(tile), layout.width(tile), layout.height(tile));
+}
+/**
+ * Moves the pixels inside a rectangle of the grid by (dx, dy), clipped to the rectangle, with the next frame.
+ * Only the strips, that the move uncovers, are drawn again. The rest is copied on the surface with one `copyArea`.
+ * This is the way for log views, lists and animations to scroll.
+ */
+synchronized void translate(int x, int y, int width, int height, int dx, int dy)
+{
+	queue(-1, x, y, width, height, dx, dy);
+}
+/**
+ * Scrolls the content of a tile by (dx, dy), with the next frame.
+ * The app only draws the strips, that the scrolling uncovers, into the cached image of the tile.
+ * The tile is then copied to the surface with one blit.
+ * The app has to be in the scrolled state already, when the next frame is drawn.
+ */
+synchronized void scroll(int tile, int dx, int dy)
+{
+	queue(tile, layout.x(tile) + GAP / 2, layout.y(tile) + GAP / 2, layout.width(tile) - GAP, layout.height(tile) - GAP, dx, dy);
+}
+private void queue(int tile, int x, int y, int width, int height, int dx, int dy)
+{
+	if (translation_count + 7 > translations.length)
+	{
+		translations = java.util.Arrays.copyOf(translations, translations.length * 2);
+	}
+	translations[translation_count] = tile;
+	translations[translation_count + 1] = x;
+	translations[translation_count + 2] = y;
+	translations[translation_count + 3] = width;
+	translations[translation_count + 4] = height;
+	translations[translation_count + 5] = dx;
+	translations[translation_count + 6] = dy;
+	translation_count = translation_count + 7;
+	on_change.run();
+}
+/**
+ * @return How many pixels changed and how many were drawn again, over all frames so far.
+ */
+synchronized String statistics()
+{
+	var statistics = "tiles=" + first_tile + ".." + (first_tile + tile_count - 1) + " frames=" + dirty.frames() + " changed_pixels=" + dirty.changedPixels() + " repainted_pixels=" + dirty.repaintedPixels();
+	if (cache != null)
+	{
+		statistics = statistics + " cache_hits=" + cache.hits() + " cache_misses=" + cache.misses() + " cache_evictions=" + cache.evictions() + " cache_bytes=" + cache.bytes() + "/" + cache.budget();
+	}
+	return statistics;
+}
+@Override public synchronized void paint(Graphics2D gfx, int width, int height, boolean contents_lost)
+{
+	if (width != this.width || height != this.height)
+	{
+		resize(width, height);
+	}
+	if (cache == null)
+	{
+		cache = TileCache.create(gfx.getDeviceConfiguration().getDevice());
+	}
+	if (contents_lost)
+	{
+		dirty.repaint(0, 0, width, height);
+	}
+	applyTranslations(gfx);
+	if (overlay)
+	{
+		//the numbers change with every frame.
+		dirty.repaint(OVERLAY_X, OVERLAY_Y, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+	}
+	//everything outside of the dirty regions is still on the surface from the last frame.
+	for (var region = 0; region < dirty.count(); region = region + 1)
+	{
+		var region_x = dirty.x(region);
+		var region_y = dirty.y(region);
+		var region_width = dirty.width(region);
+		var region_height = dirty.height(region);
+		gfx.setClip(region_x, region_y, region_width, region_height);
+		gfx.setColor(BACKGROUND);
+		gfx.fillRect(region_x, region_y, region_width, region_height);
+		for (var tile = 0; tile < layout.count(); tile = tile + 1)
+		{
+			var left = Math.max(region_x, layout.x(tile));
+			var top = Math.max(region_y, layout.y(tile));
+			var right = Math.min(region_x + region_width, layout.x(tile) + layout.width(tile));
+			var bottom = Math.min(region_y + region_height, layout.y(tile) + layout.height(tile));
+			if (left < right && top < bottom)
+			{
+				//a tile only draws the part of itself, that lies in the region.
+				gfx.setClip(left, top, right - left, bottom - top);
+				paintTile(gfx, tile);
+				if (tile == dragged)
+				{
+					paintHighlight(gfx, tile);
+				}
+			}
+		}
+	}
+	gfx.setClip(null);
+	if (overlay)
+	{
+		paintOverlay(gfx);
+	}
+	dirty.endFrame();
+}
+/**
+ * Draws the latency report over the tiles.
+ */
+private void paintOverlay(Graphics2D gfx)
+{
+	gfx.setClip(OVERLAY_X, OVERLAY_Y, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+	gfx.setColor(BACKGROUND);
+	gfx.fillRect(OVERLAY_X, OVERLAY_Y, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+	gfx.setColor(LABEL);
+	gfx.setFont(OVERLAY_FONT);
+	var line_height = gfx.getFontMetrics().getHeight();
+	var y = OVERLAY_Y + 4 + gfx.getFontMetrics().getAscent();
+	for (var line : latency.report())
+	{
+		gfx.drawString(line, OVERLAY_X + 8, y);
+		y = y + line_height;
+	}
+	gfx.setClip(null);
+}
+/**
+ * Draws one tile, from the tile cache if its content did not change.
+ */
+private void paintTile(Graphics2D gfx, int tile)
+{
+	cache.draw(gfx, tile, layout.x(tile) + GAP / 2, layout.y(tile) + GAP / 2, layout.width(tile) - GAP, layout.height(tile) - GAP, painter);
+}
+/**
+ * Draws the content of one tile: its widget, or a box with the number of the tile in it, while there is none.
+ */
+private void paintContent(Graphics2D gfx, int tile, int width, int height)
+{
+	gfx.setColor(TILE);
+	gfx.fillRect(0, 0, width, height);
+	var widget = plugins.widget(first_tile + tile, this);
+	if (widget != null)
+	{
+		//the widget may change the state of its graphics. the next tile, or the next strip of this one, must not see that.
+		var widget_gfx = (Graphics2D) gfx.create();
+		try
+		{
+			widget.paint(widget_gfx, width, height);
+		}
+		catch (RuntimeException e)
+		{
+			System.err.println("Widget " + plugins.name(first_tile + tile) + " failed to paint: " + e);
+		}
+		finally
+		{
+			widget_gfx.dispose();
+		}
+		return;
+	}
+	gfx.setColor(LABEL);
+	var label = String.valueOf(first_tile + tile);
+	if (first_tile + tile < plugins.count())
+	{
+		label = label + " " + plugins.name(first_tile + tile) + (plugins.hasFailed(first_tile + tile) ? " (failed)" : " (loading)");
+	}
+	gfx.drawString(label, 8, 8 + gfx.getFontMetrics().getAscent());
+}
+/**
+ * Called by the {@link Plugins}, when a widget was loaded or unloaded, or asked for it. Its tile is drawn again.
+ */
+@Override public synchronized void widgetChanged(int widget)
+{
+	var tile = widget - first_tile;
+	if (tile < 0 || tile >= layout.count())
+	{
+		return;
+	}
+	if (cache != null)
+	{
+		cache.invalidate(tile);
+	}
+	addTile(tile);
+	on_change.run();
+}
+@Override public synchronized void widgetScrolled(int widget, int dx, int dy)
+{
+	var tile = widget - first_tile;
+	if (tile >= 0 && tile < layout.count())
+	{
+		scroll(tile, dx, dy);
+	}
+}
+/**
+ * Moves the pixels on the surface. The cached image of the tile does not move along, so it is drawn anew, the next time it is needed.
+ */
+@Override public synchronized void widgetTranslated(int widget, int x, int y, int width, int height, int dx, int dy)
+{
+	var tile = widget - first_tile;
+	if (tile < 0 || tile >= layout.count())
+	{
+		return;
+	}
+	//the rectangle, clipped to the content of the tile.
+	var left = Math.max(0, x);
+	var top = Math.max(0, y);
+	var right = Math.min(layout.width(tile) - GAP, x + width);
+	var bottom = Math.min(layout.height(tile) - GAP, y + height);
+	if (left >= right || top >= bottom)
+	{
+		return;
+	}
+	if (cache != null)
+	{
+		cache.invalidate(tile);
+	}
+	translate(layout.x(tile) + GAP / 2 + left, layout.y(tile) + GAP / 2 + top, right - left, bottom - top, dx, dy);
+}
+/**
+ * Outlines the dragged tile. The highlight is drawn over the tile, not into it,
+ * so the cached image of the tile stays valid and a moved tile is one blit.
+ */
+private void paintHighlight(Graphics2D gfx, int tile)
+{
+	gfx.setColor(DRAGGED);
+	gfx.drawRect(layout.x(tile) + GAP / 2, layout.y(tile) + GAP / 2, layout.width(tile) - GAP - 1, layout.height(tile) - GAP - 1);
+	gfx.drawRect(layout.x(tile) + GAP / 2 + 1, layout.y(tile) + GAP / 2 + 1, layout.width(tile) - GAP - 3, layout.height(tile) - GAP - 3);
+}
+/**
+ * Marks the pixels of the highlight as dirty, and only them: four strips, 2 pixels wide, along the edges of the content of the tile.
+ */
+private void addHighlight(int tile)
+{
+	var x = layout.x(tile) + GAP / 2;
+	var y = layout.y(tile) + GAP / 2;
+	var width = layout.width(tile) - GAP;
+	var height = layout.height(tile) - GAP;
+	dirty.add(x, y, width, 2);
+	dirty.add(x, y + height - 2, width, 2);
+	dirty.add(x, y, 2, height);
+	dirty.add(x + width - 2, y, 2, height);
+}
+/**
+ * Moves pixels, as queued by {@link #translate}, {@link #scroll} and a dragged tile.
+ * Pixels, that are about to be drawn again anyway, are not worth copying. Neither are pixels, that would be copied out of the rectangle.
+ */
+private void applyTranslations(Graphics2D gfx)
+{
+	for (var index = 0; index < translation_count; index = index + 7)
+	{
+		var tile = translations[index];
+		var x = translations[index + 1];
+		var y = translations[index + 2];
+		var w = translations[index + 3];
+		var h = translations[index + 4];
+		var dx = translations[index + 5];
+		var dy = translations[index + 6];
+		if (tile == MOVE)
+		{
+			//the overlay is drawn over the tiles. it must not be copied along.
+			if (overlay && x < OVERLAY_X + OVERLAY_WIDTH && OVERLAY_X < x + w && y < OVERLAY_Y + OVERLAY_HEIGHT && OVERLAY_Y < y + h)
+			{
+				dirty.add(x + dx, y + dy, w, h);
+			}
+			else
+			{
+				gfx.copyArea(x, y, w, h, dx, dy);
+			}
+			continue;
+		}
+		if (tile >= 0 && tile < layout.count() && cache.translate(tile, dx, dy, painter, gfx.getDeviceConfiguration()))
+		{
+			//the cached image is up to date. one blit of it is all the surface needs.
+			dirty.add(x, y, w, h);
+			continue;
+		}
+		if (dirty.intersects(x, y, w, h) || Math.abs(dx) >= w || Math.abs(dy) >= h)
+		{
+			dirty.add(x, y, w, h);
+			continue;
+		}
+		if (tile >= 0)
+		{
+			cache.invalidate(tile);
+		}
+		gfx.copyArea(x + Math.max(0, -dx), y + Math.max(0, -dy), w - Math.abs(dx), h - Math.abs(dy), dx, dy);
+		//the uncovered strips.
+		if (dx != 0)
+		{
+			dirty.add(dx > 0 ? x : x + w + dx, y, Math.abs(dx), h);
+		}
+		if (dy != 0)
+		{
+			dirty.add(x, dy > 0 ? y : y + h + dy, w, Math.abs(dy));
+		}
+	}
+	translation_count = 0;
+}
+/**
+ * Lays the grid out anew for the given size. Only the tiles that moved become dirty, and what the old size did not cover.
+ */
+private void resize(int width, int height)
+{
+	//-1 before the first frame: nothing was covered.
+	var old_width = Math.max(0, this.width);
+	var old_height = Math.max(0, this.height);
+	this.width = width;
+	this.height = height;
+	layout.layout(0, 0, width, height, tile_count);
+	dirty.bounds(width, height);
+	//the layout has no gaps. what is not a tile now, is an empty slot, that shows the background, or was a tile, that moved, or is new.
+	if (width > old_width)
+	{
+		dirty.add(old_width, 0, width - old_width, height);
+	}
+	if (height > old_height)
+	{
+		dirty.add(0, old_height, Math.min(width, old_width), height - old_height);
+	}
+	markChanged();
+}
+/**
+ * Marks the tiles, that the last change of the layout moved, as dirty.
+ */
+private void markChanged()
+{
+	for (var index = 0; index < layout.changedCount(); index = index + 1)
+	{
+		var tile = layout.changed(index);
+		//where the tile was, something else shows now.
+		dirty.add(layout.previousX(tile), layout.previousY(tile), layout.previousWidth(tile), layout.previousHeight(tile));
+		addTile(tile);
+	}
+	on_change.run();
+}
+private void addTile(int tile)
+{
+	dirty.add(layout.x(tile), layout.y(tile), layout.width(tile), layout.height(tile));
+}
+@Override public synchronized void mousePressed(MouseEvent event)
+{
+	if (event.getButton() != MouseEvent.BUTTON1)
+	{
+		return;
+	}
+	dragged = layout.tileAt(event.getX(), event.getY());
+	if (dragged >= 0)
+	{
+		addTile(dragged);
+		on_change.run();
+	}
+}
+@Override public synchronized void mouseReleased(MouseEvent event)
+{
+	if (dragged < 0)
+	{
+		return;
+	}
+	var tile = dragged;
+	dragged = -1;
+	var slot = layout.slotAt(event.getX(), event.getY());
+	var x = layout.x(tile);
+	var y = layout.y(tile);
+	var width = layout.width(tile);
+	var height = layout.height(tile);
+	//whether the surface shows the tile as it is. a tile, that is about to be drawn or moved anyway, has nothing worth copying.
+	var current = !dirty.intersects(x, y, width, height) && translation_count == 0;
+	if (slot < 0 || layout.move(tile, slot) == 0)
+	{
+		//the highlight goes away, even if the tile does not move.
+		addTile(tile);
+		on_change.run();
+		return;
+	}
+	if (!current || layout.width(tile) != width || layout.height(tile) != height)
+	{
+		//drawn from its cached image.
+		markChanged();
+		return;
+	}
+	//the pixels of the tile go along with one copy. only the highlight, that goes along with them, is drawn over.
+	queue(MOVE, x, y, width, height, layout.x(tile) - x, layout.y(tile) - y);
+	addHighlight(tile);
+	//where the tile was, the tile from the other slot shows now, from its cached image, or the background of an empty slot.
+	dirty.add(x, y, width, height);
+	for (var index = 0; index < layout.changedCount(); index = index + 1)
+	{
+		if (layout.changed(index) != tile)
+		{
+			addTile(layout.changed(index));
+		}
+	}
+	on_change.run();
+}
+@Override public void mouseClicked(MouseEvent __)
+{
+}
+@Override public void mouseEntered(MouseEvent __)
+{
+}
+@Override public void mouseExited(MouseEvent __)
+{
+}
+@Override public void componentResized(ComponentEvent __)
+{
+	//the new size is picked up by the next frame. it is the render thread, that knows the size it draws.
+	on_change.run();
+}
+@Override public void componentMoved(ComponentEvent __)
+{
+}
+@Override public void componentShown(ComponentEvent __)
+{
+	on_change.run();
+}
+@Override public void componentHidden(ComponentEvent __)
+{
+}
+}
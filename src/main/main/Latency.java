@@ -0,0 +1,121 @@
+package main;
+import java.awt.*;
+import java.awt.event.*;
+import wire.Histogram;
+/**
+ * Measures the time from input to photon, stage by stage, in the real app instead of one experiment per stage
+ * (`xprmnts/QueueDelay`, `xprmnts/ShowingDelay`, `xprmnts/PipelineFlush`, `xprmnts/BufferingOverhead`).
+ *
+ * This is the event queue of the app. It stamps every input event, when it is dispatched.
+ * The render thread of the window, that got the input, picks the stamp of the oldest input up with its next frame and records,
+ * how long the frame took to reach the screen. Every screen has a window and a render thread of its own.
+ * Every stage records into a lock-free {@link Histogram}.
+ */
+final class Latency
+extends EventQueue
+{
+/**
+ * The stages of the way from input to photon.
+ */
+enum Stage
+{
+	/** From the OS creating the input event to its dispatch. Milliseconds only, as `InputEvent.getWhen()` is. */
+	QUEUE,
+	/** Handling the input event on the EDT, like updating tiles. */
+	UPDATE,
+	/** Drawing the frame on the surface and copying it into the back buffer. */
+	RENDER,
+	/** `BufferStrategy.show()`. */
+	SHOW,
+	/** `Toolkit.sync()`, flushing the window system. */
+	SYNC,
+	/** From the dispatch of an input event to the end of the first frame, that shows its effect. */
+	INPUT_TO_PHOTON
+}
+private final Histogram[] histograms = new Histogram[Stage.values().length];
+/** Per window: when the oldest input, that no frame has shown yet, was dispatched. 0 if there is none. */
+private final java.util.concurrent.ConcurrentHashMap<Window, java.util.concurrent.atomic.AtomicLong> pending_input = new java.util.concurrent.ConcurrentHashMap<>();
+Latency()
+{
+	for (var stage = 0; stage < histograms.length; stage = stage + 1)
+	{
+		histograms[stage] = new Histogram();
+	}
+}
+/**
+ * Replaces the system event queue with this one.
+ */
+void install()
+{
+	Toolkit.getDefaultToolkit().getSystemEventQueue().push(this);
+}
+@Override protected void dispatchEvent(AWTEvent event)
+{
+	if (!(event instanceof InputEvent))
+	{
+		super.dispatchEvent(event);
+		return;
+	}
+	var start = System.nanoTime();
+	record(Stage.QUEUE, (System.currentTimeMillis() - ((InputEvent) event).getWhen()) * 1_000_000);
+	//only the oldest input counts. a frame shows the effect of every input before it.
+	var component = ((InputEvent) event).getComponent();
+	while (component != null && !(component instanceof Window))
+	{
+		component = component.getParent();
+	}
+	if (component != null)
+	{
+		pending((Window) component).compareAndSet(0, start);
+	}
+	try
+	{
+		super.dispatchEvent(event);
+	}
+	finally
+	{
+		record(Stage.UPDATE, System.nanoTime() - start);
+	}
+}
+/**
+ * Called by the render thread of `window`, when it starts a frame.
+ * @return When the oldest input to `window`, that the frame is going to show, was dispatched. 0 if there was no input.
+ */
+long takeInput(Window window)
+{
+	return pending(window).getAndSet(0);
+}
+private java.util.concurrent.atomic.AtomicLong pending(Window window)
+{
+	return pending_input.computeIfAbsent(window, __ -> new java.util.concurrent.atomic.AtomicLong());
+}
+void record(Stage stage, long nanos)
+{
+	histograms[stage.ordinal()].record(nanos);
+}
+/**
+ * @return One line per stage: count, p50, p99, p999 and max, in microseconds.
+ */
+String[] report()
+{
+	var lines = new String[histograms.length + 1];
+	lines[0] = String.format("%-16s %8s %8s %8s %8s %8s", "stage [us]", "count", "p50", "p99", "p999", "max");
+	for (var stage : Stage.values())
+	{
+		var histogram = histograms[stage.ordinal()];
+		lines[stage.ordinal() + 1] = String.format("%-16s %8d %8d %8d %8d %8d", stage.name().toLowerCase(), histogram.count(), histogram.percentile(0.5) / 1000, histogram.percentile(0.99) / 1000, histogram.percentile(0.999) / 1000, histogram.max() / 1000);
+	}
+	return lines;
+}
+/**
+ * Prints the report.
+ */
+void dump(java.io.PrintStream out)
+{
+	for (var line : report())
+	{
+		out.println(line);
+	}
+	out.flush();
+}
+}
@@ -0,0 +1,270 @@
+package main;
+/**
+ * Computes where the tiles of the grid go.
+ * The grid adapts to the screen: it picks the number of columns and rows, that makes the tiles as square as possible,
+ * and spreads the screen over them without gaps.
+ * Tiles can be moved to other slots of the grid.
+ *
+ * The geometry lives in flat arrays, indexed by tile, instead of one {@link java.awt.Rectangle} per tile.
+ * Every change records, which tiles got new geometry, so that only those need to be drawn again.
+ * Reading the changed tiles does not allocate.
+ *
+ * Not thread-safe. The owner of a layout has to synchronize.
+ */
+final class Layout
+{
+private int bounds_x, bounds_y, bounds_width, bounds_height;
+private int columns, rows, count;
+/** Geometry per tile. */
+private int[] x = new int[0], y = new int[0], width = new int[0], height = new int[0];
+/** Geometry per tile, before the last change. */
+private int[] previous_x = new int[0], previous_y = new int[0], previous_width = new int[0], previous_height = new int[0];
+/** Which slot of the grid a tile is in, and which tile is in a slot. Slots are numbered row by row. */
+private int[] slot_of_tile = new int[0], tile_of_slot = new int[0];
+/** The tiles, that changed with the last change. */
+private int[] changed = new int[0];
+private int changed_count;
+/**
+ * Lays out `tile_count` tiles within the given bounds.
+ * Tiles keep their slot, as long as the slot still exists. New tiles get the free slots.
+ * @return How many tiles got new geometry. See {@link #changed(int)}.
+ */
+int layout(int bounds_x, int bounds_y, int bounds_width, int bounds_height, int tile_count)
+{
+	assert tile_count >= 0;
+	assert bounds_width >= 0 && bounds_height >= 0;
+	this.bounds_x = bounds_x;
+	this.bounds_y = bounds_y;
+	this.bounds_width = bounds_width;
+	this.bounds_height = bounds_height;
+	var old_count = count;
+	if (tile_count != old_count)
+	{
+		resize(tile_count);
+	}
+	chooseGrid();
+	changed_count = 0;
+	for (var tile = 0; tile < count; tile = tile + 1)
+	{
+		place(tile, tile >= old_count);
+	}
+	return changed_count;
+}
+/**
+ * Spreads the tiles over the screens, in proportion to the area of each screen.
+ * Every screen gets at least one tile, as long as there are enough tiles.
+ * @return How many tiles every screen gets, in the order of `screens`.
+ */
+static int[] partition(int tile_count, java.awt.GraphicsDevice[] screens)
+{
+	var shares = new int[screens.length];
+	var areas = new long[screens.length];
+	var total_area = 0L;
+	for (var screen = 0; screen < screens.length; screen = screen + 1)
+	{
+		var bounds = screens[screen].getDefaultConfiguration().getBounds();
+		areas[screen] = Math.max(1L, (long) bounds.width * bounds.height);
+		total_area = total_area + areas[screen];
+	}
+	var assigned = 0;
+	for (var screen = 0; screen < screens.length; screen = screen + 1)
+	{
+		shares[screen] = tile_count >= screens.length ? Math.max(1, (int) (tile_count * areas[screen] / total_area)) : (screen < tile_count ? 1 : 0);
+		assigned = assigned + shares[screen];
+	}
+	//rounding leaves some over (or takes some too many). the biggest screen evens it out.
+	var biggest = 0;
+	for (var screen = 1; screen < screens.length; screen = screen + 1)
+	{
+		if (areas[screen] > areas[biggest])
+		{
+			biggest = screen;
+		}
+	}
+	if (screens.length > 0)
+	{
+		shares[biggest] = shares[biggest] + tile_count - assigned;
+	}
+	return shares;
+}
+/**
+ * Moves `tile` into `slot`. The tile that was there takes the old slot of `tile`.
+ * This way, a drag touches two tiles, not all the tiles in between.
+ * @return How many tiles got new geometry. See {@link #changed(int)}.
+ */
+int move(int tile, int slot)
+{
+	assert tile >= 0 && tile < count;
+	assert slot >= 0 && slot < columns * rows;
+	changed_count = 0;
+	var old_slot = slot_of_tile[tile];
+	if (old_slot == slot)
+	{
+		return 0;
+	}
+	var other = tile_of_slot[slot];
+	slot_of_tile[tile] = slot;
+	tile_of_slot[slot] = tile;
+	tile_of_slot[old_slot] = other;
+	place(tile, false);
+	if (other >= 0)
+	{
+		slot_of_tile[other] = old_slot;
+		place(other, false);
+	}
+	return changed_count;
+}
+/**
+ * @return The slot at the given point, or -1 if the point is outside of the grid, or the grid has no tiles.
+ */
+int slotAt(int point_x, int point_y)
+{
+	//a screen may get no tiles at all (see `partition`). its grid is one column of no rows.
+	if (columns == 0 || rows == 0 || count == 0 || point_x < bounds_x || point_y < bounds_y || point_x >= bounds_x + bounds_width || point_y >= bounds_y + bounds_height)
+	{
+		return -1;
+	}
+	var column = (int) ((long) (point_x - bounds_x) * columns / bounds_width);
+	var row = (int) ((long) (point_y - bounds_y) * rows / bounds_height);
+	return row * columns + column;
+}
+/**
+ * @return The tile at the given point, or -1 if there is none.
+ */
+int tileAt(int point_x, int point_y)
+{
+	var slot = slotAt(point_x, point_y);
+	return slot < 0 ? -1 : tile_of_slot[slot];
+}
+/**
+ * @param index Between 0 and the number returned by the last change.
+ * @return A tile, that changed with the last change.
+ */
+int changed(int index)
+{
+	assert index < changed_count;
+	return changed[index];
+}
+int changedCount() { return changed_count; }
+int count() { return count; }
+int columns() { return columns; }
+int rows() { return rows; }
+int x(int tile) { return x[tile]; }
+int y(int tile) { return y[tile]; }
+int width(int tile) { return width[tile]; }
+int height(int tile) { return height[tile]; }
+/** Where the tile was before the last change. All 0 for new tiles. */
+int previousX(int tile) { return previous_x[tile]; }
+int previousY(int tile) { return previous_y[tile]; }
+int previousWidth(int tile) { return previous_width[tile]; }
+int previousHeight(int tile) { return previous_height[tile]; }
+/**
+ * Picks the number of columns (and rows), that makes the tiles as square as possible.
+ * Slots, that no longer exist, drop their tiles, which are then put into the first free slots.
+ */
+private void chooseGrid()
+{
+	var best_columns = 1;
+	var best_score = Double.MAX_VALUE;
+	for (var candidate = 1; candidate <= Math.max(1, count); candidate = candidate + 1)
+	{
+		var candidate_rows = (count + candidate - 1) / candidate;
+		var tile_width = (double) bounds_width / candidate;
+		var tile_height = (double) bounds_height / Math.max(1, candidate_rows);
+		//how far from a square, no matter if too wide or too high. empty slots are a waste too.
+		var score = Math.abs(Math.log(tile_width / tile_height)) + (double) (candidate * candidate_rows - count) / Math.max(1, count);
+		if (score < best_score)
+		{
+			best_score = score;
+			best_columns = candidate;
+		}
+	}
+	var new_rows = (count + best_columns - 1) / best_columns;
+	if (best_columns == columns && new_rows == rows && tile_of_slot.length == columns * rows)
+	{
+		return;
+	}
+	columns = best_columns;
+	rows = new_rows;
+	var slots = new int[columns * rows];
+	java.util.Arrays.fill(slots, -1);
+	var homeless = new int[count];
+	var homeless_count = 0;
+	for (var tile = 0; tile < count; tile = tile + 1)
+	{
+		var slot = slot_of_tile[tile];
+		if (slot >= 0 && slot < slots.length && slots[slot] < 0)
+		{
+			slots[slot] = tile;
+		}
+		else
+		{
+			homeless[homeless_count] = tile;
+			homeless_count = homeless_count + 1;
+		}
+	}
+	var free = 0;
+	for (var index = 0; index < homeless_count; index = index + 1)
+	{
+		while (slots[free] >= 0)
+		{
+			free = free + 1;
+		}
+		slots[free] = homeless[index];
+		slot_of_tile[homeless[index]] = free;
+	}
+	tile_of_slot = slots;
+}
+/**
+ * Computes the geometry of `tile` from its slot and records it, if it changed.
+ */
+private void place(int tile, boolean is_new)
+{
+	var slot = slot_of_tile[tile];
+	var column = slot % columns;
+	var row = slot / columns;
+	//integer division spreads the remainder over the tiles. no gaps, no overlaps.
+	var left = bounds_x + (int) ((long) column * bounds_width / columns);
+	var right = bounds_x + (int) ((long) (column + 1) * bounds_width / columns);
+	var top = bounds_y + (int) ((long) row * bounds_height / rows);
+	var bottom = bounds_y + (int) ((long) (row + 1) * bounds_height / rows);
+	if (!is_new && x[tile] == left && y[tile] == top && width[tile] == right - left && height[tile] == bottom - top)
+	{
+		return;
+	}
+	previous_x[tile] = x[tile];
+	previous_y[tile] = y[tile];
+	previous_width[tile] = width[tile];
+	previous_height[tile] = height[tile];
+	x[tile] = left;
+	y[tile] = top;
+	width[tile] = right - left;
+	height[tile] = bottom - top;
+	changed[changed_count] = tile;
+	changed_count = changed_count + 1;
+}
+/**
+ * Grows or shrinks the arrays to `tile_count` tiles. New tiles have no slot yet.
+ */
+private void resize(int tile_count)
+{
+	x = java.util.Arrays.copyOf(x, tile_count);
+	y = java.util.Arrays.copyOf(y, tile_count);
+	width = java.util.Arrays.copyOf(width, tile_count);
+	height = java.util.Arrays.copyOf(height, tile_count);
+	previous_x = java.util.Arrays.copyOf(previous_x, tile_count);
+	previous_y = java.util.Arrays.copyOf(previous_y, tile_count);
+	previous_width = java.util.Arrays.copyOf(previous_width, tile_count);
+	previous_height = java.util.Arrays.copyOf(previous_height, tile_count);
+	var old_count = count;
+	slot_of_tile = java.util.Arrays.copyOf(slot_of_tile, tile_count);
+	for (var tile = old_count; tile < tile_count; tile = tile + 1)
+	{
+		slot_of_tile[tile] = -1;
+	}
+	changed = new int[tile_count];
+	count = tile_count;
+	//the slot table is rebuilt by chooseGrid.
+	tile_of_slot = new int[0];
+}
+}
@@ -10,26 +10,88 @@ import java.awt.event.*;
  * Apps can be created by humans directly in the grid or aquired in the market.
  */
 final class Main
-implements WindowListener
+implements WindowListener, KeyListener
 {
 private static final Main app = new Main();
+private static final Latency latency = new Latency();
+/** One per screen. */
+private static Plugins plugins;
+private static Grid[] grids;
+private static Renderer[] renderers;
+private static final java.util.concurrent.atomic.AtomicBoolean first_frame = new java.util.concurrent.atomic.AtomicBoolean();
 /**
  * Welcome to the entry point of <b>handmade_java</b>!
- * Attempts to start the app in fullscreen mode, falling back to maximized mode otherwise.
+ * Attempts to start the app in fullscreen mode on every screen, falling back to maximized mode otherwise.
  * @param args ignored
  */
 public static void main(String[] args)
 {
+	Trace.mark("main");
+	//every input is stamped from here on.
+	latency.install();
 	var graphics_environment = GraphicsEnvironment.getLocalGraphicsEnvironment();
-	//TODO: use all monitors
-	var screen = graphics_environment.getDefaultScreenDevice();
+	var screens = graphics_environment.getScreenDevices();
+	Trace.mark("graphics_environment");
+	//only lists the widget directory. widgets are loaded, when their tiles are shown.
+	//`-Dmain.market=<socket>` shows, what the market server is doing, in the first tile.
+	var market = System.getProperty("main.market");
+	plugins = market == null ? Plugins.create() : Plugins.create(new Market(java.nio.file.Paths.get(market)));
+	plugins.watch();
+	//`-Dmain.tiles=<count>`, spread over all screens. at least one per widget.
+	var tiles = Layout.partition(Math.max(Integer.getInteger("main.tiles", 12), plugins.count()), screens);
+	grids = new Grid[screens.length];
+	renderers = new Renderer[screens.length];
+	var first_tile = 0;
+	for (var index = 0; index < screens.length; index = index + 1)
+	{
+		open(index, screens[index], first_tile, tiles[index]);
+		first_tile = first_tile + tiles[index];
+	}
+	//`-Dmain.stats=true` reports, how many pixels were drawn in vain.
+	if (Boolean.getBoolean("main.stats"))
+	{
+		Runtime.getRuntime().addShutdownHook(new Thread(() ->
+		{
+			for (var grid : grids)
+			{
+				System.err.println(grid.statistics());
+			}
+			latency.dump(System.err);
+			for (var line : plugins.report())
+			{
+				System.err.println(line);
+			}
+		}, "stats"));
+	}
+	//every screen renders on a thread of its own, at its own refresh rate. nothing is shared across a present.
+	for (var renderer : renderers)
+	{
+		renderer.start();
+	}
+	Trace.mark("renderer_started");
+}
+/**
+ * Opens the grid on one screen: a frame, a grid with its share of the tiles and a renderer.
+ */
+private static void open(int index, GraphicsDevice screen, int first_tile, int tile_count)
+{
 	var window = new Frame("THE_GRID", screen.getDefaultConfiguration());
+	Trace.mark("frame");
 	//TODO: we do not need a menu bar. check if nulling it achieves something.
-	window.setMenuBar(null);
+	//A/B test it with `java build.java trace --variant skip=-Dmain.skip=menu_bar`.
+	if (!isSkipped("menu_bar"))
+	{
+		window.setMenuBar(null);
+	}
 	window.setBackground(Color.BLACK);
 	//TODO: will setting the image have some nice effect?
-	window.setIconImage(null);
+	if (!isSkipped("icon_image"))
+	{
+		window.setIconImage(null);
+	}
+	Trace.mark("frame_configured");
 	window.addWindowListener(app);
+	window.addKeyListener(app);
 	//Enter fullscreen mode, to give us more control over the rendering pipeline.
 	//In this mode, our application needs not be coordinated with the window manager/compositor
 	//of the OS, which gives us more room for performance and a simpler pipeline.
@@ -41,13 +103,77 @@ public static void main(String[] args)
 		window.setResizable(false);
 		window.setUndecorated(true);
 		screen.setFullScreenWindow(window);
+		Trace.mark("fullscreen");
 	}
 	else
 	{
 		//set the window to "maximized" as a fallback, in case fullscreen is not supported.
+		//a frame is maximized on the screen it is on.
+		window.setBounds(screen.getDefaultConfiguration().getBounds());
 		window.setExtendedState(Frame.MAXIMIZED_BOTH);
 		window.setVisible(true);
+		Trace.mark("maximized");
 	}
+	//We draw every frame ourselves. Paint events from the OS would only get in the way.
+	window.setIgnoreRepaint(true);
+	var grid = new Grid(first_tile, tile_count, latency, plugins);
+	window.addMouseListener(grid);
+	window.addComponentListener(grid);
+	//`-Dmain.pacing=vsync|fixed:<fps>|demand`
+	var renderer = Renderer.create(window, grid, System.getProperty("main.pacing", "vsync"), Main::firstFrame, latency);
+	grid.onChange(renderer::requestFrame);
+	grids[index] = grid;
+	renderers[index] = renderer;
+}
+/**
+ * For A/B tests of startup decisions: `-Dmain.skip=menu_bar,icon_image` leaves those steps out.
+ * @return Whether the step named `decision` shall be left out.
+ */
+static boolean isSkipped(String decision)
+{
+	return java.util.Arrays.asList(System.getProperty("main.skip", "").split(",")).contains(decision);
+}
+/**
+ * Called by every render thread, once its first frame is on its screen. Only the first screen to show a frame counts.
+ */
+static void firstFrame()
+{
+  if (first_frame.getAndSet(true))
+  {
+    return;
+  }
+  Trace.mark("first_frame");
+  //`-Dmain.trace=true`
+  Trace.print(out);
+  if (Boolean.getBoolean("main.probe"))
+  {
+    //Somebody (`java build.java cds`) measures how long it takes until we show up.
+    //Tell them and stay alive, until they have seen enough and close our stdin.
+    out.println("FIRST_FRAME");
+    out.flush();
+    var waiter = new Thread(() ->
+    {
+      try
+      {
+        while (System.in.read() >= 0);
+      }
+      catch (java.io.IOException ___)
+      {
+        //nobody is listening anymore. same thing.
+      }
+      //for throughput measurements, like `java build.java gc --workload grid`.
+      var frames = 0L;
+      for (var renderer : renderers)
+      {
+        frames = frames + renderer.frames();
+      }
+      out.println("FRAMES " + frames);
+      out.flush();
+      System.exit(0);
+    }, "probe");
+    waiter.setDaemon(true);
+    waiter.start();
+  }
 }
 @Override public void windowClosing(WindowEvent __)
 {
@@ -55,6 +181,46 @@ public static void main(String[] args)
    //Let the OS worry about cleaning up the ressources.
   System.exit(0);
 }
+/**
+ * F3 shows and hides the latency overlay, F4 dumps the latencies to stderr, F5 the load times and heap of the widgets.
+ */
+@Override public void keyPressed(KeyEvent event)
+{
+	switch (event.getKeyCode())
+	{
+		case KeyEvent.VK_F3:
+			{
+				for (var grid : grids)
+				{
+					grid.toggleOverlay();
+				}
+			}
+		break;
+		case KeyEvent.VK_F4:
+			{
+				latency.dump(System.err);
+			}
+		break;
+		case KeyEvent.VK_F5:
+			{
+				for (var line : plugins.report())
+				{
+					System.err.println(line);
+				}
+			}
+		break;
+		default:
+			{
+				//not ours.
+			}
+	}
+}
+@Override public void keyReleased(KeyEvent __)
+{
+}
+@Override public void keyTyped(KeyEvent __)
+{
+}
 @Override public void windowClosed(WindowEvent __)
 {
   //TODO: something useful here...
@@ -0,0 +1,193 @@
+package main;
+import java.awt.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import widget.Widget;
+/**
+ * A tile, that shows what the market server is doing, as sparklines: throughput, p99 latency, open connections, used heap and GC time.
+ *
+ * The market pushes a frame of metrics every interval to a Unix domain socket (see `market.Metrics` for its layout).
+ * A thread of the tile reads the frames, keeps the last {@link #HISTORY} of every series and asks for the tile to be drawn again.
+ * There is no polling and no parsing, on either side. Without a market, the tile says so and tries again every second.
+ */
+final class Market
+implements Widget
+{
+/** "MKT1", as `market.Metrics` writes it. */
+private static final int MAGIC = 0x4D4B5431;
+private static final int FRAME = 64;
+private static final int HISTORY = 120;
+private static final String[] SERIES = {"requests/s", "p99 us", "connections", "heap KiB", "gc ms"};
+private static final Color LINE = new Color(0x60, 0xA0, 0x60);
+private static final Color TEXT = Color.GRAY;
+private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+private final Path socket;
+/** Per series, a ring of the last samples. Guarded by the monitor. */
+private final long[][] history = new long[SERIES.length][HISTORY];
+private int next, samples;
+private long p50_micros, max_micros, cost_ppm, previous_gc_millis = -1;
+private String status = "connecting";
+private final int[] xs = new int[HISTORY], ys = new int[HISTORY];
+private volatile Runnable repaint = () -> {};
+private volatile boolean closed;
+private volatile SocketChannel channel;
+/**
+ * @param socket Where the market publishes its metrics, `bld/market.sock` by default.
+ */
+Market(Path socket)
+{
+	this.socket = socket;
+}
+@Override public void open(Runnable repaint)
+{
+	this.repaint = repaint;
+	var thread = new Thread(this::subscribe, "market");
+	thread.setDaemon(true);
+	thread.start();
+}
+@Override public void close()
+{
+	closed = true;
+	var channel = this.channel;
+	if (channel != null)
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException __)
+		{
+			//closed is closed.
+		}
+	}
+}
+/**
+ * Reads frames, for as long as the tile lives. Reconnects, when the market goes away.
+ */
+private void subscribe()
+{
+	var frame = ByteBuffer.allocate(FRAME);
+	while (!closed)
+	{
+		try (var channel = SocketChannel.open(UnixDomainSocketAddress.of(socket)))
+		{
+			this.channel = channel;
+			status("connected");
+			while (!closed)
+			{
+				frame.clear().limit(8);
+				readFully(channel, frame);
+				var size = frame.getInt(4);
+				if (frame.getInt(0) != MAGIC || size < FRAME)
+				{
+					throw new IOException("not a market at " + socket);
+				}
+				//newer markets may send more. what is not known is skipped.
+				if (size > frame.capacity())
+				{
+					frame = ByteBuffer.allocate(size).put(frame.flip());
+				}
+				frame.limit(size);
+				readFully(channel, frame);
+				sample(frame);
+				repaint.run();
+			}
+		}
+		catch (IOException e)
+		{
+			status(closed ? "closed" : "no market at " + socket);
+		}
+		try
+		{
+			Thread.sleep(1000);
+		}
+		catch (InterruptedException __)
+		{
+			return;
+		}
+	}
+}
+private static void readFully(SocketChannel channel, ByteBuffer buffer)
+throws IOException
+{
+	while (buffer.hasRemaining())
+	{
+		if (channel.read(buffer) < 0)
+		{
+			throw new EOFException();
+		}
+	}
+}
+private void status(String status)
+{
+	synchronized (this)
+	{
+		this.status = status;
+	}
+	//not with the monitor. the grid draws the tile with its own monitor, and then this one.
+	repaint.run();
+}
+/**
+ * Takes one frame into the history.
+ */
+private synchronized void sample(ByteBuffer frame)
+{
+	var gc_millis = frame.getInt(56);
+	history[0][next] = frame.getInt(20);
+	history[1][next] = frame.getInt(36);
+	history[2][next] = frame.getInt(16);
+	history[3][next] = frame.getInt(44);
+	//GC time in this interval. -1 if the market does not know (no `java.management`).
+	history[4][next] = gc_millis < 0 || previous_gc_millis < 0 ? 0 : gc_millis - previous_gc_millis;
+	previous_gc_millis = gc_millis;
+	p50_micros = frame.getInt(32);
+	max_micros = frame.getInt(40);
+	cost_ppm = frame.getInt(60);
+	next = (next + 1) % HISTORY;
+	samples = Math.min(samples + 1, HISTORY);
+}
+@Override public synchronized void paint(Graphics2D gfx, int width, int height)
+{
+	gfx.setFont(FONT);
+	gfx.setColor(TEXT);
+	var metrics = gfx.getFontMetrics();
+	var line = metrics.getHeight();
+	gfx.drawString("market: " + status, 8, 8 + metrics.getAscent());
+	if (samples > 0)
+	{
+		gfx.drawString("p50 " + p50_micros + " us  max " + max_micros + " us  metrics cost " + cost_ppm + " ppm", 8, 8 + line + metrics.getAscent());
+	}
+	var top = 8 + 2 * line + 4;
+	var row = Math.max(line, (height - top - 8) / SERIES.length);
+	var label_width = metrics.stringWidth("connections 0000000") + 16;
+	var spark_width = width - label_width - 16;
+	for (var series = 0; series < SERIES.length; series = series + 1)
+	{
+		var y = top + series * row;
+		var latest = samples == 0 ? 0 : history[series][(next + HISTORY - 1) % HISTORY];
+		gfx.setColor(TEXT);
+		gfx.drawString(SERIES[series] + " " + latest, 8, y + (row + metrics.getAscent()) / 2);
+		if (samples < 2 || spark_width < 8)
+		{
+			continue;
+		}
+		var max = 1L;
+		for (var sample = 0; sample < samples; sample = sample + 1)
+		{
+			max = Math.max(max, history[series][sample]);
+		}
+		var oldest = (next + HISTORY - samples) % HISTORY;
+		for (var sample = 0; sample < samples; sample = sample + 1)
+		{
+			//the newest sample on the right edge. the history grows to the left.
+			xs[sample] = label_width + spark_width - (int) ((long) (samples - 1 - sample) * spark_width / (HISTORY - 1));
+			ys[sample] = y + row - 2 - (int) (history[series][(oldest + sample) % HISTORY] * (row - 4) / max);
+		}
+		gfx.setColor(LINE);
+		gfx.drawPolyline(xs, ys, samples);
+	}
+}
+}
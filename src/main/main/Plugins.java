@@ -0,0 +1,504 @@
+package main;
+import java.io.*;
+import java.lang.module.*;
+import java.lang.ref.WeakReference;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import widget.Tile;
+import widget.Widget;
+/**
+ * Hosts the widgets of the grid: the built-in ones, then one jar in the widget directory (`-Dmain.widgets=&lt;dir&gt;`, default `widgets`) per widget,
+ * in the order of their names. Widget `n` fills tile `n`.
+ *
+ * At startup, the host only lists the directory. A widget is resolved, loaded and instantiated when its tile is drawn for the first time,
+ * on a thread of its own, so that neither startup nor a frame waits for it. Its tile shows a placeholder meanwhile.
+ * Every widget gets a module layer of its own, with a class loader of its own, whose parent is the layer of the grid.
+ * Unloading a widget drops the layer, the loader and the widget. Once nothing else holds on to them, their classes are collected.
+ * When a jar changes, its widget is unloaded, and loaded again the next time its tile is drawn.
+ * A jar, that appears while the grid runs, gets the next widget after all others, and is shown if the grid has a tile for it.
+ * Every load carries the generation of its widget. Unloading starts a new generation, so a load, that finishes after its widget was unloaded, is thrown away.
+ * Every widget is opened with a {@link Tile}, through which it asks the {@link Host} to draw it again, or to scroll it.
+ *
+ * Every load is measured: how long it took, and how much heap it added. A widget over budget
+ * (`-Dmain.widgets.budget_ms=&lt;ms&gt;`, default 50, and `-Dmain.widgets.budget_kb=&lt;KiB&gt;`, default 4096) is reported on stderr.
+ * The heap is measured as the used heap before and after the load. That includes the garbage of the load.
+ * With `-Dmain.widgets.measure=true`, a full GC runs before each measurement, which makes it the heap retained by the widget, at the price of two pauses.
+ */
+final class Plugins
+{
+/**
+ * Where the widgets are shown. Called from any thread.
+ */
+interface Host
+{
+	/** The widget was loaded, failed to load, was unloaded or asked to be drawn again. Its tile has to be drawn again. */
+	void widgetChanged(int widget);
+	/** See {@link Tile#scroll(int, int)}. */
+	void widgetScrolled(int widget, int dx, int dy);
+	/** See {@link Tile#translate(int, int, int, int, int, int)}. */
+	void widgetTranslated(int widget, int x, int y, int width, int height, int dx, int dy);
+}
+private static final long BUDGET_NANOS = Long.getLong("main.widgets.budget_ms", 50) * 1_000_000;
+private static final long BUDGET_BYTES = Long.getLong("main.widgets.budget_kb", 4096) * 1024;
+private static final boolean MEASURE = Boolean.getBoolean("main.widgets.measure");
+/**
+ * One jar and what was loaded from it. Guarded by its own monitor.
+ */
+private static final class Plugin
+{
+	/** null for a built-in widget. */
+	final Path jar;
+	final String name;
+	/** The widget, if it is built into the grid and needs no loading. */
+	final Widget builtin;
+	/** Read by the render thread without the monitor. */
+	volatile Widget widget;
+	ModuleLayer layer;
+	/** The layer of the last unloaded widget. Tells, whether it was collected. */
+	WeakReference<ModuleLayer> unloaded;
+	boolean loading;
+	/** Counts the unloads. A load, that started in an older generation, is stale. */
+	int generation;
+	String error;
+	Host host;
+	int loads;
+	long load_nanos = -1, heap_bytes;
+	Plugin(Path jar)
+	{
+		this.jar = jar;
+		var file_name = jar.getFileName().toString();
+		this.name = file_name.substring(0, file_name.length() - ".jar".length());
+		this.builtin = null;
+	}
+	Plugin(Widget builtin)
+	{
+		this.jar = null;
+		this.name = builtin.getClass().getSimpleName().toLowerCase();
+		this.builtin = builtin;
+	}
+}
+private final Path directory;
+/** Only ever grows, by a copy, when a jar appears. Guarded by the monitor for writing, read without it. */
+private volatile Plugin[] plugins;
+/** The hosts, that asked for widgets, that are not there yet. Told, when a jar appears. */
+private final Set<Host> waiting = ConcurrentHashMap.newKeySet();
+private final ExecutorService loader = Executors.newSingleThreadExecutor(load ->
+{
+	var thread = new Thread(load, "widgets");
+	thread.setDaemon(true);
+	return thread;
+});
+/**
+ * @param builtins Widgets, that come with the grid. They take the first tiles.
+ */
+Plugins(Path directory, Widget... builtins)
+{
+	this.directory = directory;
+	var jars = new ArrayList<Path>();
+	if (Files.isDirectory(directory))
+	{
+		try (var files = Files.newDirectoryStream(directory, "*.jar"))
+		{
+			files.forEach(jars::add);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Could not list the widgets in " + directory + ": " + e.getMessage());
+		}
+	}
+	Collections.sort(jars);
+	var plugins = new Plugin[builtins.length + jars.size()];
+	for (var index = 0; index < builtins.length; index = index + 1)
+	{
+		plugins[index] = new Plugin(builtins[index]);
+	}
+	for (var index = 0; index < jars.size(); index = index + 1)
+	{
+		plugins[builtins.length + index] = new Plugin(jars.get(index));
+	}
+	this.plugins = plugins;
+}
+static Plugins create(Widget... builtins)
+{
+	return new Plugins(Paths.get(System.getProperty("main.widgets", "widgets")), builtins);
+}
+/**
+ * @return How many widgets there are.
+ */
+int count()
+{
+	return plugins.length;
+}
+String name(int index)
+{
+	return plugins[index].name;
+}
+/**
+ * @return Whether the widget could not be loaded. It is tried again, when its jar changes.
+ */
+boolean hasFailed(int index)
+{
+	var plugin = plugins[index];
+	synchronized (plugin)
+	{
+		return plugin.error != null;
+	}
+}
+/**
+ * @param host Where the widget is shown. Told, once the widget is loaded, failed to load or was unloaded, and whenever the widget asks for it.
+ * @return The widget, or null if there is none or it is not loaded yet. Then it starts loading.
+ */
+Widget widget(int index, Host host)
+{
+	var plugins = this.plugins;
+	if (index >= plugins.length)
+	{
+		waiting.add(host);
+		return null;
+	}
+	var plugin = plugins[index];
+	var widget = plugin.widget;
+	if (widget != null)
+	{
+		return widget;
+	}
+	synchronized (plugin)
+	{
+		plugin.host = host;
+		if (plugin.builtin != null)
+		{
+			plugin.builtin.open(new Handle(index));
+			plugin.loads = 1;
+			plugin.widget = plugin.builtin;
+		}
+		if (!plugin.loading && plugin.error == null && plugin.widget == null)
+		{
+			plugin.loading = true;
+			var generation = plugin.generation;
+			loader.execute(() -> load(index, generation));
+		}
+		return plugin.widget;
+	}
+}
+/**
+ * Resolves the jar in a layer of its own and instantiates its widget. Runs on the loader thread.
+ * @param generation Of the widget, when the load was asked for.
+ */
+private void load(int index, int generation)
+{
+	var plugin = plugins[index];
+	var heap_before = usedHeap();
+	var start = System.nanoTime();
+	ModuleLayer layer = null;
+	Widget widget = null;
+	String error = null;
+	try
+	{
+		//the grid may itself run in a layer (`java build.java run`). its widget API is there, not in the boot layer.
+		var parent = Plugins.class.getModule().getLayer() != null ? Plugins.class.getModule().getLayer() : ModuleLayer.boot();
+		var finder = ModuleFinder.of(plugin.jar);
+		var roots = new HashSet<String>();
+		for (var reference : finder.findAll())
+		{
+			roots.add(reference.descriptor().name());
+		}
+		var configuration = parent.configuration().resolve(finder, ModuleFinder.of(), roots);
+		layer = parent.defineModulesWithOneLoader(configuration, Plugins.class.getClassLoader());
+		var providers = ServiceLoader.load(layer, Widget.class).stream().iterator();
+		while (widget == null && providers.hasNext())
+		{
+			var provider = providers.next();
+			//the service loader searches the parent layers, too. their widgets belong to other jars.
+			if (provider.type().getModule().getLayer() == layer)
+			{
+				widget = provider.get();
+			}
+		}
+		if (widget == null)
+		{
+			error = "provides no widget.Widget";
+		}
+		else
+		{
+			widget.open(new Handle(index));
+		}
+	}
+	catch (FindException | ResolutionException | LayerInstantiationException | ServiceConfigurationError e)
+	{
+		error = e.getMessage();
+	}
+	catch (RuntimeException | LinkageError e)
+	{
+		//a widget, that throws in its constructor, must not take the grid down with it.
+		error = e.toString();
+	}
+	var load_nanos = System.nanoTime() - start;
+	var heap_bytes = usedHeap() - heap_before;
+	Host host;
+	boolean stale;
+	synchronized (plugin)
+	{
+		stale = plugin.generation != generation;
+		if (!stale)
+		{
+			plugin.loading = false;
+			plugin.error = error;
+			plugin.load_nanos = load_nanos;
+			plugin.heap_bytes = heap_bytes;
+			if (error == null)
+			{
+				plugin.layer = layer;
+				plugin.widget = widget;
+				plugin.loads = plugin.loads + 1;
+			}
+		}
+		host = plugin.host;
+	}
+	if (stale)
+	{
+		//unloaded, while it loaded. the load of the new generation is queued behind this one, and owns the state.
+		if (widget != null)
+		{
+			close(plugin, widget);
+		}
+		return;
+	}
+	if (error != null)
+	{
+		System.err.println("Widget " + plugin.name + " failed to load: " + error);
+	}
+	else if (load_nanos > BUDGET_NANOS || heap_bytes > BUDGET_BYTES)
+	{
+		System.err.println(String.format("Widget %s is over budget: loaded in %.1f ms (budget %d ms), %d KiB of heap (budget %d KiB).", plugin.name, load_nanos / 1e6, BUDGET_NANOS / 1_000_000, heap_bytes / 1024, BUDGET_BYTES / 1024));
+	}
+	if (host != null)
+	{
+		host.widgetChanged(index);
+	}
+}
+/**
+ * @return Where the widget is shown, null if it was never drawn.
+ */
+private Host host(int index)
+{
+	var plugin = plugins[index];
+	synchronized (plugin)
+	{
+		return plugin.host;
+	}
+}
+/**
+ * The tile, that a widget is opened with. Hands what the widget asks for on to the host of the widget, whichever it is at the time.
+ */
+private final class Handle
+implements Tile
+{
+	private final int index;
+	Handle(int index)
+	{
+		this.index = index;
+	}
+	@Override public void repaint()
+	{
+		var host = host(index);
+		if (host != null)
+		{
+			host.widgetChanged(index);
+		}
+	}
+	@Override public void scroll(int dx, int dy)
+	{
+		var host = host(index);
+		if (host != null)
+		{
+			host.widgetScrolled(index, dx, dy);
+		}
+	}
+	@Override public void translate(int x, int y, int width, int height, int dx, int dy)
+	{
+		var host = host(index);
+		if (host != null)
+		{
+			host.widgetTranslated(index, x, y, width, height, dx, dy);
+		}
+	}
+}
+/**
+ * Drops the widget, its loader and its layer. The widget is closed. It is loaded again, the next time its tile is drawn.
+ */
+void unload(int index)
+{
+	var plugin = plugins[index];
+	Widget widget;
+	Host host;
+	synchronized (plugin)
+	{
+		widget = plugin.widget;
+		if (plugin.layer != null)
+		{
+			plugin.unloaded = new WeakReference<>(plugin.layer);
+		}
+		plugin.widget = null;
+		plugin.layer = null;
+		//a jar, that changed, deserves another try.
+		plugin.error = null;
+		//a load in flight is stale now. the next one starts with the next drawing of the tile.
+		plugin.generation = plugin.generation + 1;
+		plugin.loading = false;
+		host = plugin.host;
+	}
+	if (widget != null)
+	{
+		close(plugin, widget);
+	}
+	if (host != null)
+	{
+		host.widgetChanged(index);
+	}
+}
+private static void close(Plugin plugin, Widget widget)
+{
+	try
+	{
+		widget.close();
+	}
+	catch (RuntimeException e)
+	{
+		System.err.println("Widget " + plugin.name + " failed to close: " + e);
+	}
+}
+/**
+ * Unloads widgets, whose jars change, and adds jars, that appear, for as long as the grid runs.
+ */
+void watch()
+{
+	if (!Files.isDirectory(directory))
+	{
+		return;
+	}
+	WatchService watcher;
+	try
+	{
+		watcher = directory.getFileSystem().newWatchService();
+		directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+	}
+	catch (IOException e)
+	{
+		System.err.println("Widgets are not reloaded. Could not watch " + directory + ": " + e.getMessage());
+		return;
+	}
+	var thread = new Thread(() ->
+	{
+		while (true)
+		{
+			WatchKey key;
+			try
+			{
+				key = watcher.take();
+			}
+			catch (InterruptedException __)
+			{
+				return;
+			}
+			for (var event : key.pollEvents())
+			{
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				{
+					continue;
+				}
+				var changed = (Path) event.context();
+				var known = false;
+				var plugins = this.plugins;
+				for (var index = 0; index < plugins.length; index = index + 1)
+				{
+					if (plugins[index].jar != null && plugins[index].jar.getFileName().equals(changed))
+					{
+						known = true;
+						unload(index);
+					}
+				}
+				//a jar, that is copied in, is created and then modified. either one may come first, when events are coalesced.
+				if (!known && event.kind() != StandardWatchEventKinds.ENTRY_DELETE && changed.toString().endsWith(".jar"))
+				{
+					add(directory.resolve(changed));
+				}
+			}
+			if (!key.reset())
+			{
+				return;
+			}
+		}
+	}, "widgets-watch");
+	thread.setDaemon(true);
+	thread.start();
+}
+/**
+ * Appends a widget for a jar, that appeared, and tells the hosts, that wait for more widgets.
+ */
+private void add(Path jar)
+{
+	int index;
+	synchronized (this)
+	{
+		var plugins = this.plugins;
+		index = plugins.length;
+		var grown = Arrays.copyOf(plugins, index + 1);
+		grown[index] = new Plugin(jar);
+		this.plugins = grown;
+	}
+	for (var host : waiting)
+	{
+		//a host, that has no tile for the widget, ignores it.
+		host.widgetChanged(index);
+	}
+}
+/**
+ * @return One line per widget: how long it took to load, how much heap it added, how often it was loaded and its state.
+ */
+String[] report()
+{
+	var plugins = this.plugins;
+	var lines = new String[plugins.length + 1];
+	lines[0] = String.format("%-24s %9s %9s %6s %s", "widget", "load_ms", "heap_kb", "loads", "state");
+	for (var index = 0; index < plugins.length; index = index + 1)
+	{
+		var plugin = plugins[index];
+		synchronized (plugin)
+		{
+			String state;
+			if (plugin.error != null)
+			{
+				state = "failed: " + plugin.error;
+			}
+			else if (plugin.widget != null)
+			{
+				state = "loaded";
+			}
+			else if (plugin.loading)
+			{
+				state = "loading";
+			}
+			else if (plugin.unloaded != null)
+			{
+				state = plugin.unloaded.get() == null ? "unloaded, collected" : "unloaded, not collected yet";
+			}
+			else
+			{
+				state = "not shown yet";
+			}
+			lines[index + 1] = String.format("%-24s %9.1f %9d %6d %s", plugin.name, plugin.load_nanos < 0 ? 0 : plugin.load_nanos / 1e6, plugin.heap_bytes / 1024, plugin.loads, state);
+		}
+	}
+	return lines;
+}
+private static long usedHeap()
+{
+	var runtime = Runtime.getRuntime();
+	if (MEASURE)
+	{
+		System.gc();
+	}
+	return runtime.totalMemory() - runtime.freeMemory();
+}
+}
@@ -0,0 +1,283 @@
+package main;
+import java.awt.*;
+import java.awt.image.*;
+/**
+ * Draws the grid on a thread of its own, straight into a {@link BufferStrategy} of the fullscreen {@link Frame}.
+ * This is the active rendering path: nothing waits for the EDT, nothing goes through `repaint()`,
+ * so no paint request can be reordered (`xprmnts/QueueDelay`) or swallowed (`xprmnts/RequestSkip`).
+ * The scene is drawn on the surface of a {@link Compositor}, which keeps its content across frames,
+ * and the surface is copied to the back buffer with one blit.
+ * The render thread owns the buffer strategy and the compositor. Nobody else may touch them.
+ */
+final class Renderer
+implements Runnable
+{
+/**
+ * How the render thread decides, when to draw the next frame.
+ */
+enum Pacing
+{
+	/** One frame per refresh of the display. Page flipping, if the device can do it, lets `show()` wait for the vertical blank. */
+	VSYNC,
+	/** A fixed number of frames per second, regardless of the display. */
+	FIXED,
+	/** Only when somebody called {@link Renderer#requestFrame()}. */
+	ON_DEMAND
+}
+/**
+ * Whatever is drawn into a frame.
+ * Called on the render thread, with a fresh {@link Graphics2D} of the surface.
+ * The surface still shows the last frame, so the scene only has to draw what changed since.
+ */
+interface Scene
+{
+	/**
+	 * @param contents_lost Whether the surface lost its content. Then the scene has to draw everything.
+	 */
+	void paint(Graphics2D gfx, int width, int height, boolean contents_lost);
+}
+private final Frame window;
+private final Scene scene;
+private final Pacing pacing;
+private final long period_nanos;
+private final Runnable first_frame;
+private final Latency latency;
+private final Compositor compositor = Compositor.create();
+private final Object wakeup = new Object();
+private boolean frame_requested;
+private volatile boolean running = true;
+private volatile long frames;
+/**
+ * @param window A displayable frame. Its buffer strategy will belong to the render thread.
+ * @param scene Draws the content of every frame.
+ * @param pacing When to draw frames.
+ * @param frames_per_second Only used for {@link Pacing#FIXED}. At least 1.
+ * @param first_frame Runs on the render thread, right after the first frame was presented.
+ * @param latency Records how long the stages of every frame take.
+ */
+Renderer(Frame window, Scene scene, Pacing pacing, int frames_per_second, Runnable first_frame, Latency latency)
+{
+	this.window = window;
+	this.scene = scene;
+	this.pacing = pacing;
+	this.first_frame = first_frame;
+	this.latency = latency;
+	switch (pacing)
+	{
+		case VSYNC:
+			{
+				var refresh_rate = window.getGraphicsConfiguration().getDevice().getDisplayMode().getRefreshRate();
+				//some devices do not know their refresh rate. 60 Hz is the safest bet.
+				this.period_nanos = 1_000_000_000L / (refresh_rate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : refresh_rate);
+			}
+		break;
+		case FIXED:
+			{
+				this.period_nanos = 1_000_000_000L / frames_per_second;
+			}
+		break;
+		default:
+			{
+				this.period_nanos = 0;
+			}
+	}
+}
+/**
+ * Parses the pacing from a string like `vsync`, `fixed:144` or `demand`.
+ * A pacing, that makes no sense, like `fixed:0`, is reported on stderr, and the renderer paces with vsync.
+ * @return A renderer with that pacing.
+ */
+static Renderer create(Frame window, Scene scene, String pacing, Runnable first_frame, Latency latency)
+{
+	if (pacing.startsWith("fixed:"))
+	{
+		var frames_per_second = 0;
+		try
+		{
+			frames_per_second = Integer.parseInt(pacing.substring("fixed:".length()));
+		}
+		catch (NumberFormatException __)
+		{
+			//reported below, like a rate of 0.
+		}
+		if (frames_per_second > 0)
+		{
+			return new Renderer(window, scene, Pacing.FIXED, frames_per_second, first_frame, latency);
+		}
+		System.err.println("The pacing " + pacing + " has no frame rate. Expected fixed:<frames per second>, with at least 1 frame per second. Pacing with vsync.");
+	}
+	else if (pacing.equals("demand"))
+	{
+		return new Renderer(window, scene, Pacing.ON_DEMAND, 0, first_frame, latency);
+	}
+	else if (!pacing.equals("vsync"))
+	{
+		System.err.println("Unknown pacing " + pacing + ". Expected vsync, fixed:<frames per second> or demand. Pacing with vsync.");
+	}
+	return new Renderer(window, scene, Pacing.VSYNC, 0, first_frame, latency);
+}
+/**
+ * Starts the render thread.
+ */
+void start()
+{
+	var thread = new Thread(this, "render " + window.getGraphicsConfiguration().getDevice().getIDstring());
+	//the render thread is more important than anything else the app does. the user is looking at it.
+	thread.setPriority(Thread.MAX_PRIORITY);
+	thread.setDaemon(true);
+	thread.start();
+}
+/**
+ * Asks for a new frame. Requests are not queued: many requests before the next frame result in one frame.
+ * Only necessary with {@link Pacing#ON_DEMAND}. The other pacings draw frames anyway.
+ */
+void requestFrame()
+{
+	synchronized (wakeup)
+	{
+		frame_requested = true;
+		wakeup.notify();
+	}
+}
+/**
+ * @return How many frames were presented so far.
+ */
+long frames()
+{
+	return frames;
+}
+@Override public void run()
+{
+	var strategy = createBufferStrategy();
+	var toolkit = Toolkit.getDefaultToolkit();
+	var next_frame = System.nanoTime();
+	while (running)
+	{
+		next_frame = awaitFrame(next_frame);
+		if (!running)
+		{
+			break;
+		}
+		//the input, that this frame shows. taken before drawing, so input during drawing waits for the next frame.
+		var input = latency.takeInput(window);
+		long render_start, render_end, show_end, present_end;
+		//the buffer contents can get lost (display mode change, another fullscreen app, ...) at any time. then the frame is drawn again.
+		do
+		{
+			render_start = System.nanoTime();
+			var width = window.getWidth();
+			var height = window.getHeight();
+			do
+			{
+				var contents_lost = compositor.validate(window.getGraphicsConfiguration(), width, height);
+				var gfx = compositor.createGraphics();
+				try
+				{
+					scene.paint(gfx, width, height, contents_lost);
+				}
+				finally
+				{
+					gfx.dispose();
+				}
+			}
+			while (compositor.contentsLost());
+			//the surface has everything. whatever the back buffer did with the last frame, one copy makes it right.
+			do
+			{
+				var gfx = strategy.getDrawGraphics();
+				try
+				{
+					compositor.blit(gfx);
+				}
+				finally
+				{
+					gfx.dispose();
+				}
+			}
+			while (strategy.contentsRestored());
+			render_end = System.nanoTime();
+			strategy.show();
+			show_end = System.nanoTime();
+			//without a sync, the frame may still sit in the queue of the window system (`xprmnts/PipelineFlush`).
+			toolkit.sync();
+			present_end = System.nanoTime();
+		}
+		while (strategy.contentsLost());
+		latency.record(Latency.Stage.RENDER, render_end - render_start);
+		latency.record(Latency.Stage.SHOW, show_end - render_end);
+		latency.record(Latency.Stage.SYNC, present_end - show_end);
+		if (input != 0)
+		{
+			latency.record(Latency.Stage.INPUT_TO_PHOTON, present_end - input);
+		}
+		frames = frames + 1;
+		if (frames == 1 && first_frame != null)
+		{
+			first_frame.run();
+		}
+	}
+	strategy.dispose();
+}
+/**
+ * Page flipping is the cheapest way to present a frame and the only way AWT offers to wait for the vertical blank.
+ * Not every device can do it, so we fall back to whatever AWT thinks is best.
+ */
+private BufferStrategy createBufferStrategy()
+{
+	if (pacing == Pacing.VSYNC)
+	{
+		try
+		{
+			window.createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+			return window.getBufferStrategy();
+		}
+		catch (AWTException __)
+		{
+			//no page flipping for us.
+		}
+	}
+	window.createBufferStrategy(2);
+	return window.getBufferStrategy();
+}
+/**
+ * Blocks until the next frame is due.
+ * @return When the frame after the next one is due.
+ */
+private long awaitFrame(long next_frame)
+{
+	if (pacing == Pacing.ON_DEMAND)
+	{
+		synchronized (wakeup)
+		{
+			while (!frame_requested && running)
+			{
+				try
+				{
+					wakeup.wait();
+				}
+				catch (InterruptedException __)
+				{
+					running = false;
+				}
+			}
+			frame_requested = false;
+		}
+		return 0;
+	}
+	var now = System.nanoTime();
+	if (next_frame - now > 0)
+	{
+		try
+		{
+			Thread.sleep((next_frame - now) / 1_000_000, (int) ((next_frame - now) % 1_000_000));
+		}
+		catch (InterruptedException __)
+		{
+			running = false;
+		}
+		now = System.nanoTime();
+	}
+	//missed frames are dropped, not made up for.
+	return Math.max(next_frame + period_nanos, now);
+}
+}
@@ -0,0 +1,297 @@
+package main;
+import java.awt.*;
+import java.awt.image.*;
+/**
+ * Keeps the last drawn content of every tile in an image of its own, in video memory if there is any.
+ * A tile, whose content did not change, is then drawn with one blit, no matter how expensive its app is to draw.
+ *
+ * All images together stay under a budget of bytes. When a new image does not fit,
+ * the images of the tiles that were drawn the longest time ago are thrown away (least recently used).
+ * The budget is half of what {@link GraphicsDevice#getAvailableAcceleratedMemory()} reports (see `xprmnts/PrintGraphicsCapabilities`),
+ * or `-Dmain.tiles.cache=<MiB>`, whichever is smaller.
+ *
+ * The order of use is a doubly linked list in flat arrays, indexed by tile. Drawing a tile does not allocate.
+ * Not thread-safe. The owner has to synchronize.
+ */
+final class TileCache
+{
+/**
+ * Draws the content of a tile, relative to the top left corner of the tile.
+ */
+interface Painter
+{
+	void paint(Graphics2D gfx, int tile, int width, int height);
+}
+/** When the device does not know how much accelerated memory it has. */
+private static final long DEFAULT_BUDGET = 64L << 20;
+private final long budget;
+private VolatileImage[] images = new VolatileImage[0];
+/** Whether the image of a tile still shows the current content of the tile. */
+private boolean[] valid = new boolean[0];
+private long[] sizes = new long[0];
+/** The order of use. Most recently used first. -1 ends the list. */
+private int[] previous = new int[0], next = new int[0];
+private int first = -1, last = -1;
+private long bytes;
+private long hits, misses, evictions;
+/**
+ * @param budget How many bytes all images may take together.
+ */
+TileCache(long budget)
+{
+	this.budget = budget;
+}
+/**
+ * Derives the budget from the accelerated memory of the device and `-Dmain.tiles.cache=<MiB>`.
+ */
+static TileCache create(GraphicsDevice device)
+{
+	var available = device.getAvailableAcceleratedMemory();
+	//leave half of the video memory to the surfaces of the screen and everybody else.
+	var budget = available > 0 ? available / 2 : DEFAULT_BUDGET;
+	var cap = Long.getLong("main.tiles.cache");
+	if (cap != null)
+	{
+		budget = Math.min(budget, cap << 20);
+	}
+	return new TileCache(budget);
+}
+/**
+ * Draws a tile from its image. If the image is missing, too small or lost its content, the tile is drawn into the image first.
+ * If the tile does not fit into the budget at all, it is drawn straight into `gfx`.
+ */
+void draw(Graphics2D gfx, int tile, int x, int y, int width, int height, Painter painter)
+{
+	if (width <= 0 || height <= 0)
+	{
+		return;
+	}
+	grow(tile);
+	var configuration = gfx.getDeviceConfiguration();
+	var image = images[tile];
+	if (image != null && valid[tile] && image.getWidth() == width && image.getHeight() == height && image.validate(configuration) == VolatileImage.IMAGE_OK)
+	{
+		hits = hits + 1;
+		touch(tile);
+		gfx.drawImage(image, x, y, null);
+		return;
+	}
+	misses = misses + 1;
+	valid[tile] = false;
+	image = allocate(tile, width, height, configuration);
+	if (image == null)
+	{
+		paintDirect(gfx, tile, x, y, width, height, painter);
+		return;
+	}
+	do
+	{
+		if (image.validate(configuration) == VolatileImage.IMAGE_INCOMPATIBLE)
+		{
+			image = allocate(tile, width, height, configuration);
+			if (image == null)
+			{
+				paintDirect(gfx, tile, x, y, width, height, painter);
+				return;
+			}
+		}
+		var image_gfx = image.createGraphics();
+		try
+		{
+			painter.paint(image_gfx, tile, width, height);
+		}
+		finally
+		{
+			image_gfx.dispose();
+		}
+	}
+	while (image.contentsLost());
+	valid[tile] = true;
+	gfx.drawImage(image, x, y, null);
+}
+/**
+ * Moves the content of a tile within its image by (dx, dy), like when it scrolls.
+ * Only the strips, that the move uncovers, are drawn by the painter, clipped to them. The rest is copied.
+ * @return Whether the image is up to date now. If not, the tile has to be drawn completely.
+ */
+boolean translate(int tile, int dx, int dy, Painter painter, GraphicsConfiguration configuration)
+{
+	if (tile >= images.length || images[tile] == null || !valid[tile])
+	{
+		return false;
+	}
+	var image = images[tile];
+	var width = image.getWidth();
+	var height = image.getHeight();
+	if (image.validate(configuration) != VolatileImage.IMAGE_OK || Math.abs(dx) >= width || Math.abs(dy) >= height)
+	{
+		valid[tile] = false;
+		return false;
+	}
+	var image_gfx = image.createGraphics();
+	try
+	{
+		image_gfx.copyArea(Math.max(0, -dx), Math.max(0, -dy), width - Math.abs(dx), height - Math.abs(dy), dx, dy);
+		if (dx != 0)
+		{
+			image_gfx.setClip(dx > 0 ? 0 : width + dx, 0, Math.abs(dx), height);
+			painter.paint(image_gfx, tile, width, height);
+		}
+		if (dy != 0)
+		{
+			image_gfx.setClip(0, dy > 0 ? 0 : height + dy, width, Math.abs(dy));
+			painter.paint(image_gfx, tile, width, height);
+		}
+	}
+	finally
+	{
+		image_gfx.dispose();
+	}
+	if (image.contentsLost())
+	{
+		valid[tile] = false;
+		return false;
+	}
+	touch(tile);
+	return true;
+}
+/**
+ * Forgets the content of a tile, because it changed. The image is kept for the next drawing.
+ */
+void invalidate(int tile)
+{
+	if (tile < valid.length)
+	{
+		valid[tile] = false;
+	}
+}
+/** @return How often a tile was drawn from its image. */
+long hits() { return hits; }
+/** @return How often a tile had to be drawn by its app. */
+long misses() { return misses; }
+/** @return How many images were thrown away to stay within the budget. */
+long evictions() { return evictions; }
+/** @return How many bytes the images take. */
+long bytes() { return bytes; }
+long budget() { return budget; }
+private static void paintDirect(Graphics2D gfx, int tile, int x, int y, int width, int height, Painter painter)
+{
+	var tile_gfx = (Graphics2D) gfx.create(x, y, width, height);
+	try
+	{
+		painter.paint(tile_gfx, tile, width, height);
+	}
+	finally
+	{
+		tile_gfx.dispose();
+	}
+}
+/**
+ * Makes sure, the tile has an image of the given size, evicting other images, until it fits into the budget.
+ * @return The image, or null, if the tile alone is bigger than the budget.
+ */
+private VolatileImage allocate(int tile, int width, int height, GraphicsConfiguration configuration)
+{
+	var image = images[tile];
+	if (image != null && image.getWidth() == width && image.getHeight() == height && image.validate(configuration) != VolatileImage.IMAGE_INCOMPATIBLE)
+	{
+		touch(tile);
+		return image;
+	}
+	release(tile);
+	var size = (long) width * height * Math.max(1, configuration.getColorModel().getPixelSize() / 8);
+	if (size > budget)
+	{
+		return null;
+	}
+	while (bytes + size > budget && last >= 0)
+	{
+		release(last);
+		evictions = evictions + 1;
+	}
+	image = configuration.createCompatibleVolatileImage(width, height);
+	images[tile] = image;
+	sizes[tile] = size;
+	bytes = bytes + size;
+	link(tile);
+	return image;
+}
+/**
+ * Throws the image of a tile away, giving its memory back right away.
+ */
+private void release(int tile)
+{
+	if (images[tile] == null)
+	{
+		return;
+	}
+	images[tile].flush();
+	images[tile] = null;
+	valid[tile] = false;
+	bytes = bytes - sizes[tile];
+	sizes[tile] = 0;
+	unlink(tile);
+}
+/**
+ * Moves a tile to the front of the order of use.
+ */
+private void touch(int tile)
+{
+	if (first != tile)
+	{
+		unlink(tile);
+		link(tile);
+	}
+}
+private void link(int tile)
+{
+	previous[tile] = -1;
+	next[tile] = first;
+	if (first >= 0)
+	{
+		previous[first] = tile;
+	}
+	first = tile;
+	if (last < 0)
+	{
+		last = tile;
+	}
+}
+private void unlink(int tile)
+{
+	if (previous[tile] >= 0)
+	{
+		next[previous[tile]] = next[tile];
+	}
+	else
+	{
+		first = next[tile];
+	}
+	if (next[tile] >= 0)
+	{
+		previous[next[tile]] = previous[tile];
+	}
+	else
+	{
+		last = previous[tile];
+	}
+	previous[tile] = -1;
+	next[tile] = -1;
+}
+private void grow(int tile)
+{
+	if (tile < images.length)
+	{
+		return;
+	}
+	var old_length = images.length;
+	var length = Math.max(tile + 1, old_length * 2);
+	images = java.util.Arrays.copyOf(images, length);
+	valid = java.util.Arrays.copyOf(valid, length);
+	sizes = java.util.Arrays.copyOf(sizes, length);
+	previous = java.util.Arrays.copyOf(previous, length);
+	next = java.util.Arrays.copyOf(next, length);
+	java.util.Arrays.fill(previous, old_length, length, -1);
+	java.util.Arrays.fill(next, old_length, length, -1);
+}
+}
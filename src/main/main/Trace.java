@@ -0,0 +1,102 @@
+package main;
+import java.io.*;
+/**
+ * Records when startup reaches its milestones, from the start of the JVM to the first frame on the screen.
+ * Every decision in {@link Main#main(String[])} can then be measured instead of guessed, like whether nulling the menu bar achieves something.
+ *
+ * Off by default, then {@link #mark(String)} costs a branch. On with `-Dmain.trace=true`.
+ * With `java.management` in the boot layer (`--add-modules java.management`), the start of the JVM comes from the `RuntimeMXBean`
+ * and every milestone knows, how many classes were loaded by then. Without it, the start of the process, as the OS reports it, has to do.
+ * That is only a rough number (on Linux, it is derived from the boot time in clock ticks) and classes are not counted.
+ * Loading `java.management` costs time itself, so it is not required.
+ *
+ * The timeline is printed as lines of the form `TRACE &lt;ms since JVM start&gt; &lt;ms since previous&gt; &lt;classes&gt; &lt;milestone&gt;`,
+ * which `java build.java trace` parses.
+ */
+final class Trace
+{
+private static final boolean ENABLED = Boolean.getBoolean("main.trace");
+private static final int MAX_MILESTONES = 32;
+private static final String[] milestones = new String[MAX_MILESTONES];
+private static final long[] nanos = new long[MAX_MILESTONES];
+private static final long[] classes = new long[MAX_MILESTONES];
+private static int count;
+private static boolean management;
+private Trace()
+{
+}
+static boolean isEnabled()
+{
+	return ENABLED;
+}
+/**
+ * Records, that startup reached a milestone. The first call also records the start of the JVM.
+ */
+static void mark(String milestone)
+{
+	if (!ENABLED)
+	{
+		return;
+	}
+	synchronized (Trace.class)
+	{
+		if (count == 0)
+		{
+			management = ModuleLayer.boot().findModule("java.management").isPresent();
+			record("jvm_start", jvmStart(), management ? 0 : -1);
+		}
+		record(milestone, System.nanoTime(), management ? Management.loadedClasses() : -1);
+	}
+}
+/**
+ * Prints the timeline.
+ */
+static synchronized void print(PrintStream out)
+{
+	if (!ENABLED)
+	{
+		return;
+	}
+	for (var milestone = 0; milestone < count; milestone = milestone + 1)
+	{
+		var since_start = (nanos[milestone] - nanos[0]) / 1e6;
+		var since_previous = milestone == 0 ? 0 : (nanos[milestone] - nanos[milestone - 1]) / 1e6;
+		out.println(String.format("TRACE %9.2f %+9.2f %6d %s", since_start, since_previous, classes[milestone], milestones[milestone]));
+	}
+	out.flush();
+}
+private static void record(String milestone, long when, long loaded_classes)
+{
+	if (count == MAX_MILESTONES)
+	{
+		return;
+	}
+	milestones[count] = milestone;
+	nanos[count] = when;
+	classes[count] = loaded_classes;
+	count = count + 1;
+}
+/**
+ * @return When the JVM started, on the clock of {@link System#nanoTime()}.
+ */
+private static long jvmStart()
+{
+	var start_millis = management ? Management.startTime() : ProcessHandle.current().info().startInstant().map(java.time.Instant::toEpochMilli).orElse(System.currentTimeMillis());
+	//nanoTime has no origin. the wall clock has one. the difference between both clocks maps one onto the other.
+	return System.nanoTime() - (System.currentTimeMillis() - start_millis) * 1_000_000;
+}
+/**
+ * Touches `java.management`. Only loaded, if the module is there.
+ */
+private static final class Management
+{
+	static long startTime()
+	{
+		return java.lang.management.ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+	static long loadedClasses()
+	{
+		return java.lang.management.ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount();
+	}
+}
+}
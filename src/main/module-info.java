@@ -3,5 +3,12 @@
 */
 module main {
 	requires java.base;
-	requires java.desktop;
+	//the widget API draws with `java.awt`. every widget needs it.
+	requires transitive java.desktop;
+	//only for `-Dmain.trace=true`, and only if it is there (`--add-modules java.management`).
+	requires static java.management;
+	//the histogram of the latencies, shared with the market.
+	requires wire;
+	exports widget;
+	uses widget.Widget;
 }
@@ -0,0 +1,33 @@
+package widget;
+/**
+ * The tile of a widget, as the grid hands it to {@link Widget#open(Tile)}. Safe to use from any thread.
+ *
+ * A widget, whose content only moves, like a log view, a list or a chart that runs, should not be drawn completely again.
+ * It tells the grid how its content moved, and the grid copies the pixels, that it already has.
+ * Only the strips, that the move uncovers, are drawn by {@link Widget#paint}, clipped to them.
+ */
+public interface Tile
+{
+/**
+ * Makes the grid draw the tile again, with its next frame. Widgets, that change over time, call it.
+ */
+void repaint();
+/**
+ * Scrolls the whole content of the tile by (dx, dy), with the next frame. Positive values move it right and down.
+ * The widget has to be in the scrolled state already, when it is asked to draw the uncovered strips.
+ * @param dx Horizontal pixels.
+ * @param dy Vertical pixels.
+ */
+void scroll(int dx, int dy);
+/**
+ * Moves the pixels inside a rectangle of the tile by (dx, dy), clipped to the rectangle, with the next frame.
+ * The rest of the tile stays as it is. The widget has to be in the moved state already, when it is asked to draw the uncovered strips.
+ * @param x Of the rectangle, relative to the top left corner of the tile.
+ * @param y Of the rectangle, relative to the top left corner of the tile.
+ * @param width Of the rectangle.
+ * @param height Of the rectangle.
+ * @param dx Horizontal pixels.
+ * @param dy Vertical pixels.
+ */
+void translate(int x, int y, int width, int height, int dx, int dy);
+}
@@ -0,0 +1,43 @@
+package widget;
+import java.awt.Graphics2D;
+/**
+ * A widget fills a tile of THE_GRID. It is the API, that plugins implement.
+ *
+ * A plugin is a jar in the widget directory of the grid (`-Dmain.widgets=&lt;dir&gt;`, default `widgets`), that provides this service:
+ * `provides widget.Widget with ...` in its `module-info.java`, or `META-INF/services/widget.Widget` in a plain jar.
+ * Every plugin is loaded into a module layer of its own, with a class loader of its own, when its tile is shown for the first time.
+ * A plugin, whose jar changes, is unloaded and loaded again, the next time its tile is drawn.
+ */
+public interface Widget
+{
+/**
+ * Called once, after the widget was loaded and before it is drawn for the first time.
+ * @param repaint Makes the grid draw the tile again, with its next frame. Safe to call from any thread. Widgets, that change over time, call it.
+ */
+default void open(Runnable repaint)
+{
+}
+/**
+ * Called once, after the widget was loaded and before it is drawn for the first time. This is the one, that the grid calls.
+ * By default, it hands {@link Tile#repaint()} on to {@link #open(Runnable)}. Widgets, that scroll or move their content, take the tile instead.
+ * @param tile The tile of the widget. Safe to use from any thread.
+ */
+default void open(Tile tile)
+{
+	open(tile::repaint);
+}
+/**
+ * Draws the content of the tile. Called on the render thread, only when the tile changed, so it has to be fast, but not cheap.
+ * @param gfx Draws into the tile, with (0, 0) in its top left corner. Disposed of by the grid.
+ * @param width Of the tile.
+ * @param height Of the tile.
+ */
+void paint(Graphics2D gfx, int width, int height);
+/**
+ * Called once, when the widget is unloaded. Whatever the widget started (threads, timers, sockets) has to stop here,
+ * or its classes can never be collected.
+ */
+default void close()
+{
+}
+}
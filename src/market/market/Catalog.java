@@ -0,0 +1,263 @@
+package market;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import wire.Wire;
+/**
+ * The widgets on offer: every regular file in the artifact directory (`-Dmarket.artifacts=<dir>`, default `widgets`) is a widget.
+ * The listing is rendered once, as JSON for HTTP and binary for the {@link Wire} protocol, and kept, until the directory or one of the artifacts changes.
+ * Listing the widgets is the hot path, not the directory: it costs one `stat` per artifact, and no lock.
+ * Overwriting an artifact in place does not touch the directory, so the directory alone can not tell.
+ *
+ * With a {@link Store}, the directory is only where artifacts come in: every artifact is put into the store, when the directory changes,
+ * and served from there, straight from the mapped segment. Artifacts, that did not change since, are not read again.
+ * One thread scans, under a lock, not a monitor: putting artifacts into the store waits for the disk.
+ * Everybody else keeps reading the last scan, until the new one is published.
+ */
+final class Catalog
+{
+private final Path directory;
+/** null without a store. */
+private final Store store;
+/** The last scan. Replaced as a whole, read without a lock. */
+private volatile Scan scan;
+/** Held by the thread, that scans. */
+private final ReentrantLock scanning = new ReentrantLock();
+Catalog(Path directory, Store store)
+{
+	this.directory = directory;
+	this.store = store;
+}
+/**
+ * @param store Where the artifacts are served from, null to serve them from the directory.
+ */
+static Catalog create(Store store)
+{
+	return new Catalog(Paths.get(System.getProperty("market.artifacts", "widgets")), store);
+}
+/**
+ * An artifact, as it was listed and put into the store.
+ */
+private static final class Artifact
+{
+	final FileTime modified;
+	final long size;
+	/** null without a store. */
+	final byte[] key;
+	Artifact(FileTime modified, long size, byte[] key)
+	{
+		this.modified = modified;
+		this.size = size;
+		this.key = key;
+	}
+}
+/**
+ * What one scan of the directory found. Immutable.
+ */
+private static final class Scan
+{
+	/** The modification time of the directory, before it was listed. */
+	final FileTime listed;
+	final byte[] listing, binary_listing;
+	/** Name → artifact. */
+	final Map<String, Artifact> artifacts;
+	Scan(FileTime listed, byte[] listing, byte[] binary_listing, Map<String, Artifact> artifacts)
+	{
+		this.listed = listed;
+		this.listing = listing;
+		this.binary_listing = binary_listing;
+		this.artifacts = artifacts;
+	}
+}
+/**
+ * @return The widgets as JSON: `[{"name":"clock.jar","size":1234},...]`.
+ */
+byte[] listing()
+throws IOException
+{
+	return current().listing;
+}
+/**
+ * @return The widgets in the {@link Wire} encoding: a varint count, then a varint length, the name and the varint size of every widget.
+ */
+byte[] binaryListing()
+throws IOException
+{
+	return current().binary_listing;
+}
+/**
+ * @return The last scan, or a new one, if the directory or an artifact changed since.
+ */
+private Scan current()
+throws IOException
+{
+	var scan = this.scan;
+	if (scan != null && !changed(scan))
+	{
+		return scan;
+	}
+	scanning.lock();
+	try
+	{
+		//somebody else may have scanned, while this thread waited.
+		scan = this.scan;
+		if (scan == null || changed(scan))
+		{
+			scan = scan(scan);
+			this.scan = scan;
+		}
+		return scan;
+	}
+	finally
+	{
+		scanning.unlock();
+	}
+}
+/**
+ * @return Whether files came, went or changed since `scan`.
+ */
+private boolean changed(Scan scan)
+throws IOException
+{
+	if (!modified(directory).equals(scan.listed))
+	{
+		return true;
+	}
+	for (var entry : scan.artifacts.entrySet())
+	{
+		BasicFileAttributes attributes;
+		try
+		{
+			attributes = Files.readAttributes(directory.resolve(entry.getKey()), BasicFileAttributes.class);
+		}
+		catch (NoSuchFileException __)
+		{
+			return true;
+		}
+		if (!attributes.lastModifiedTime().equals(entry.getValue().modified) || attributes.size() != entry.getValue().size)
+		{
+			return true;
+		}
+	}
+	return false;
+}
+private static FileTime modified(Path directory)
+throws IOException
+{
+	return Files.isDirectory(directory) ? Files.getLastModifiedTime(directory) : FileTime.fromMillis(0);
+}
+/**
+ * Lists the directory, renders both listings and puts new and changed artifacts into the store.
+ * @param previous The last scan, null if there is none. Its artifacts, that did not change, are not read again.
+ */
+private Scan scan(Scan previous)
+throws IOException
+{
+	var listed = modified(directory);
+	var names = new ArrayList<byte[]>();
+	var sizes = new ArrayList<Long>();
+	var artifacts = new HashMap<String, Artifact>();
+	if (Files.isDirectory(directory))
+	{
+		try (var files = Files.newDirectoryStream(directory))
+		{
+			for (var file : files)
+			{
+				var name = file.getFileName().toString();
+				if (!isName(name) || !Files.isRegularFile(file))
+				{
+					continue;
+				}
+				var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				var size = attributes.size();
+				var artifact = previous == null ? null : previous.artifacts.get(name);
+				if (artifact == null || !artifact.modified.equals(attributes.lastModifiedTime()) || artifact.size != size)
+				{
+					byte[] key = null;
+					if (store != null)
+					{
+						var bytes = Files.readAllBytes(file);
+						//a size, that does not match the time, makes the next listing scan again.
+						size = bytes.length;
+						key = store.put(bytes, 0, bytes.length);
+					}
+					artifact = new Artifact(attributes.lastModifiedTime(), size, key);
+				}
+				artifacts.put(name, artifact);
+				names.add(name.getBytes(StandardCharsets.UTF_8));
+				sizes.add(size);
+			}
+		}
+	}
+	var json = new StringBuilder("[");
+	var binary_length = Wire.varintLength(names.size());
+	for (var index = 0; index < names.size(); index = index + 1)
+	{
+		var name = names.get(index);
+		if (index > 0)
+		{
+			json.append(',');
+		}
+		json.append("{\"name\":\"").append(new String(name, StandardCharsets.UTF_8)).append("\",\"size\":").append(sizes.get(index)).append('}');
+		binary_length = binary_length + Wire.varintLength(name.length) + name.length + Wire.varintLength(sizes.get(index));
+	}
+	var binary = ByteBuffer.allocate(binary_length);
+	Wire.putVarint(binary, names.size());
+	for (var index = 0; index < names.size(); index = index + 1)
+	{
+		Wire.putVarint(binary, names.get(index).length);
+		binary.put(names.get(index));
+		Wire.putVarint(binary, sizes.get(index));
+	}
+	return new Scan(listed, json.append(']').toString().getBytes(StandardCharsets.UTF_8), binary.array(), artifacts);
+}
+/**
+ * @return The artifact of the widget from the store, read-only, from its position to its limit.
+ *   null without a store, or if there is no such widget.
+ */
+ByteBuffer stored(String name)
+throws IOException
+{
+	if (store == null)
+	{
+		return null;
+	}
+	var artifact = current().artifacts.get(name);
+	return artifact == null ? null : store.get(artifact.key);
+}
+/**
+ * @return The artifact of the widget, or null if there is no such widget.
+ */
+Path artifact(String name)
+{
+	if (!isName(name))
+	{
+		return null;
+	}
+	var file = directory.resolve(name);
+	return Files.isRegularFile(file) ? file : null;
+}
+/**
+ * Widget names stay inside the directory and need no escaping, neither in a URL nor in JSON.
+ */
+private static boolean isName(String name)
+{
+	if (name.isEmpty() || name.charAt(0) == '.')
+	{
+		return false;
+	}
+	for (var index = 0; index < name.length(); index = index + 1)
+	{
+		var character = name.charAt(index);
+		if (!(character >= 'a' && character <= 'z' || character >= 'A' && character <= 'Z' || character >= '0' && character <= '9' || character == '.' || character == '-' || character == '_'))
+		{
+			return false;
+		}
+	}
+	return true;
+}
+}
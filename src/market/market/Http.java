@@ -0,0 +1,213 @@
+package market;
+import java.nio.charset.StandardCharsets;
+/**
+ * Just enough HTTP/1.1 for the market: finding the end of a request in raw bytes, reading its request line and the headers, that matter.
+ * Works on the bytes, as they came off the socket. Nothing is decoded, that is not needed.
+ * Shared by the {@link Server} and the {@link Load} generator, which parses responses the same way.
+ */
+final class Http
+{
+/** Requests with longer headers are refused. Nobody needs more to ask for a widget. */
+static final int MAX_HEADER = 16 * 1024;
+/** Bodies, like the thumbnails, that are put into the {@link Store}, are at most this long. */
+static final int MAX_BODY = 256 * 1024;
+private Http()
+{
+}
+/**
+ * What a request asks for.
+ */
+static final class Request
+{
+	final String method, path;
+	final boolean keep_alive;
+	Request(String method, String path, boolean keep_alive)
+	{
+		this.method = method;
+		this.path = path;
+		this.keep_alive = keep_alive;
+	}
+}
+/**
+ * @return The index after the empty line, that ends the headers starting at `from`. -1 if they are not complete yet.
+ */
+static int headerEnd(byte[] bytes, int from, int to)
+{
+	for (var index = from; index + 3 < to; index = index + 1)
+	{
+		if (bytes[index] == '\r' && bytes[index + 1] == '\n' && bytes[index + 2] == '\r' && bytes[index + 3] == '\n')
+		{
+			return index + 4;
+		}
+	}
+	return -1;
+}
+/**
+ * @return The index after the message (headers and body), that starts at `from`. -1 if it is not complete yet.
+ */
+static int messageEnd(byte[] bytes, int from, int to)
+{
+	var header_end = headerEnd(bytes, from, to);
+	if (header_end < 0)
+	{
+		return -1;
+	}
+	var end = header_end + contentLength(bytes, from, header_end);
+	return end <= to ? (int) end : -1;
+}
+/**
+ * @return The value of `Content-Length` of the message, whose headers are in `from` to `header_end`. 0 if there is none.
+ */
+static long contentLength(byte[] bytes, int from, int header_end)
+{
+	var value = header(bytes, from, header_end, "content-length");
+	if (value < 0)
+	{
+		return 0;
+	}
+	var length = 0L;
+	while (value < header_end && bytes[value] >= '0' && bytes[value] <= '9')
+	{
+		length = length * 10 + (bytes[value] - '0');
+		value = value + 1;
+	}
+	return length;
+}
+/**
+ * @param name Lower case.
+ * @return Where the value of the header starts, after the colon and the blanks. -1 if there is no such header.
+ */
+static int header(byte[] bytes, int from, int header_end, String name)
+{
+	//headers start after a line break. the first line is the request or status line.
+	for (var index = from; index < header_end; index = index + 1)
+	{
+		if (bytes[index] != '\n' || index + name.length() + 1 >= header_end)
+		{
+			continue;
+		}
+		var matches = bytes[index + name.length() + 1] == ':';
+		for (var character = 0; matches && character < name.length(); character = character + 1)
+		{
+			matches = Character.toLowerCase(bytes[index + 1 + character]) == name.charAt(character);
+		}
+		if (matches)
+		{
+			var value = index + name.length() + 2;
+			while (value < header_end && bytes[value] == ' ')
+			{
+				value = value + 1;
+			}
+			return value;
+		}
+	}
+	return -1;
+}
+/**
+ * @return Whether the header value at `value` starts with `token`, ignoring case.
+ */
+static boolean startsWith(byte[] bytes, int value, int header_end, String token)
+{
+	if (value < 0 || value + token.length() > header_end)
+	{
+		return false;
+	}
+	for (var character = 0; character < token.length(); character = character + 1)
+	{
+		if (Character.toLowerCase(bytes[value + character]) != token.charAt(character))
+		{
+			return false;
+		}
+	}
+	return true;
+}
+/**
+ * @param header_end As returned by {@link #headerEnd(byte[], int, int)}.
+ * @return The request, or null if its request line is malformed.
+ */
+static Request parse(byte[] bytes, int from, int header_end)
+{
+	var method_end = indexOf(bytes, from, header_end, (byte) ' ');
+	var path_end = method_end < 0 ? -1 : indexOf(bytes, method_end + 1, header_end, (byte) ' ');
+	var line_end = path_end < 0 ? -1 : indexOf(bytes, path_end + 1, header_end, (byte) '\r');
+	if (line_end < 0 || line_end - path_end - 1 != "HTTP/1.1".length() || !startsWith(bytes, path_end + 1, line_end, "http/1."))
+	{
+		return null;
+	}
+	var method = new String(bytes, from, method_end - from, StandardCharsets.US_ASCII);
+	var path = new String(bytes, method_end + 1, path_end - method_end - 1, StandardCharsets.US_ASCII);
+	var query = path.indexOf('?');
+	if (query >= 0)
+	{
+		path = path.substring(0, query);
+	}
+	var connection = header(bytes, from, header_end, "connection");
+	//HTTP/1.1 keeps the connection by default, HTTP/1.0 closes it.
+	var keep_alive = bytes[line_end - 1] == '1' ? !startsWith(bytes, connection, header_end, "close") : startsWith(bytes, connection, header_end, "keep-alive");
+	return new Request(method, path, keep_alive);
+}
+/**
+ * @return The status code of the response starting at `from`, -1 if the status line is malformed.
+ */
+static int status(byte[] bytes, int from, int header_end)
+{
+	var space = indexOf(bytes, from, header_end, (byte) ' ');
+	if (space < 0 || space + 4 > header_end)
+	{
+		return -1;
+	}
+	var status = 0;
+	for (var index = space + 1; index < space + 4; index = index + 1)
+	{
+		if (bytes[index] < '0' || bytes[index] > '9')
+		{
+			return -1;
+		}
+		status = status * 10 + (bytes[index] - '0');
+	}
+	return status;
+}
+private static int indexOf(byte[] bytes, int from, int to, byte value)
+{
+	for (var index = from; index < to; index = index + 1)
+	{
+		if (bytes[index] == value)
+		{
+			return index;
+		}
+	}
+	return -1;
+}
+/**
+ * @return The status line and the headers of a response, up to and including the empty line.
+ */
+static byte[] head(int status, String content_type, long content_length, boolean keep_alive)
+{
+	var head = new StringBuilder(128)
+		.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n")
+		.append("Content-Type: ").append(content_type).append("\r\n")
+		.append("Content-Length: ").append(content_length).append("\r\n");
+	if (!keep_alive)
+	{
+		head.append("Connection: close\r\n");
+	}
+	if (status == 405)
+	{
+		head.append("Allow: GET, HEAD\r\n");
+	}
+	return head.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+}
+private static String reason(int status)
+{
+	switch (status)
+	{
+		case 200: return "OK";
+		case 201: return "Created";
+		case 400: return "Bad Request";
+		case 404: return "Not Found";
+		case 405: return "Method Not Allowed";
+		case 431: return "Request Header Fields Too Large";
+		default: return "Internal Server Error";
+	}
+}
+}
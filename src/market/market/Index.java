@@ -0,0 +1,124 @@
+package market;
+import java.nio.ByteBuffer;
+/**
+ * Where the blobs of the {@link Store} are: the first 8 bytes of a key → the location of its record. Off the heap, in one direct buffer.
+ *
+ * Open addressing with linear probing over slots of 16 bytes: the key prefix, then the location plus 1 (0 marks an empty slot).
+ * With the table at most three quarters full, that is 21 to 43 bytes per blob, and no object per blob for the GC to trace. Millions of blobs cost tens of megabytes, outside the heap.
+ * Keys are SHA-256, so their prefixes are uniform and need no further hashing. Prefixes can collide, so a hit is only a candidate:
+ * the store compares the full key in the record.
+ * Not thread-safe. The store guards it with a read-write lock.
+ */
+final class Index
+{
+private static final int SLOT = 16;
+/** The table grows beyond this load. */
+private static final double LOAD = 0.75;
+/** A direct buffer holds less than 2 GiB. 1 GiB of slots are about 50 million blobs. */
+private static final int MAX_SLOTS = 1 << 26;
+private ByteBuffer table;
+private int mask;
+private int count;
+Index()
+{
+	allocate(1 << 16);
+}
+private void allocate(int slots)
+{
+	table = ByteBuffer.allocateDirect(slots * SLOT);
+	mask = slots - 1;
+}
+/**
+ * @return How many entries there are.
+ */
+int size()
+{
+	return count;
+}
+/**
+ * @return How many bytes the table takes, off the heap.
+ */
+long bytes()
+{
+	return table.capacity();
+}
+/**
+ * Adds an entry. Does not look for an entry with the same prefix: there may be several.
+ * @param location Not negative.
+ */
+void put(long prefix, long location)
+{
+	if (count + 1 > (mask + 1) * LOAD)
+	{
+		grow();
+	}
+	insert(prefix, location);
+	count = count + 1;
+}
+private void insert(long prefix, long location)
+{
+	var slot = (int) prefix & mask;
+	while (table.getLong(slot * SLOT + 8) != 0)
+	{
+		slot = (slot + 1) & mask;
+	}
+	table.putLong(slot * SLOT, prefix);
+	table.putLong(slot * SLOT + 8, location + 1);
+}
+private void grow()
+{
+	var slots = mask + 1;
+	if (slots >= MAX_SLOTS)
+	{
+		throw new IllegalStateException("The index is full at " + count + " blobs.");
+	}
+	var old = table;
+	allocate(2 * slots);
+	for (var slot = 0; slot < slots; slot = slot + 1)
+	{
+		var location = old.getLong(slot * SLOT + 8);
+		if (location != 0)
+		{
+			insert(old.getLong(slot * SLOT), location - 1);
+		}
+	}
+}
+/**
+ * The candidates for a prefix, one after the other: `for (var slot = index.first(prefix); slot >= 0; slot = index.next(prefix, slot))`.
+ * @return The first slot with the prefix, -1 if there is none.
+ */
+int first(long prefix)
+{
+	return find(prefix, (int) prefix & mask);
+}
+/**
+ * @return The next slot after `slot` with the prefix, -1 if there is none.
+ */
+int next(long prefix, int slot)
+{
+	return find(prefix, (slot + 1) & mask);
+}
+private int find(long prefix, int slot)
+{
+	while (true)
+	{
+		var location = table.getLong(slot * SLOT + 8);
+		if (location == 0)
+		{
+			return -1;
+		}
+		if (table.getLong(slot * SLOT) == prefix)
+		{
+			return slot;
+		}
+		slot = (slot + 1) & mask;
+	}
+}
+/**
+ * @return The location of the entry in `slot`.
+ */
+long location(int slot)
+{
+	return table.getLong(slot * SLOT + 8) - 1;
+}
+}
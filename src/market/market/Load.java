@@ -0,0 +1,447 @@
+package market;
+import static java.lang.System.out;
+import static java.lang.System.err;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+/**
+ * Proves, that the {@link Server} holds up: opens lots of connections, leaves them idle, asks the server how it copes,
+ * then sends two pipelined requests on every connection and checks every response. Optionally measures the throughput afterwards.
+ * One thread and one selector drive all connections, so the generator needs no more threads than the server.
+ *
+ * Prints lines, that `java build.java market` and `java build.java gc --workload market` parse:
+ * `CONNECTED <connections>`, `SERVER <name> <value>` (what `/status` says, while all connections are idle),
+ * `VERIFIED <connections>/<connections>` and `THROUGHPUT <requests per second>`.
+ * Exits with 1, if not every connection got its responses.
+ *
+ * Every connection needs a file descriptor on both ends, so `ulimit -n` has to allow for it.
+ * A client address runs out of ports after about 28000 connections to the same server. On loopback, the generator spreads
+ * its connections over `127.0.0.1`, `127.0.0.2`, and so on (which Linux routes, but not every OS does).
+ */
+final class Load
+{
+/** Connections, that are being established at the same time. More would only overflow the backlog of the server. */
+private static final int CONNECTING = 512;
+private static final int PORTS_PER_ADDRESS = 25_000;
+private static final long TIMEOUT_NANOS = 60_000_000_000L;
+/**
+ * One connection and the responses, that it still waits for.
+ */
+private static final class Client
+{
+	final SocketChannel channel;
+	SelectionKey key;
+	byte[] bytes;
+	int length;
+	int outstanding, ok, failed;
+	/** Whether the server closed the connection. Then it is out of the rotation for good. */
+	boolean closed;
+	/** What is left of the request, that is being sent. */
+	ByteBuffer sending;
+	Client(SocketChannel channel)
+	{
+		this.channel = channel;
+	}
+}
+private final InetSocketAddress address;
+private final Selector selector;
+private final byte[] request;
+private final ByteBuffer input = ByteBuffer.allocateDirect(64 * 1024);
+private final List<Client> clients = new ArrayList<>();
+private Load(InetSocketAddress address, String path)
+throws IOException
+{
+	this.address = address;
+	selector = Selector.open();
+	request = ("GET " + path + " HTTP/1.1\r\nHost: " + address.getHostString() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+}
+/**
+ * `--host <address>` (default 127.0.0.1),
+ * `--port <port>` (default 8080),
+ * `--connections <n>` (default 10000),
+ * `--idle <seconds>` to leave the connections idle (default 2),
+ * `--path <path>` to request (default `/widgets`),
+ * `--seconds <n>` to measure the throughput afterwards (default 0, do not),
+ * `--concurrency <connections>` to measure the throughput with (default 64).
+ * @param args See above.
+ */
+public static void main(String[] args)
+throws IOException, InterruptedException
+{
+	var host = "127.0.0.1";
+	var port = 8080;
+	var connections = 10_000;
+	var idle = 2;
+	var path = "/widgets";
+	var seconds = 0;
+	var concurrency = 64;
+	for (var index = 0; index < args.length; index = index + 1)
+	{
+		switch (args[index])
+		{
+			case "--host":
+				{
+					index = index + 1;
+					host = args[index];
+				}
+			break;
+			case "--port":
+				{
+					index = index + 1;
+					port = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--connections":
+				{
+					index = index + 1;
+					connections = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--idle":
+				{
+					index = index + 1;
+					idle = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--path":
+				{
+					index = index + 1;
+					path = args[index];
+				}
+			break;
+			case "--seconds":
+				{
+					index = index + 1;
+					seconds = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--concurrency":
+				{
+					index = index + 1;
+					concurrency = Integer.parseInt(args[index]);
+				}
+			break;
+			default:
+				{
+					err.println("Unknown argument '" + args[index] + "'.");
+					System.exit(2);
+				}
+		}
+	}
+	var load = new Load(new InetSocketAddress(host, port), path);
+	var start = System.nanoTime();
+	load.connect(connections);
+	out.println("CONNECTED " + load.clients.size() + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+	Thread.sleep(idle * 1000L);
+	for (var line : load.status())
+	{
+		out.println("SERVER " + line);
+	}
+	start = System.nanoTime();
+	var verified = load.verify();
+	out.println("VERIFIED " + verified + "/" + connections + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+	if (seconds > 0)
+	{
+		out.println("THROUGHPUT " + load.throughput(Math.min(concurrency, load.clients.size()), seconds));
+	}
+	out.flush();
+	for (var client : load.clients)
+	{
+		client.channel.close();
+	}
+	System.exit(verified == connections ? 0 : 1);
+}
+/**
+ * Opens the connections and leaves them idle. Stops early, if the OS runs out of file descriptors or ports.
+ */
+private void connect(int count)
+throws IOException
+{
+	var spread = address.getAddress().isLoopbackAddress() && address.getAddress() instanceof Inet4Address && count > PORTS_PER_ADDRESS;
+	var opened = 0;
+	var connecting = 0;
+	var deadline = System.nanoTime() + TIMEOUT_NANOS;
+	while ((opened < count || connecting > 0) && System.nanoTime() - deadline < 0)
+	{
+		while (opened < count && connecting < CONNECTING)
+		{
+			SocketChannel channel;
+			try
+			{
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				if (spread)
+				{
+					channel.bind(new InetSocketAddress(InetAddress.getByAddress(new byte[] {127, 0, 0, (byte) (1 + opened / PORTS_PER_ADDRESS)}), 0));
+				}
+			}
+			catch (IOException e)
+			{
+				err.println("Stopped at " + opened + " connections: " + e.getMessage() + ". Is `ulimit -n` high enough?");
+				count = opened;
+				break;
+			}
+			opened = opened + 1;
+			var client = new Client(channel);
+			if (channel.connect(address))
+			{
+				client.key = channel.register(selector, 0, client);
+				clients.add(client);
+			}
+			else
+			{
+				client.key = channel.register(selector, SelectionKey.OP_CONNECT, client);
+				connecting = connecting + 1;
+			}
+		}
+		selector.select(1000);
+		for (var key : selector.selectedKeys())
+		{
+			var client = (Client) key.attachment();
+			connecting = connecting - 1;
+			try
+			{
+				client.channel.finishConnect();
+				key.interestOps(0);
+				clients.add(client);
+			}
+			catch (IOException e)
+			{
+				err.println("Could not connect: " + e.getMessage());
+				client.channel.close();
+			}
+		}
+		selector.selectedKeys().clear();
+	}
+}
+/**
+ * Sends two pipelined requests on every connection.
+ * @return The number of connections, that got two successful responses.
+ */
+private int verify()
+throws IOException
+{
+	var waiting = 0;
+	for (var client : clients)
+	{
+		var requests = ByteBuffer.allocate(2 * request.length).put(request).put(request).flip();
+		//a few dozen bytes fit into any socket buffer. if they do not, the connection counts as failed.
+		if (client.channel.write(requests) == requests.limit())
+		{
+			client.outstanding = 2;
+			client.key.interestOps(SelectionKey.OP_READ);
+			waiting = waiting + 1;
+		}
+	}
+	var deadline = System.nanoTime() + TIMEOUT_NANOS;
+	while (waiting > 0 && System.nanoTime() - deadline < 0)
+	{
+		selector.select(1000);
+		for (var key : selector.selectedKeys())
+		{
+			var client = (Client) key.attachment();
+			receive(client);
+			if (client.outstanding == 0)
+			{
+				key.interestOps(0);
+				waiting = waiting - 1;
+			}
+		}
+		selector.selectedKeys().clear();
+	}
+	var verified = 0;
+	for (var client : clients)
+	{
+		if (client.ok == 2 && client.failed == 0)
+		{
+			verified = verified + 1;
+		}
+	}
+	return verified;
+}
+/**
+ * Keeps one request in flight on each of `concurrency` connections, that are still open.
+ * A connection, that the server closes meanwhile, leaves the rotation, so the rest goes on with fewer.
+ * @return Successful responses per second.
+ */
+private double throughput(int concurrency, int seconds)
+{
+	var rotation = new ArrayList<Client>();
+	for (var client : clients)
+	{
+		if (rotation.size() == concurrency)
+		{
+			break;
+		}
+		if (!client.closed)
+		{
+			client.ok = 0;
+			rotation.add(client);
+		}
+	}
+	var start = System.nanoTime();
+	var deadline = start + seconds * 1_000_000_000L;
+	var waiting = 0;
+	for (var client : rotation)
+	{
+		send(client);
+		if (!client.closed)
+		{
+			waiting = waiting + 1;
+		}
+	}
+	while (waiting > 0 && System.nanoTime() - deadline - TIMEOUT_NANOS < 0)
+	{
+		try
+		{
+			selector.select(1000);
+		}
+		catch (IOException e)
+		{
+			err.println("Could not select: " + e.getMessage());
+			break;
+		}
+		var now = System.nanoTime();
+		for (var key : selector.selectedKeys())
+		{
+			var client = (Client) key.attachment();
+			if (key.isWritable())
+			{
+				flush(client);
+			}
+			else
+			{
+				receive(client);
+			}
+			if (client.closed)
+			{
+				waiting = waiting - 1;
+			}
+			else if (client.outstanding == 0)
+			{
+				if (now - deadline < 0)
+				{
+					send(client);
+					if (client.closed)
+					{
+						waiting = waiting - 1;
+					}
+				}
+				else
+				{
+					key.interestOps(0);
+					waiting = waiting - 1;
+				}
+			}
+		}
+		selector.selectedKeys().clear();
+	}
+	var elapsed = System.nanoTime() - start;
+	var ok = 0L;
+	for (var client : rotation)
+	{
+		ok = ok + client.ok;
+	}
+	return ok * 1e9 / elapsed;
+}
+/**
+ * Sends a request, as far as the socket takes it. The rest goes, when the socket is writable again.
+ */
+private void send(Client client)
+{
+	client.sending = ByteBuffer.wrap(request);
+	client.outstanding = 1;
+	flush(client);
+}
+/**
+ * Writes what is left of the request, then waits for the response. Waits for the socket to become writable, if it does not take all of it.
+ */
+private void flush(Client client)
+{
+	try
+	{
+		client.channel.write(client.sending);
+	}
+	catch (IOException __)
+	{
+		close(client);
+		return;
+	}
+	client.key.interestOps(client.sending.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+}
+/**
+ * Takes a connection, that the server closed, out of the rotation. Its outstanding responses count as failed.
+ */
+private void close(Client client)
+{
+	client.failed = client.failed + client.outstanding;
+	client.outstanding = 0;
+	client.closed = true;
+	client.key.interestOps(0);
+}
+/**
+ * Reads what is there and counts the complete responses.
+ */
+private void receive(Client client)
+{
+	input.clear();
+	int count;
+	try
+	{
+		count = client.channel.read(input);
+	}
+	catch (IOException __)
+	{
+		//reset by the server.
+		count = -1;
+	}
+	if (count < 0)
+	{
+		close(client);
+		return;
+	}
+	input.flip();
+	if (client.bytes == null || client.length + count > client.bytes.length)
+	{
+		client.bytes = Arrays.copyOf(client.bytes == null ? new byte[0] : client.bytes, Math.max(client.length + count, 4096));
+	}
+	input.get(client.bytes, client.length, count);
+	client.length = client.length + count;
+	int end;
+	while (client.outstanding > 0 && (end = Http.messageEnd(client.bytes, 0, client.length)) >= 0)
+	{
+		if (Http.status(client.bytes, 0, end) == 200)
+		{
+			client.ok = client.ok + 1;
+		}
+		else
+		{
+			client.failed = client.failed + 1;
+		}
+		client.outstanding = client.outstanding - 1;
+		client.length = client.length - end;
+		System.arraycopy(client.bytes, end, client.bytes, 0, client.length);
+	}
+}
+/**
+ * @return The lines of `/status`, asked on a connection of its own.
+ */
+private List<String> status()
+throws IOException
+{
+	try (var channel = SocketChannel.open(address))
+	{
+		channel.write(ByteBuffer.wrap(("GET /status HTTP/1.1\r\nHost: " + address.getHostString() + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+		var response = Channels.newInputStream(channel).readAllBytes();
+		var header_end = Http.headerEnd(response, 0, response.length);
+		if (header_end < 0)
+		{
+			return List.of();
+		}
+		return List.of(new String(response, header_end, response.length - header_end, StandardCharsets.US_ASCII).split("\n"));
+	}
+}
+}
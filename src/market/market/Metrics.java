@@ -0,0 +1,192 @@
+package market;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import wire.Histogram;
+/**
+ * What the market is doing, pushed to whoever listens, like the market tile of the grid.
+ *
+ * Handlers record how long every request took into a lock-free {@link Histogram}, the one the grid measures its frames with:
+ * one `nanoTime` and a few atomic increments per request.
+ * Every interval (`-Dmarket.metrics.interval_ms=&lt;ms&gt;`, default 250), the metrics thread takes the difference to the previous interval,
+ * encodes it into one frame of {@link #SIZE} bytes and writes it to every subscriber of a Unix domain socket (`--metrics &lt;path&gt;`, default `bld/market.sock`).
+ * Nobody polls, nothing is parsed, the frame is encoded into the same direct buffer every time. A subscriber, that does not keep up, is dropped instead of slowing the server down.
+ * Every frame carries, how much of its interval the metrics thread spent on the previous one, in parts per million.
+ *
+ * GC counts and times need `java.management` (`--add-modules java.management`). Without it, they are -1.
+ *
+ * A frame is big-endian, with these fields at these offsets:
+ * <pre>
+ *  0 int  magic, {@link #MAGIC}
+ *  4 int  size of the frame in bytes. readers skip, what they do not know.
+ *  8 long wall clock time in milliseconds
+ * 16 int  open connections
+ * 20 int  requests per second, over the interval
+ * 24 long requests since the start
+ * 32 int  p50 of the latency of a request, over the interval, in microseconds
+ * 36 int  p99
+ * 40 int  max, exact, not a bucket bound
+ * 44 int  used heap in KiB
+ * 48 int  max heap in KiB
+ * 52 int  GC count since the start
+ * 56 int  GC time since the start, in milliseconds
+ * 60 int  cost of the metrics thread in parts per million of the interval
+ * </pre>
+ */
+final class Metrics
+{
+/** "MKT1". */
+static final int MAGIC = 0x4D4B5431;
+static final int SIZE = 64;
+private static final long INTERVAL_NANOS = Long.getLong("market.metrics.interval_ms", 250) * 1_000_000;
+private static final boolean MANAGEMENT = ModuleLayer.boot().findModule("java.management").isPresent();
+final AtomicInteger connections = new AtomicInteger();
+private final Histogram latencies = new Histogram();
+/** The latencies of the last interval. Only touched by the metrics thread. */
+private final Histogram interval_latencies = new Histogram();
+private long previous_requests, previous_nanos, cost_nanos;
+private final ByteBuffer frame = ByteBuffer.allocateDirect(SIZE);
+private final List<SocketChannel> subscribers = new ArrayList<>();
+/**
+ * Records, that a request was answered and took `nanos`.
+ */
+void record(long nanos)
+{
+	latencies.record(nanos);
+}
+/**
+ * @return How many requests were answered since the start.
+ */
+long requests()
+{
+	return latencies.count();
+}
+/**
+ * Publishes the metrics on a Unix domain socket at `socket`, from a thread of its own.
+ */
+void publish(Path socket)
+throws IOException
+{
+	Files.createDirectories(socket.toAbsolutePath().getParent());
+	//a socket file, that a previous market left behind, would fail the bind.
+	Files.deleteIfExists(socket);
+	var acceptor = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+	acceptor.bind(UnixDomainSocketAddress.of(socket));
+	acceptor.configureBlocking(false);
+	socket.toFile().deleteOnExit();
+	previous_nanos = System.nanoTime();
+	var thread = new Thread(() ->
+	{
+		while (true)
+		{
+			LockSupport.parkNanos(INTERVAL_NANOS);
+			var start = System.nanoTime();
+			try
+			{
+				SocketChannel subscriber;
+				while ((subscriber = acceptor.accept()) != null)
+				{
+					subscriber.configureBlocking(false);
+					subscribers.add(subscriber);
+				}
+			}
+			catch (IOException e)
+			{
+				System.err.println("Could not accept a subscriber to the metrics: " + e.getMessage());
+			}
+			encode(start);
+			for (var index = subscribers.size() - 1; index >= 0; index = index - 1)
+			{
+				frame.rewind();
+				var subscriber = subscribers.get(index);
+				try
+				{
+					subscriber.write(frame);
+				}
+				catch (IOException __)
+				{
+					frame.position(0);
+				}
+				if (frame.hasRemaining())
+				{
+					//gone, or too slow to take 64 bytes. either way, it would only hold the market back.
+					subscribers.remove(index);
+					try
+					{
+						subscriber.close();
+					}
+					catch (IOException __)
+					{
+						//it is gone anyway.
+					}
+				}
+			}
+			cost_nanos = System.nanoTime() - start;
+		}
+	}, "metrics");
+	thread.setDaemon(true);
+	thread.start();
+}
+/**
+ * Takes the difference to the previous frame and writes the next one into {@link #frame}.
+ */
+private void encode(long now)
+{
+	var interval = Math.max(1, now - previous_nanos);
+	var total_requests = latencies.count();
+	latencies.takeInterval(interval_latencies);
+	var p50 = interval_latencies.percentile(0.5);
+	var p99 = interval_latencies.percentile(0.99);
+	var max = interval_latencies.max();
+	var runtime = Runtime.getRuntime();
+	frame.clear();
+	frame.putInt(MAGIC)
+		.putInt(SIZE)
+		.putLong(System.currentTimeMillis())
+		.putInt(connections.get())
+		.putInt((int) ((total_requests - previous_requests) * 1_000_000_000L / interval))
+		.putLong(total_requests)
+		.putInt((int) Math.min(Integer.MAX_VALUE, p50 / 1000))
+		.putInt((int) Math.min(Integer.MAX_VALUE, p99 / 1000))
+		.putInt((int) Math.min(Integer.MAX_VALUE, max / 1000))
+		.putInt((int) ((runtime.totalMemory() - runtime.freeMemory()) >> 10))
+		.putInt((int) (runtime.maxMemory() >> 10))
+		.putInt(MANAGEMENT ? (int) Management.collections() : -1)
+		.putInt(MANAGEMENT ? (int) Management.collectionMillis() : -1)
+		.putInt((int) (cost_nanos * 1_000_000 / interval))
+		.flip();
+	assert frame.limit() == SIZE;
+	previous_requests = total_requests;
+	previous_nanos = now;
+}
+/**
+ * Touches `java.management`. Only loaded, if the module is there.
+ */
+private static final class Management
+{
+	private static final List<java.lang.management.GarbageCollectorMXBean> COLLECTORS = java.lang.management.ManagementFactory.getGarbageCollectorMXBeans();
+	static long collections()
+	{
+		var collections = 0L;
+		for (var index = 0; index < COLLECTORS.size(); index = index + 1)
+		{
+			collections = collections + Math.max(0, COLLECTORS.get(index).getCollectionCount());
+		}
+		return collections;
+	}
+	static long collectionMillis()
+	{
+		var millis = 0L;
+		for (var index = 0; index < COLLECTORS.size(); index = index + 1)
+		{
+			millis = millis + Math.max(0, COLLECTORS.get(index).getCollectionTime());
+		}
+		return millis;
+	}
+}
+}
@@ -0,0 +1,856 @@
+package market;
+import static java.lang.System.out;
+import static java.lang.System.err;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import wire.*;
+/**
+ * The widget market: serves the listing of all widgets (`GET /widgets`) and their artifacts (`GET /widgets/<name>`) over HTTP/1.1.
+ * `GET /status` tells, how the server is doing.
+ * With `-Dmarket.store=<dir>`, it also keeps blobs, like thumbnails, in a {@link Store}: `PUT /blobs` stores the body and answers
+ * its key, `GET /blobs/<key>` answers the blob, straight from the mapped segment.
+ *
+ * One thread, the selector thread, accepts connections and reads from them. It does nothing else.
+ * An idle connection costs a socket, a selection key and a small {@link Connection}. There is no buffer per connection, until a request arrives.
+ * That is how tens of thousands of idle connections fit into a small heap.
+ * Once a connection has a complete request, the selector stops reading from it and hands it to a handler thread.
+ * The handler answers every complete request (pipelining), in order, batching the responses into as few writes as possible.
+ * Artifacts go from the page cache to the socket with `FileChannel.transferTo`, or with a {@link Store} from its mapped segments, without ever being copied into the heap.
+ * Then the connection goes back to the selector (keep-alive).
+ *
+ * The same port speaks the binary {@link Wire} protocol, for clients like the grid, that ask often and want small answers.
+ * The first byte of a connection tells the protocols apart. Frames are answered like HTTP requests, in batches, in order,
+ * but encoded into a pooled direct buffer, that the socket takes without another copy.
+ *
+ * Handlers run on virtual threads, if the JDK has them (JDK 21). A handler, that waits for a slow client, then costs a parked virtual thread.
+ * Older JDKs get a fixed pool of platform threads instead, which a few slow clients can drain for up to {@link #WRITE_TIMEOUT_NANOS}.
+ */
+final class Server
+{
+/** The read buffer of the selector thread, shared by all connections. */
+private static final int READ_BUFFER = 64 * 1024;
+/** The size of the buffers, that {@link Wire} responses are encoded into. */
+private static final int WRITE_BUFFER = 64 * 1024;
+private static final byte[] EMPTY = new byte[0];
+/** How long to stop accepting, when the OS refuses to accept more connections. */
+private static final long ACCEPT_PAUSE_MILLIS = 100;
+/** A client, that does not read its response for this long, is dropped. */
+private static final long WRITE_TIMEOUT_NANOS = 30_000_000_000L;
+private final Selector selector;
+private final ServerSocketChannel acceptor;
+private final Catalog catalog;
+/** null without `-Dmarket.store`. */
+private final Store store;
+private final ExecutorService handlers;
+/** "virtual" or "platform". */
+private final String handler_threads;
+/** Work for the selector thread, like resuming a connection. Interest ops are only ever changed on the selector thread. */
+private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+private final ByteBuffer input = ByteBuffer.allocateDirect(READ_BUFFER);
+private final Metrics metrics = new Metrics();
+/** One per handler, that answers {@link Wire} frames. */
+private final BufferPool buffers = new BufferPool(WRITE_BUFFER, 64);
+private SelectionKey accepting;
+/** When accepting resumes, after the OS ran out of file descriptors. 0 while accepting. */
+private long accept_paused_until;
+Server(InetSocketAddress address, int backlog, Catalog catalog, Store store)
+throws IOException
+{
+	this.catalog = catalog;
+	this.store = store;
+	var virtual = virtualThreads();
+	handlers = virtual != null ? virtual : platformThreads();
+	handler_threads = virtual != null ? "virtual" : "platform";
+	selector = Selector.open();
+	acceptor = ServerSocketChannel.open();
+	acceptor.bind(address, backlog);
+	acceptor.configureBlocking(false);
+	accepting = acceptor.register(selector, SelectionKey.OP_ACCEPT);
+}
+/**
+ * `--host <address>` (default all of them),
+ * `--port <port>` (default 8080, 0 picks a free one),
+ * `--backlog <connections>` (default 4096, the OS may cap it),
+ * `--metrics <path>` of the Unix domain socket, that {@link Metrics} are pushed to (default `bld/market.sock`, `none` for none).
+ * The artifacts are in `-Dmarket.artifacts=<dir>` (default `widgets`), the blobs in `-Dmarket.store=<dir>` (default none).
+ * Prints `LISTENING <port>`, once it accepts connections.
+ * With `-Dmarket.probe=true` (see `java build.java gc --workload market`), the server prints `REQUESTS <count>` and exits, when stdin is closed.
+ * @param args See above.
+ */
+public static void main(String[] args)
+throws IOException
+{
+	String host = null;
+	var port = 8080;
+	var backlog = 4096;
+	var metrics = "bld/market.sock";
+	for (var index = 0; index < args.length; index = index + 1)
+	{
+		switch (args[index])
+		{
+			case "--host":
+				{
+					index = index + 1;
+					host = args[index];
+				}
+			break;
+			case "--port":
+				{
+					index = index + 1;
+					port = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--metrics":
+				{
+					index = index + 1;
+					metrics = args[index];
+				}
+			break;
+			case "--backlog":
+				{
+					index = index + 1;
+					backlog = Integer.parseInt(args[index]);
+				}
+			break;
+			default:
+				{
+					err.println("Unknown argument '" + args[index] + "'.");
+					System.exit(2);
+				}
+		}
+	}
+	var store_directory = System.getProperty("market.store");
+	var store = store_directory == null ? null : Store.open(Paths.get(store_directory));
+	var server = new Server(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port), backlog, Catalog.create(store), store);
+	out.println("LISTENING " + ((InetSocketAddress) server.acceptor.getLocalAddress()).getPort());
+	out.println("HANDLERS " + server.handler_threads);
+	out.flush();
+	if (Boolean.getBoolean("market.probe"))
+	{
+		var probe = new Thread(() ->
+		{
+			try
+			{
+				System.in.transferTo(OutputStream.nullOutputStream());
+			}
+			catch (IOException __)
+			{
+				//closed is closed.
+			}
+			out.println("REQUESTS " + server.metrics.requests());
+			out.flush();
+			System.exit(0);
+		}, "probe");
+		probe.setDaemon(true);
+		probe.start();
+	}
+	if (!metrics.equals("none"))
+	{
+		server.metrics.publish(Paths.get(metrics));
+	}
+	server.serve();
+}
+/**
+ * The selector loop. Never returns.
+ */
+void serve()
+throws IOException
+{
+	while (true)
+	{
+		selector.select(key ->
+		{
+			try
+			{
+				if (key.isAcceptable())
+				{
+					accept();
+				}
+				else if (key.isReadable())
+				{
+					((Connection) key.attachment()).read();
+				}
+				else if (key.isWritable())
+				{
+					((Connection) key.attachment()).writable();
+				}
+			}
+			catch (CancelledKeyException __)
+			{
+				//the handler closed the connection in the meantime.
+			}
+		}, accept_paused_until == 0 ? 0 : ACCEPT_PAUSE_MILLIS);
+		Runnable task;
+		while ((task = tasks.poll()) != null)
+		{
+			task.run();
+		}
+		if (accept_paused_until != 0 && System.nanoTime() - accept_paused_until >= 0)
+		{
+			accept_paused_until = 0;
+			accepting.interestOps(SelectionKey.OP_ACCEPT);
+		}
+	}
+}
+private void accept()
+{
+	while (true)
+	{
+		try
+		{
+			var channel = acceptor.accept();
+			if (channel == null)
+			{
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			var connection = new Connection(this, channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+			metrics.connections.incrementAndGet();
+		}
+		catch (IOException e)
+		{
+			//most likely out of file descriptors. the connection stays in the backlog. retrying right away would only spin the selector.
+			err.println("Could not accept a connection: " + e.getMessage() + ". Pausing for " + ACCEPT_PAUSE_MILLIS + " ms.");
+			accepting.interestOps(0);
+			accept_paused_until = System.nanoTime() + ACCEPT_PAUSE_MILLIS * 1_000_000;
+			return;
+		}
+	}
+}
+/**
+ * Runs `task` on the selector thread.
+ */
+void later(Runnable task)
+{
+	tasks.add(task);
+	selector.wakeup();
+}
+/**
+ * @return An executor, that starts a virtual thread per task, or null if this JDK has no virtual threads.
+ */
+private static ExecutorService virtualThreads()
+{
+	try
+	{
+		//JDK 21 API, looked up by name so that the market still compiles and runs on JDK 17.
+		return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+	}
+	catch (ReflectiveOperationException __)
+	{
+		//not there, or a preview feature, that is not enabled.
+		return null;
+	}
+}
+private static ExecutorService platformThreads()
+{
+	return Executors.newFixedThreadPool(Math.max(8, 4 * Runtime.getRuntime().availableProcessors()), handler ->
+	{
+		var thread = new Thread(handler, "handler");
+		thread.setDaemon(true);
+		return thread;
+	});
+}
+/**
+ * One client. Belongs to the selector thread, while it waits for a request, and to a handler, while its requests are answered.
+ */
+static final class Connection
+implements Runnable
+{
+	private final Server server;
+	private final SocketChannel channel;
+	private SelectionKey key;
+	/** What was read, but not answered yet. null while there is nothing, so that idle connections own no buffer. */
+	private byte[] pending;
+	private int length;
+	/** Whether the first bytes were looked at, and {@link #wire} is known. */
+	private boolean negotiated;
+	/** Whether the client speaks {@link Wire} rather than HTTP. */
+	private boolean wire;
+	/** The handler, that waits for the socket to become writable. */
+	private volatile Thread writer;
+	Connection(Server server, SocketChannel channel)
+	{
+		this.server = server;
+		this.channel = channel;
+	}
+	/**
+	 * Called by the selector thread, when there is something to read.
+	 */
+	void read()
+	{
+		var input = server.input;
+		input.clear();
+		int count;
+		try
+		{
+			count = channel.read(input);
+		}
+		catch (IOException __)
+		{
+			count = -1;
+		}
+		if (count < 0)
+		{
+			close();
+			return;
+		}
+		input.flip();
+		if (pending == null)
+		{
+			pending = new byte[Math.max(512, count)];
+		}
+		else if (length + count > pending.length)
+		{
+			pending = Arrays.copyOf(pending, Math.max(length + count, 2 * pending.length));
+		}
+		input.get(pending, length, count);
+		length = length + count;
+		if (length == 0 || !negotiated && !negotiate())
+		{
+			return;
+		}
+		boolean complete;
+		try
+		{
+			complete = wire ? frameEnd(pending, 0, length) >= 0 : Http.messageEnd(pending, 0, length) >= 0;
+		}
+		catch (IllegalArgumentException __)
+		{
+			close();
+			return;
+		}
+		if (complete)
+		{
+			//no more reading, until the handler is done. the requests, that arrive meanwhile, wait in the socket.
+			key.interestOps(0);
+			server.handlers.execute(this);
+		}
+		else if (length > Http.MAX_HEADER && Http.headerEnd(pending, 0, length) < 0 || length > Http.MAX_HEADER + Http.MAX_BODY)
+		{
+			close();
+		}
+	}
+	/**
+	 * Tells the protocols apart: 0 starts the {@link Wire} preface, and no HTTP request. Drops the preface.
+	 * @return false, if the preface is not complete yet, or wrong. The connection is closed then.
+	 */
+	private boolean negotiate()
+	{
+		wire = pending[0] == 0;
+		if (!wire)
+		{
+			negotiated = true;
+			return true;
+		}
+		if (!Wire.startsPreface(pending, 0, length))
+		{
+			close();
+			return false;
+		}
+		if (length < Wire.PREFACE_LENGTH)
+		{
+			return false;
+		}
+		length = length - Wire.PREFACE_LENGTH;
+		System.arraycopy(pending, Wire.PREFACE_LENGTH, pending, 0, length);
+		negotiated = true;
+		return true;
+	}
+	/**
+	 * @return The index after the frame, that starts at `from`. -1 if it is not complete yet.
+	 * @throws IllegalArgumentException if it is no frame, or longer than any request needs to be.
+	 */
+	private static int frameEnd(byte[] bytes, int from, int to)
+	{
+		var buffer = ByteBuffer.wrap(bytes, from, to - from);
+		var length = Wire.getVarint(buffer);
+		if (length == Wire.INCOMPLETE)
+		{
+			return -1;
+		}
+		if (length > Http.MAX_HEADER)
+		{
+			throw new IllegalArgumentException("A request of " + length + " bytes.");
+		}
+		var end = buffer.position() + (int) length;
+		return end <= to ? end : -1;
+	}
+	/**
+	 * Called by the selector thread, when the socket, that a handler waits for, became writable.
+	 */
+	void writable()
+	{
+		key.interestOps(0);
+		wake();
+	}
+	/**
+	 * Answers every complete request. Runs on a handler thread.
+	 */
+	@Override public void run()
+	{
+		try
+		{
+			if (wire)
+			{
+				answerFrames();
+			}
+			else
+			{
+				answerRequests();
+			}
+		}
+		catch (IOException | IllegalArgumentException __)
+		{
+			close();
+		}
+	}
+	private void answerRequests()
+	throws IOException
+	{
+		var output = new Output();
+		var offset = 0;
+		var keep_alive = true;
+		int end;
+		while (keep_alive && (end = Http.messageEnd(pending, offset, length)) >= 0)
+		{
+			//from the parse of the request to its answer, not from the read of the batch, that it came with.
+			var start = System.nanoTime();
+			var header_end = Http.headerEnd(pending, offset, end);
+			var request = Http.parse(pending, offset, header_end);
+			offset = end;
+			keep_alive = request != null && request.keep_alive;
+			serve(request, keep_alive, output, header_end, end);
+			server.metrics.record(System.nanoTime() - start);
+		}
+		flush(output);
+		if (!keep_alive)
+		{
+			close();
+			return;
+		}
+		next(offset);
+	}
+	private void answerFrames()
+	throws IOException
+	{
+		var output = server.buffers.acquire();
+		try
+		{
+			var input = ByteBuffer.wrap(pending, 0, length);
+			var frame = new Frame();
+			var offset = 0;
+			var start = System.nanoTime();
+			while (frame.decode(input) && input.remaining() >= frame.payloadLength())
+			{
+				//like HTTP: from the decode of the frame to its answer. the answer to the frame before is where the decode started.
+				serve(frame, input, output);
+				var now = System.nanoTime();
+				server.metrics.record(now - start);
+				start = now;
+				offset = input.position();
+			}
+			write(output.flip());
+			next(offset);
+		}
+		finally
+		{
+			server.buffers.release(output);
+		}
+	}
+	/**
+	 * Keeps what was read after `offset`, the start of the next request, and gives the connection back to the selector.
+	 */
+	private void next(int offset)
+	{
+		length = length - offset;
+		if (length == 0)
+		{
+			pending = null;
+		}
+		else
+		{
+			System.arraycopy(pending, offset, pending, 0, length);
+		}
+		server.later(this::resume);
+	}
+	/**
+	 * Answers the request, whose body is in `body_from` to `body_to` of the pending bytes.
+	 */
+	private void serve(Http.Request request, boolean keep_alive, Output output, int body_from, int body_to)
+	throws IOException
+	{
+		if (request == null)
+		{
+			respond(output, 400, "text/plain", new byte[0], keep_alive, true);
+			return;
+		}
+		if (request.path.equals("/blobs") || request.path.startsWith("/blobs/"))
+		{
+			serveBlob(request, keep_alive, output, body_from, body_to);
+			return;
+		}
+		var body = !request.method.equals("HEAD");
+		if (body && !request.method.equals("GET"))
+		{
+			respond(output, 405, "text/plain", new byte[0], keep_alive, true);
+			return;
+		}
+		if (request.path.equals("/widgets"))
+		{
+			respond(output, 200, "application/json", server.catalog.listing(), keep_alive, body);
+			return;
+		}
+		if (request.path.equals("/status"))
+		{
+			respond(output, 200, "text/plain", server.status(), keep_alive, body);
+			return;
+		}
+		var name = request.path.startsWith("/widgets/") ? request.path.substring("/widgets/".length()) : null;
+		var stored = name == null ? null : server.catalog.stored(name);
+		if (stored != null)
+		{
+			var head = Http.head(200, "application/octet-stream", stored.remaining(), keep_alive);
+			output.write(head, 0, head.length);
+			if (body)
+			{
+				flush(output);
+				write(stored);
+			}
+			return;
+		}
+		var artifact = name == null ? null : server.catalog.artifact(name);
+		if (artifact == null)
+		{
+			respond(output, 404, "text/plain", new byte[0], keep_alive, true);
+			return;
+		}
+		try (var file = FileChannel.open(artifact))
+		{
+			var size = file.size();
+			var head = Http.head(200, "application/octet-stream", size, keep_alive);
+			output.write(head, 0, head.length);
+			if (body)
+			{
+				flush(output);
+				transfer(file, size);
+			}
+		}
+	}
+	private void serveBlob(Http.Request request, boolean keep_alive, Output output, int body_from, int body_to)
+	throws IOException
+	{
+		var store = server.store;
+		if (store == null)
+		{
+			respond(output, 404, "text/plain", new byte[0], keep_alive, true);
+			return;
+		}
+		if (request.method.equals("PUT") && request.path.equals("/blobs"))
+		{
+			//waits for the group commit, on a lock, not a monitor. a virtual thread parks without its carrier.
+			var key = store.put(pending, body_from, body_to - body_from);
+			respond(output, 201, "text/plain", Store.hex(key).getBytes(StandardCharsets.US_ASCII), keep_alive, true);
+			return;
+		}
+		var body = !request.method.equals("HEAD");
+		if (body && !request.method.equals("GET"))
+		{
+			respond(output, 405, "text/plain", new byte[0], keep_alive, true);
+			return;
+		}
+		var key = request.path.startsWith("/blobs/") ? Store.key(request.path.substring("/blobs/".length())) : null;
+		var blob = key == null ? null : store.get(key);
+		if (blob == null)
+		{
+			respond(output, 404, "text/plain", new byte[0], keep_alive, true);
+			return;
+		}
+		var head = Http.head(200, "application/octet-stream", blob.remaining(), keep_alive);
+		output.write(head, 0, head.length);
+		if (body)
+		{
+			flush(output);
+			write(blob);
+		}
+	}
+	/**
+	 * Answers the frame, whose payload is at the position of `input`, and moves past it.
+	 */
+	private void serve(Frame request, ByteBuffer input, ByteBuffer output)
+	throws IOException
+	{
+		var payload = input.position();
+		input.position(payload + request.payloadLength());
+		var stream = request.stream();
+		switch (request.code())
+		{
+			case Wire.LIST:
+				{
+					respond(output, stream, Wire.OK, server.catalog.binaryListing());
+				}
+			break;
+			case Wire.STATUS:
+				{
+					respond(output, stream, Wire.OK, server.status());
+				}
+			break;
+			case Wire.ARTIFACT:
+				{
+					var name = new String(pending, payload, request.payloadLength(), StandardCharsets.UTF_8);
+					var stored = server.catalog.stored(name);
+					if (stored != null)
+					{
+						respond(output, stream, stored);
+						return;
+					}
+					var artifact = server.catalog.artifact(name);
+					if (artifact == null)
+					{
+						respond(output, stream, Wire.NOT_FOUND, EMPTY);
+						return;
+					}
+					try (var file = FileChannel.open(artifact))
+					{
+						var size = file.size();
+						if (Frame.headerLength(stream, Wire.OK, size) > output.remaining())
+						{
+							write(output.flip());
+							output.clear();
+						}
+						Frame.encode(output, stream, Wire.OK, size);
+						write(output.flip());
+						output.clear();
+						transfer(file, size);
+					}
+				}
+			break;
+			case Wire.BLOB:
+				{
+					var store = server.store;
+					var blob = store == null || request.payloadLength() != Store.KEY ? null : store.get(Arrays.copyOfRange(pending, payload, payload + Store.KEY));
+					if (blob == null)
+					{
+						respond(output, stream, Wire.NOT_FOUND, EMPTY);
+						return;
+					}
+					respond(output, stream, blob);
+				}
+			break;
+			default:
+				{
+					respond(output, stream, Wire.BAD_REQUEST, EMPTY);
+				}
+		}
+	}
+	/**
+	 * Answers a blob from the {@link Store}. Small ones, like thumbnails, are copied from the mapping into the batch,
+	 * so that a round of them goes out in one write. Larger ones go from the mapping straight to the socket.
+	 */
+	private void respond(ByteBuffer output, long stream, ByteBuffer blob)
+	throws IOException
+	{
+		if (Frame.headerLength(stream, Wire.OK, blob.remaining()) + blob.remaining() > output.remaining())
+		{
+			write(output.flip());
+			output.clear();
+		}
+		Frame.encode(output, stream, Wire.OK, blob.remaining());
+		if (blob.remaining() <= output.remaining())
+		{
+			output.put(blob);
+		}
+		else
+		{
+			write(output.flip());
+			output.clear();
+			write(blob);
+		}
+	}
+	/**
+	 * Appends a frame to the batch in `output`, writing the batch first, if the frame does not fit.
+	 */
+	private void respond(ByteBuffer output, long stream, int status, byte[] payload)
+	throws IOException
+	{
+		if (Frame.headerLength(stream, status, payload.length) + payload.length > output.remaining())
+		{
+			write(output.flip());
+			output.clear();
+		}
+		Frame.encode(output, stream, status, payload.length);
+		var offset = 0;
+		while (true)
+		{
+			//payloads larger than the buffer go out in pieces.
+			var chunk = Math.min(output.remaining(), payload.length - offset);
+			output.put(payload, offset, chunk);
+			offset = offset + chunk;
+			if (offset == payload.length)
+			{
+				return;
+			}
+			write(output.flip());
+			output.clear();
+		}
+	}
+	private static void respond(Output output, int status, String content_type, byte[] body, boolean keep_alive, boolean include_body)
+	{
+		var head = Http.head(status, content_type, body.length, keep_alive);
+		output.write(head, 0, head.length);
+		if (include_body)
+		{
+			output.write(body, 0, body.length);
+		}
+	}
+	/**
+	 * Writes the batched responses.
+	 */
+	private void flush(Output output)
+	throws IOException
+	{
+		write(output.buffer());
+		output.reset();
+	}
+	/**
+	 * Writes all of `buffer`, waiting for a slow client as long as {@link Server#WRITE_TIMEOUT_NANOS}.
+	 */
+	private void write(ByteBuffer buffer)
+	throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.write(buffer) == 0)
+			{
+				awaitWritable();
+			}
+		}
+	}
+	/**
+	 * Sends the file with `sendfile` or whatever the OS offers: from the page cache straight into the socket.
+	 */
+	private void transfer(FileChannel file, long size)
+	throws IOException
+	{
+		var position = 0L;
+		while (position < size)
+		{
+			var sent = file.transferTo(position, size - position, channel);
+			if (sent == 0)
+			{
+				if (file.size() < size)
+				{
+					throw new IOException("The artifact shrank while it was sent.");
+				}
+				awaitWritable();
+			}
+			position = position + sent;
+		}
+	}
+	/**
+	 * Parks the handler, until the selector thread sees the socket writable again.
+	 */
+	private void awaitWritable()
+	throws IOException
+	{
+		writer = Thread.currentThread();
+		server.later(() ->
+		{
+			if (key.isValid())
+			{
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+			else
+			{
+				wake();
+			}
+		});
+		var deadline = System.nanoTime() + WRITE_TIMEOUT_NANOS;
+		while (writer != null)
+		{
+			var remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+			{
+				throw new IOException("The client does not read.");
+			}
+			LockSupport.parkNanos(this, remaining);
+		}
+	}
+	private void wake()
+	{
+		var thread = writer;
+		writer = null;
+		if (thread != null)
+		{
+			LockSupport.unpark(thread);
+		}
+	}
+	/**
+	 * Runs on the selector thread, once the handler is done.
+	 */
+	private void resume()
+	{
+		if (!key.isValid())
+		{
+			return;
+		}
+		key.interestOps(SelectionKey.OP_READ);
+	}
+	/**
+	 * Either the selector thread or the handler owns the connection at any time, never both. So it is only closed once.
+	 */
+	private void close()
+	{
+		if (!channel.isOpen())
+		{
+			return;
+		}
+		try
+		{
+			channel.close();
+		}
+		catch (IOException __)
+		{
+			//nothing left to save.
+		}
+		server.metrics.connections.decrementAndGet();
+	}
+}
+/**
+ * The responses of one batch of pipelined requests, written at once.
+ */
+private static final class Output
+extends ByteArrayOutputStream
+{
+	Output()
+	{
+		super(1024);
+	}
+	ByteBuffer buffer()
+	{
+		return ByteBuffer.wrap(buf, 0, count);
+	}
+}
+/**
+ * @return One `<name> <value>` per line.
+ */
+private byte[] status()
+{
+	var runtime = Runtime.getRuntime();
+	return ("connections " + metrics.connections.get() + "\n"
+		+ "requests " + metrics.requests() + "\n"
+		+ "handlers " + handler_threads + "\n"
+		+ "heap_used " + (runtime.totalMemory() - runtime.freeMemory()) + "\n"
+		+ "heap_max " + runtime.maxMemory() + "\n"
+		+ (store == null ? "" : store.status())).getBytes(StandardCharsets.US_ASCII);
+}
+}
@@ -0,0 +1,724 @@
+package market;
+import static java.lang.System.out;
+import static java.lang.System.err;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32C;
+/**
+ * Content-addressed blobs, like widget jars and their thumbnails. The key of a blob is the SHA-256 of its bytes, so a blob is stored once,
+ * however often it is put.
+ *
+ * Blobs are appended to segment files (`&lt;directory&gt;/00000000.seg` and so on, up to `-Dmarket.store.segment_mb` each, default 256),
+ * and never changed. Millions of thumbnails are a few files: no inode, no open and no close per blob. Every record is, big-endian:
+ * <pre>
+ *  0 int      magic "BLB1"
+ *  4 int      length of the blob
+ *  8 byte[32] SHA-256 of the blob
+ * 40 int      CRC32C of the blob
+ * 44          the blob
+ * </pre>
+ * The {@link Index} maps keys to records, off the heap. It is not saved anywhere: opening the store scans the segments and rebuilds it.
+ * A segment file has its full size from the start, sparse: the free end of a segment reads as zeros, and is where recovery stops.
+ * The first record of a segment, that does not check out, is where a crash cut the segment short. The segment is cleared from there.
+ *
+ * Reads go through a read-only mapping of the segment, that is mapped once, for the whole segment. {@link #get(byte[])} hands out a slice of it, that the server writes to the socket
+ * straight from the page cache, without a copy into the heap.
+ * Writes are group commits: {@link #put(byte[], int, int)} appends its record and waits, while the committer thread forces everything,
+ * that was appended since its last force, at once. A thousand concurrent puts cost a few `fsync`, not a thousand.
+ * A blob is visible, once it is durable.
+ */
+final class Store
+implements Closeable
+{
+/** "BLB1" */
+private static final int MAGIC = 0x424C4231;
+private static final int HEADER = 44;
+/** The length of a key in bytes. */
+static final int KEY = 32;
+/** A location is the number of the segment and the offset of the record in it. */
+private static final int OFFSET_BITS = 40;
+/** A segment is mapped as a whole, and a mapping can not be larger than 2 GiB. */
+private static final long SEGMENT_BYTES = Math.min(Long.getLong("market.store.segment_mb", 256), 1024) << 20;
+private final Path directory;
+private final Index index = new Index();
+/** Readers look up in parallel. The committer adds entries, and the index may grow meanwhile. */
+private final ReentrantReadWriteLock indexing = new ReentrantReadWriteLock();
+/** By number. Replaced as a whole, when a segment is added. */
+private volatile Segment[] segments = new Segment[0];
+/**
+ * Guards everything below. Writers append under it and wait for {@link #committed}, the committer waits for {@link #work}.
+ * A lock, not a monitor: a virtual thread, that waits on a monitor, pins its carrier for the whole `fsync` (JDK 21).
+ */
+private final ReentrantLock lock = new ReentrantLock();
+private final Condition work = lock.newCondition(), committed = lock.newCondition();
+private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+private final ByteBuffer[] record = new ByteBuffer[2];
+/** The entries of the records, that wait for the next commit. Swapped with {@link #committing} by the committer. */
+private Pending pending = new Pending(), committing = new Pending();
+/** The segments, that were appended to since the last commit. */
+private final List<Segment> dirty = new ArrayList<>();
+/** How many records were appended, how many of them are durable. */
+private long appended, durable;
+private long commits;
+/** Once writing failed, the store only reads. */
+private IOException failure;
+private boolean closed;
+private Thread committer;
+private long recovery_nanos;
+private Store(Path directory)
+{
+	this.directory = directory;
+}
+/**
+ * Opens the store in `directory`, creating it if needed, and rebuilds the index from the segments.
+ */
+static Store open(Path directory)
+throws IOException
+{
+	Files.createDirectories(directory);
+	var store = new Store(directory);
+	store.recover();
+	store.committer = new Thread(store::commit, "store-commit");
+	store.committer.setDaemon(true);
+	store.committer.start();
+	return store;
+}
+/**
+ * Scans every segment, record by record, into the index. Cuts a segment at its first broken record.
+ */
+private void recover()
+throws IOException
+{
+	var start = System.nanoTime();
+	var numbers = new ArrayList<Integer>();
+	try (var files = Files.newDirectoryStream(directory, "*.seg"))
+	{
+		for (var file : files)
+		{
+			var name = file.getFileName().toString();
+			numbers.add(Integer.parseInt(name.substring(0, name.length() - ".seg".length())));
+		}
+	}
+	catch (NumberFormatException e)
+	{
+		throw new IOException("Not a segment in " + directory + ": " + e.getMessage());
+	}
+	Collections.sort(numbers);
+	var recovered = new Segment[Math.max(1, numbers.size())];
+	for (var number = 0; number < numbers.size(); number = number + 1)
+	{
+		if (numbers.get(number) != number)
+		{
+			throw new IOException("Segment " + number + " is missing in " + directory + ".");
+		}
+		var segment = new Segment(number, directory);
+		var size = segment.channel.size();
+		var map = segment.map(size);
+		var crc = new CRC32C();
+		var position = 0;
+		while (position + HEADER <= size)
+		{
+			var length = map.getInt(position + 4);
+			if (map.getInt(position) != MAGIC || length < 0 || position + HEADER + (long) length > size)
+			{
+				break;
+			}
+			crc.reset();
+			crc.update(map.slice(position + HEADER, length));
+			if ((int) crc.getValue() != map.getInt(position + 40))
+			{
+				break;
+			}
+			index.put(map.getLong(position + 8), location(number, position));
+			position = position + HEADER + length;
+		}
+		if (position + 4 <= size && map.getInt(position) != 0)
+		{
+			err.println("Segment " + number + " ends with a broken record at " + position + " of " + size + " bytes, from a crash while writing. Clearing it from there.");
+			segment.channel.truncate(position);
+			segment.reserve();
+		}
+		segment.end = position;
+		segment.channel.position(position);
+		recovered[number] = segment;
+	}
+	if (numbers.isEmpty())
+	{
+		recovered[0] = new Segment(0, directory);
+	}
+	segments = recovered;
+	recovery_nanos = System.nanoTime() - start;
+}
+/**
+ * @return The key as 64 lower-case hex digits, as in `/blobs/<key>`.
+ */
+static String hex(byte[] key)
+{
+	var hex = new StringBuilder(2 * KEY);
+	for (var value : key)
+	{
+		hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+	}
+	return hex.toString();
+}
+/**
+ * @return The key, that `hex` spells, or null if it spells none.
+ */
+static byte[] key(String hex)
+{
+	if (hex.length() != 2 * KEY)
+	{
+		return null;
+	}
+	var key = new byte[KEY];
+	for (var index = 0; index < KEY; index = index + 1)
+	{
+		var high = Character.digit(hex.charAt(2 * index), 16);
+		var low = Character.digit(hex.charAt(2 * index + 1), 16);
+		if (high < 0 || low < 0)
+		{
+			return null;
+		}
+		key[index] = (byte) (high << 4 | low);
+	}
+	return key;
+}
+private static long location(int segment, long offset)
+{
+	return (long) segment << OFFSET_BITS | offset;
+}
+private static long prefix(byte[] key)
+{
+	return ByteBuffer.wrap(key).getLong();
+}
+/**
+ * @return The blob, read-only, from its position to its limit. null if there is no such blob.
+ */
+ByteBuffer get(byte[] key)
+throws IOException
+{
+	var prefix = prefix(key);
+	indexing.readLock().lock();
+	try
+	{
+		for (var slot = index.first(prefix); slot >= 0; slot = index.next(prefix, slot))
+		{
+			var location = index.location(slot);
+			var segment = segments[(int) (location >>> OFFSET_BITS)];
+			var offset = (int) (location & ((1L << OFFSET_BITS) - 1));
+			var map = segment.map(offset + HEADER);
+			if (matches(map, offset + 8, key))
+			{
+				var length = map.getInt(offset + 4);
+				//mapped, while the record was being written.
+				map = segment.map(offset + HEADER + length);
+				return map.slice(offset + HEADER, length);
+			}
+		}
+		return null;
+	}
+	finally
+	{
+		indexing.readLock().unlock();
+	}
+}
+/**
+ * @return Whether the record at `location` has the key.
+ */
+private boolean matches(long location, byte[] key)
+throws IOException
+{
+	var offset = (int) (location & ((1L << OFFSET_BITS) - 1));
+	return matches(segments[(int) (location >>> OFFSET_BITS)].map(offset + HEADER), offset + 8, key);
+}
+private static boolean matches(ByteBuffer map, int offset, byte[] key)
+{
+	for (var index = 0; index < KEY; index = index + 1)
+	{
+		if (map.get(offset + index) != key[index])
+		{
+			return false;
+		}
+	}
+	return true;
+}
+/**
+ * Stores a blob, unless it is there already, and waits until it is durable.
+ * @return Its key.
+ * @throws IOException if the store could not write. It only reads from then on.
+ */
+byte[] put(byte[] bytes, int from, int length)
+throws IOException
+{
+	byte[] key;
+	try
+	{
+		var digest = MessageDigest.getInstance("SHA-256");
+		digest.update(bytes, from, length);
+		key = digest.digest();
+	}
+	catch (NoSuchAlgorithmException e)
+	{
+		//every JDK has SHA-256.
+		throw new IllegalStateException(e);
+	}
+	if (get(key) != null)
+	{
+		return key;
+	}
+	var crc = new CRC32C();
+	crc.update(bytes, from, length);
+	lock.lock();
+	try
+	{
+		if (failure != null || closed)
+		{
+			throw new IOException(closed ? "The store is closed." : "The store can not write anymore.", failure);
+		}
+		//a put of the same blob may have come first: committed meanwhile, or appended and waiting for its commit.
+		if (get(key) != null)
+		{
+			return key;
+		}
+		if (waits(pending, key) || waits(committing, key))
+		{
+			await(appended);
+			return key;
+		}
+		var all = segments;
+		var segment = all[all.length - 1];
+		if (segment.end > 0 && segment.end + HEADER + length > SEGMENT_BYTES)
+		{
+			segment = new Segment(all.length, directory);
+			all = Arrays.copyOf(all, all.length + 1);
+			all[segment.number] = segment;
+			segments = all;
+		}
+		header.clear().putInt(MAGIC).putInt(length).put(key).putInt((int) crc.getValue()).flip();
+		record[0] = header;
+		record[1] = ByteBuffer.wrap(bytes, from, length);
+		try
+		{
+			while (header.hasRemaining() || record[1].hasRemaining())
+			{
+				segment.channel.write(record);
+			}
+		}
+		catch (IOException e)
+		{
+			//the segment may end with a part of the record now. only recovery gets rid of it.
+			failure = e;
+			throw e;
+		}
+		pending.add(prefix(key), location(segment.number, segment.end));
+		segment.end = segment.end + HEADER + length;
+		if (!dirty.contains(segment))
+		{
+			dirty.add(segment);
+		}
+		appended = appended + 1;
+		work.signal();
+		await(appended);
+	}
+	finally
+	{
+		lock.unlock();
+	}
+	return key;
+}
+/**
+ * @return Whether one of the entries, that wait for a commit, is the blob with the key. Called with the lock.
+ */
+private boolean waits(Pending entries, byte[] key)
+throws IOException
+{
+	var prefix = prefix(key);
+	for (var entry = 0; entry < entries.count; entry = entry + 1)
+	{
+		if (entries.prefixes[entry] == prefix && matches(entries.locations[entry], key))
+		{
+			return true;
+		}
+	}
+	return false;
+}
+/**
+ * Waits, until the record with the ticket is durable. Called with the lock.
+ */
+private void await(long ticket)
+throws IOException
+{
+	while (durable < ticket && failure == null)
+	{
+		try
+		{
+			committed.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the commit.");
+		}
+	}
+	if (durable < ticket)
+	{
+		throw new IOException("The store could not commit.", failure);
+	}
+}
+/**
+ * The committer thread: forces what was appended, then makes it visible, for as long as the store is open.
+ */
+private void commit()
+{
+	try
+	{
+		while (true)
+		{
+			long ticket;
+			Segment[] forcing;
+			lock.lock();
+			try
+			{
+				while (appended == durable && !closed)
+				{
+					work.await();
+				}
+				if (appended == durable)
+				{
+					return;
+				}
+				ticket = appended;
+				forcing = dirty.toArray(new Segment[0]);
+				dirty.clear();
+				var swap = committing;
+				committing = pending;
+				pending = swap;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+			//writers append to the next batch meanwhile.
+			for (var segment : forcing)
+			{
+				segment.channel.force(false);
+			}
+			indexing.writeLock().lock();
+			try
+			{
+				for (var entry = 0; entry < committing.count; entry = entry + 1)
+				{
+					index.put(committing.prefixes[entry], committing.locations[entry]);
+				}
+			}
+			finally
+			{
+				indexing.writeLock().unlock();
+			}
+			lock.lock();
+			try
+			{
+				//writers look for their blob in the entries, until they are in the index.
+				committing.count = 0;
+				durable = ticket;
+				commits = commits + 1;
+				committed.signalAll();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+	catch (IOException | RuntimeException e)
+	{
+		lock.lock();
+		try
+		{
+			failure = e instanceof IOException ? (IOException) e : new IOException(e);
+			committed.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	catch (InterruptedException __)
+	{
+		//nobody interrupts the committer.
+	}
+}
+/**
+ * @return One `<name> <value>` per line, for `/status`.
+ */
+String status()
+{
+	long blobs, index_bytes;
+	indexing.readLock().lock();
+	try
+	{
+		blobs = index.size();
+		index_bytes = index.bytes();
+	}
+	finally
+	{
+		indexing.readLock().unlock();
+	}
+	lock.lock();
+	try
+	{
+		var bytes = 0L;
+		for (var segment : segments)
+		{
+			bytes = bytes + segment.end;
+		}
+		return "store_blobs " + blobs + "\n"
+			+ "store_bytes " + bytes + "\n"
+			+ "store_segments " + segments.length + "\n"
+			+ "store_index_bytes " + index_bytes + "\n"
+			+ "store_commits " + commits + "\n"
+			+ "store_puts " + durable + "\n"
+			+ "store_recovery_ms " + recovery_nanos / 1_000_000 + "\n";
+	}
+	finally
+	{
+		lock.unlock();
+	}
+}
+/**
+ * Fills a store with made up thumbnails and measures it:
+ * `--directory <dir>` (default `bld/store`, which is emptied first),
+ * `--blobs <n>` (default 1000000),
+ * `--size <bytes>` of a thumbnail (default 2048),
+ * `--writers <threads>` that put at the same time (default 64).
+ * Prints `PUT <blobs per second> <blobs per commit>`, then opens the store again and prints `RECOVERED <blobs> <milliseconds>`,
+ * `INDEX <bytes per blob>` and `GET <blobs per second>` for random reads of one thread.
+ * @param args See above.
+ */
+public static void main(String[] args)
+throws IOException, InterruptedException
+{
+	var directory = Paths.get("bld/store");
+	var blobs = 1_000_000;
+	var size = 2048;
+	var writers = 64;
+	for (var index = 0; index < args.length; index = index + 1)
+	{
+		switch (args[index])
+		{
+			case "--directory":
+				{
+					index = index + 1;
+					directory = Paths.get(args[index]);
+				}
+			break;
+			case "--blobs":
+				{
+					index = index + 1;
+					blobs = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--size":
+				{
+					index = index + 1;
+					size = Integer.parseInt(args[index]);
+				}
+			break;
+			case "--writers":
+				{
+					index = index + 1;
+					writers = Integer.parseInt(args[index]);
+				}
+			break;
+			default:
+				{
+					err.println("Unknown argument '" + args[index] + "'.");
+					System.exit(2);
+				}
+		}
+	}
+	if (Files.isDirectory(directory))
+	{
+		try (var files = Files.newDirectoryStream(directory, "*.seg"))
+		{
+			for (var file : files)
+			{
+				Files.delete(file);
+			}
+		}
+	}
+	//the keys, so that reading needs no hashing. 32 bytes per blob on the heap, for the measurement only.
+	var keys = new byte[blobs * KEY];
+	var filling = open(directory);
+	var next = new AtomicInteger();
+	var threads = new Thread[writers];
+	var failures = new AtomicInteger();
+	var thumbnail_size = size;
+	var count = blobs;
+	var start = System.nanoTime();
+	for (var writer = 0; writer < writers; writer = writer + 1)
+	{
+		threads[writer] = new Thread(() ->
+		{
+			var thumbnail = new byte[thumbnail_size];
+			int blob;
+			while ((blob = next.getAndIncrement()) < count)
+			{
+				//different bytes for every blob, the same for every run.
+				new SplittableRandom(blob).nextBytes(thumbnail);
+				try
+				{
+					System.arraycopy(filling.put(thumbnail, 0, thumbnail.length), 0, keys, blob * KEY, KEY);
+				}
+				catch (IOException e)
+				{
+					err.println("Could not put: " + e.getMessage());
+					failures.incrementAndGet();
+					return;
+				}
+			}
+		}, "writer");
+		threads[writer].start();
+	}
+	for (var thread : threads)
+	{
+		thread.join();
+	}
+	var put_nanos = System.nanoTime() - start;
+	filling.close();
+	//the committer is done.
+	var commits = filling.commits;
+	if (failures.get() > 0)
+	{
+		System.exit(1);
+	}
+	out.println("PUT " + (long) (blobs / (put_nanos / 1e9)) + " " + blobs / Math.max(1, commits));
+	var store = open(directory);
+	out.println("RECOVERED " + store.index.size() + " " + store.recovery_nanos / 1_000_000);
+	out.println("INDEX " + store.index.bytes() / Math.max(1, store.index.size()));
+	var random = new SplittableRandom(1);
+	var key = new byte[KEY];
+	var checksum = 0L;
+	var reads = Math.min(blobs, 1_000_000);
+	start = System.nanoTime();
+	for (var read = 0; read < reads; read = read + 1)
+	{
+		System.arraycopy(keys, random.nextInt(blobs) * KEY, key, 0, KEY);
+		var blob = store.get(key);
+		if (blob == null)
+		{
+			err.println("A blob went missing.");
+			System.exit(1);
+		}
+		checksum = checksum + blob.get(blob.limit() - 1);
+	}
+	var get_nanos = System.nanoTime() - start;
+	store.close();
+	out.println("GET " + (long) (reads / (get_nanos / 1e9)) + " (checksum " + checksum + ")");
+}
+/**
+ * Waits for the last commit, then closes the segments. Blobs, that were handed out, must not be read anymore.
+ */
+@Override public void close()
+throws IOException
+{
+	lock.lock();
+	try
+	{
+		closed = true;
+		work.signal();
+	}
+	finally
+	{
+		lock.unlock();
+	}
+	try
+	{
+		committer.join();
+	}
+	catch (InterruptedException e)
+	{
+		Thread.currentThread().interrupt();
+	}
+	for (var segment : segments)
+	{
+		segment.channel.close();
+	}
+}
+/**
+ * One segment file.
+ */
+private static final class Segment
+{
+	final int number;
+	final FileChannel channel;
+	/** Where the next record goes. Guarded by the lock of the store. */
+	long end;
+	private volatile MappedByteBuffer map;
+	Segment(int number, Path directory)
+	throws IOException
+	{
+		this.number = number;
+		this.channel = FileChannel.open(directory.resolve(String.format("%08d.seg", number)), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		reserve();
+	}
+	/**
+	 * Makes the file {@link #SEGMENT_BYTES} long, unless it is longer. Sparse: the file system allocates no block, until a record lands there.
+	 */
+	void reserve()
+	throws IOException
+	{
+		if (channel.size() < SEGMENT_BYTES)
+		{
+			channel.write(ByteBuffer.allocate(1), SEGMENT_BYTES - 1);
+		}
+	}
+	/**
+	 * @return The mapping of the whole segment, at least up to `end`. Mapped once, since the file is as large as the segment can get.
+	 *   Only a blob, that is larger than a segment, makes its segment map again.
+	 */
+	MappedByteBuffer map(long end)
+	throws IOException
+	{
+		var map = this.map;
+		if (map != null && map.capacity() >= end)
+		{
+			return map;
+		}
+		synchronized (this)
+		{
+			if (this.map == null || this.map.capacity() < end)
+			{
+				//the old mapping, if any, goes, when the GC collects it and the last slice of it.
+				this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			return this.map;
+		}
+	}
+}
+/**
+ * Index entries, that wait for their commit. Two arrays, that grow, so that a put allocates no entry.
+ */
+private static final class Pending
+{
+	long[] prefixes = new long[256], locations = new long[256];
+	int count;
+	void add(long prefix, long location)
+	{
+		if (count == prefixes.length)
+		{
+			prefixes = Arrays.copyOf(prefixes, 2 * count);
+			locations = Arrays.copyOf(locations, 2 * count);
+		}
+		prefixes[count] = prefix;
+		locations[count] = location;
+		count = count + 1;
+	}
+}
+}
@@ -0,0 +1,9 @@
+/**
+* The server side of the widget market: listings and artifacts of widgets over HTTP and the binary `wire` protocol, and a load generator to prove it holds up.
+*/
+module market {
+	requires java.base;
+	requires wire;
+	//only for the GC metrics, and only if it is there (`--add-modules java.management`).
+	requires static java.management;
+}
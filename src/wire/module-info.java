@@ -0,0 +1,8 @@
+/**
+* The binary protocol between the grid and the market: length-prefixed frames of varints, multiplexed over one connection.
+* And the histogram, that both sides measure their latencies with.
+*/
+module wire {
+	requires java.base;
+	exports wire;
+}
@@ -0,0 +1,71 @@
+package wire;
+import java.nio.ByteBuffer;
+/**
+ * Direct buffers of one size, for reuse. A direct buffer is expensive to allocate (it is zeroed, and freed only by the GC, through a cleaner),
+ * but cheap to write to a socket (no copy into a temporary direct buffer by the JDK). Pooling gets the one without the other.
+ * Acquiring and releasing allocate nothing, once the pool is warm. A plain array under a lock: contention is short, there are few buffers.
+ */
+public final class BufferPool
+{
+private final int size;
+private final ByteBuffer[] pooled;
+private int count;
+private long allocated;
+/**
+ * Creates an empty pool. Buffers are allocated on demand.
+ * @param size Of every buffer, in bytes.
+ * @param capacity How many released buffers the pool keeps. More are left to the GC.
+ */
+public BufferPool(int size, int capacity)
+{
+	this.size = size;
+	this.pooled = new ByteBuffer[capacity];
+}
+/**
+ * Takes a buffer from the pool, or allocates one, if the pool is empty.
+ * @return A cleared buffer of {@link #size()} bytes. Give it back with {@link #release(ByteBuffer)}.
+ */
+public ByteBuffer acquire()
+{
+	synchronized (this)
+	{
+		if (count > 0)
+		{
+			count = count - 1;
+			var buffer = pooled[count];
+			pooled[count] = null;
+			return buffer.clear();
+		}
+		allocated = allocated + 1;
+	}
+	return ByteBuffer.allocateDirect(size);
+}
+/**
+ * Gives a buffer back to the pool.
+ * @param buffer From {@link #acquire()}. Must not be used afterwards.
+ */
+public synchronized void release(ByteBuffer buffer)
+{
+	if (count < pooled.length && buffer.capacity() == size)
+	{
+		pooled[count] = buffer;
+		count = count + 1;
+	}
+}
+/**
+ * Tells the size of the buffers.
+ * @return The size of every buffer, in bytes.
+ */
+public int size()
+{
+	return size;
+}
+/**
+ * Tells, how warm the pool is.
+ * @return How many buffers the pool had to allocate so far. Stops growing, once the pool is warm.
+ */
+public synchronized long allocated()
+{
+	return allocated;
+}
+}
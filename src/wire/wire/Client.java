@@ -0,0 +1,300 @@
+package wire;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.locks.LockSupport;
+/**
+ * One connection to the market, that speaks the {@link Wire} protocol, shared by any number of threads.
+ *
+ * Every call gets a stream, sends its request and parks, until the response with its stream arrives. Calls do not wait for each other:
+ * while one waits for a large artifact, others go out on the same connection. Streams are reused, so there are only ever as many
+ * as calls in flight, and they stay one byte on the wire.
+ * One reader thread decodes the responses in place, from a pooled direct buffer, and copies the payloads straight into the buffers of the callers.
+ * After warming up, a call allocates nothing, on either thread.
+ */
+public final class Client
+implements Closeable
+{
+private static final int PENDING = -1;
+private static final int FAILED = -2;
+private final SocketChannel channel;
+private final BufferPool pool;
+/** Indexed by stream. A slot belongs to its caller from {@link #call(int, ByteBuffer, ByteBuffer)} to its return. */
+private final Slot[] slots;
+/** The streams, that are not in flight. A stack, guarded by its own monitor. */
+private final int[] free;
+private int free_count;
+/** Guards {@link #output} and the writing side of the channel. */
+private final Object writing = new Object();
+private final ByteBuffer output;
+private volatile IOException failure;
+private volatile long sent, received;
+private Client(SocketChannel channel, BufferPool pool, int streams)
+{
+	this.channel = channel;
+	this.pool = pool;
+	this.slots = new Slot[streams];
+	this.free = new int[streams];
+	for (var stream = 0; stream < streams; stream = stream + 1)
+	{
+		slots[stream] = new Slot();
+		//the lowest streams on top. they are the ones, that take one byte.
+		free[stream] = streams - 1 - stream;
+	}
+	free_count = streams;
+	output = pool.acquire();
+}
+/**
+ * Connects and sends the preface.
+ * @param address Of the market.
+ * @param pool Where the buffers of the connection come from. At least 64 bytes each.
+ * @param streams How many calls may be in flight at once. More wait for a free stream.
+ * @return The connected client. Close it.
+ * @throws IOException if the market can not be reached.
+ */
+public static Client connect(SocketAddress address, BufferPool pool, int streams)
+throws IOException
+{
+	var channel = SocketChannel.open(address);
+	try
+	{
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		var client = new Client(channel, pool, streams);
+		synchronized (client.writing)
+		{
+			client.output.clear();
+			Wire.putPreface(client.output);
+			client.send(client.output.flip());
+		}
+		var reader = new Thread(client::read, "wire-reader");
+		reader.setDaemon(true);
+		reader.start();
+		return client;
+	}
+	catch (IOException | RuntimeException e)
+	{
+		channel.close();
+		throw e;
+	}
+}
+/**
+ * Sends a request and waits for its response.
+ * @param op One of the operations of {@link Wire}.
+ * @param argument The payload of the request, from its position to its limit. Consumed.
+ * @param response Where the payload of the response goes, from its position. It is not flipped.
+ * @return The status of the response, {@link Wire#TOO_LARGE} if it did not fit into `response`.
+ * @throws IOException if the connection failed. It is closed then, and every other call fails as well.
+ */
+public int call(int op, ByteBuffer argument, ByteBuffer response)
+throws IOException
+{
+	var stream = acquire();
+	var slot = slots[stream];
+	try
+	{
+		slot.response = response;
+		slot.caller = Thread.currentThread();
+		slot.status = PENDING;
+		synchronized (writing)
+		{
+			output.clear();
+			Frame.encode(output, stream, op, argument.remaining());
+			if (argument.remaining() <= output.remaining())
+			{
+				output.put(argument);
+				send(output.flip());
+			}
+			else
+			{
+				send(output.flip());
+				send(argument);
+			}
+		}
+		while (slot.status == PENDING)
+		{
+			LockSupport.park(this);
+		}
+		if (slot.status == FAILED)
+		{
+			throw new IOException("The connection to the market failed.", failure);
+		}
+		return slot.status;
+	}
+	catch (IOException e)
+	{
+		close();
+		throw e;
+	}
+	finally
+	{
+		slot.response = null;
+		slot.caller = null;
+		release(stream);
+	}
+}
+private void send(ByteBuffer buffer)
+throws IOException
+{
+	while (buffer.hasRemaining())
+	{
+		sent = sent + channel.write(buffer);
+	}
+}
+private int acquire()
+throws IOException
+{
+	synchronized (free)
+	{
+		while (free_count == 0)
+		{
+			try
+			{
+				free.wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a stream.");
+			}
+		}
+		free_count = free_count - 1;
+		return free[free_count];
+	}
+}
+private void release(int stream)
+{
+	synchronized (free)
+	{
+		free[free_count] = stream;
+		free_count = free_count + 1;
+		free.notify();
+	}
+}
+/**
+ * The reader thread. Decodes responses, until the connection ends, and then fails every call in flight.
+ */
+private void read()
+{
+	var input = pool.acquire();
+	var frame = new Frame();
+	Slot slot = null;
+	//of the payload of the current frame, what has not arrived yet.
+	var remaining = 0;
+	try
+	{
+		while (true)
+		{
+			var count = channel.read(input);
+			if (count < 0)
+			{
+				throw new EOFException("The market closed the connection.");
+			}
+			received = received + count;
+			input.flip();
+			while (true)
+			{
+				if (slot == null)
+				{
+					if (!frame.decode(input))
+					{
+						break;
+					}
+					if (frame.stream() >= slots.length || slots[(int) frame.stream()].status != PENDING)
+					{
+						throw new IOException("A response to stream " + frame.stream() + ", that was not asked for.");
+					}
+					slot = slots[(int) frame.stream()];
+					slot.code = frame.code();
+					remaining = frame.payloadLength();
+				}
+				var chunk = Math.min(remaining, input.remaining());
+				var response = slot.response;
+				if (slot.code != Wire.TOO_LARGE && chunk > response.remaining())
+				{
+					slot.code = Wire.TOO_LARGE;
+				}
+				if (slot.code == Wire.TOO_LARGE)
+				{
+					input.position(input.position() + chunk);
+				}
+				else
+				{
+					var limit = input.limit();
+					response.put(input.limit(input.position() + chunk));
+					input.limit(limit);
+				}
+				remaining = remaining - chunk;
+				if (remaining > 0)
+				{
+					break;
+				}
+				complete(slot, slot.code);
+				slot = null;
+			}
+			input.compact();
+		}
+	}
+	catch (IOException | RuntimeException e)
+	{
+		failure = e instanceof IOException ? (IOException) e : new IOException(e);
+	}
+	pool.release(input);
+	close();
+	for (var each : slots)
+	{
+		if (each.status == PENDING)
+		{
+			complete(each, FAILED);
+		}
+	}
+}
+private static void complete(Slot slot, int status)
+{
+	var caller = slot.caller;
+	slot.status = status;
+	LockSupport.unpark(caller);
+}
+/**
+ * Counts what was sent.
+ * @return How many bytes went to the market, the preface included.
+ */
+public long bytesSent()
+{
+	return sent;
+}
+/**
+ * Counts what was received.
+ * @return How many bytes came from the market.
+ */
+public long bytesReceived()
+{
+	return received;
+}
+/**
+ * Closes the connection. Calls in flight fail.
+ */
+@Override public void close()
+{
+	try
+	{
+		channel.close();
+	}
+	catch (IOException __)
+	{
+		//closed is closed.
+	}
+}
+/**
+ * A call in flight.
+ */
+private static final class Slot
+{
+	/** {@link #PENDING} until the response is there, then its status, or {@link #FAILED}. */
+	volatile int status;
+	/** The status, while the payload streams in. Only the reader thread touches it. */
+	int code;
+	volatile ByteBuffer response;
+	volatile Thread caller;
+}
+}
@@ -0,0 +1,96 @@
+package wire;
+import java.nio.ByteBuffer;
+/**
+ * The header of a frame of the {@link Wire} protocol, decoded in place.
+ * One instance is reused for every frame of a connection, so that decoding allocates nothing.
+ * The payload is not copied either: after {@link #decode(ByteBuffer)}, it starts at the position of the buffer.
+ */
+public final class Frame
+{
+private long stream;
+private int code;
+private int payload;
+/**
+ * Creates a header, that waits to be decoded into.
+ */
+public Frame()
+{
+}
+/**
+ * Decodes the header at the position of `buffer`. The payload may still be missing.
+ * @param buffer Where from.
+ * @return true, if the header was complete. The position is then after the header. false, if not. The position is then unchanged.
+ * @throws IllegalArgumentException if the bytes are no frame.
+ */
+public boolean decode(ByteBuffer buffer)
+{
+	var start = buffer.position();
+	var length = Wire.getVarint(buffer);
+	var header_start = buffer.position();
+	var stream = length == Wire.INCOMPLETE ? Wire.INCOMPLETE : Wire.getVarint(buffer);
+	var code = stream == Wire.INCOMPLETE ? Wire.INCOMPLETE : Wire.getVarint(buffer);
+	if (code == Wire.INCOMPLETE)
+	{
+		buffer.position(start);
+		return false;
+	}
+	var payload = length - (buffer.position() - header_start);
+	if (payload < 0 || payload > Integer.MAX_VALUE || code > Integer.MAX_VALUE)
+	{
+		throw new IllegalArgumentException("Not a frame: length " + length + ", code " + code + ".");
+	}
+	this.stream = stream;
+	this.code = (int) code;
+	this.payload = (int) payload;
+	return true;
+}
+/**
+ * Tells the stream of the frame.
+ * @return The stream of the last decoded frame.
+ */
+public long stream()
+{
+	return stream;
+}
+/**
+ * Tells the code of the frame.
+ * @return The operation of a request, the status of a response.
+ */
+public int code()
+{
+	return code;
+}
+/**
+ * Tells the length of the payload, that follows the header.
+ * @return The length of the payload in bytes.
+ */
+public int payloadLength()
+{
+	return payload;
+}
+/**
+ * Computes the length of a header, before it is encoded.
+ * @param stream Of the frame.
+ * @param code Of the frame.
+ * @param payload_length Of the frame.
+ * @return How many bytes the header of such a frame takes.
+ */
+public static int headerLength(long stream, int code, long payload_length)
+{
+	var rest = Wire.varintLength(stream) + Wire.varintLength(code) + payload_length;
+	return Wire.varintLength(rest) + Wire.varintLength(stream) + Wire.varintLength(code);
+}
+/**
+ * Writes a header. The payload has to follow.
+ * @param buffer Where to. Needs {@link #headerLength(long, int, long)} bytes of room.
+ * @param stream Of the frame.
+ * @param code Of the frame.
+ * @param payload_length Of the frame.
+ */
+public static void encode(ByteBuffer buffer, long stream, int code, long payload_length)
+{
+	Wire.putVarint(buffer, Wire.varintLength(stream) + Wire.varintLength(code) + payload_length);
+	Wire.putVarint(buffer, stream);
+	Wire.putVarint(buffer, code);
+}
+}
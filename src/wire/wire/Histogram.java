@@ -0,0 +1,145 @@
+package wire;
+import java.util.concurrent.atomic.*;
+/**
+ * Counts values (usually nanoseconds) in buckets, that grow exponentially, like a HDR histogram.
+ * Every power of two is split into 16 buckets, so every percentile is off by at most 1/16 (6%), from nanoseconds to hours.
+ * Recording is lock-free and does not allocate: two atomic increments, and a compare and swap for a new maximum.
+ * Readers see a histogram, that may still be filling up. Good enough for an overlay and a dump.
+ *
+ * The grid measures its frames with it, the market its requests. A reader, that reports intervals, like the metrics of the market,
+ * takes what was recorded since its last look with {@link #takeInterval(Histogram)}.
+ */
+public final class Histogram
+{
+private static final int SUB_BITS = 4;
+private static final int SUB = 1 << SUB_BITS;
+/** Enough buckets for every positive long. */
+private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+private final AtomicLong count = new AtomicLong();
+private final AtomicLong max = new AtomicLong();
+/** The largest value since the last {@link #takeInterval(Histogram)}. */
+private final AtomicLong interval_max = new AtomicLong();
+/** The counts as of the last {@link #takeInterval(Histogram)}. Allocated by the first one. Guarded by the monitor. */
+private long[] taken;
+/**
+ * Creates an empty histogram.
+ */
+public Histogram()
+{
+}
+/**
+ * Adds a value. Negative values count as 0.
+ * @param value Usually nanoseconds.
+ */
+public void record(long value)
+{
+	value = Math.max(0, value);
+	counts.incrementAndGet(bucket(value));
+	count.incrementAndGet();
+	raise(max, value);
+	raise(interval_max, value);
+}
+private static void raise(AtomicLong maximum, long value)
+{
+	var current = maximum.get();
+	while (value > current && !maximum.compareAndSet(current, value))
+	{
+		current = maximum.get();
+	}
+}
+/**
+ * Counts the values.
+ * @return How many values were recorded.
+ */
+public long count()
+{
+	return count.get();
+}
+/**
+ * Tells the largest value. It is exact, not a bucket bound.
+ * @return The largest value, that was recorded, 0 if none was.
+ */
+public long max()
+{
+	return max.get();
+}
+/**
+ * Finds a percentile.
+ * @param quantile Between 0 and 1, like 0.99 for the 99th percentile.
+ * @return The largest value of the bucket, that holds the quantile, but at most {@link #max()}. 0 if nothing was recorded.
+ */
+public long percentile(double quantile)
+{
+	var total = count.get();
+	if (total == 0)
+	{
+		return 0;
+	}
+	var target = Math.max(1, (long) Math.ceil(quantile * total));
+	var seen = 0L;
+	for (var bucket = 0; bucket < BUCKETS; bucket = bucket + 1)
+	{
+		seen = seen + counts.get(bucket);
+		if (seen >= target)
+		{
+			return Math.min(max.get(), lowest(bucket + 1) - 1);
+		}
+	}
+	return max.get();
+}
+/**
+ * Moves what was recorded since the last call into `interval`, which is cleared first, max included.
+ * Every bucket is read once, so the percentiles of the interval agree with each other, while others keep recording.
+ * A value, that is recorded meanwhile, counts for this interval or the next one, never for both. Its maximum may land in the other one.
+ * @param interval Owned by the caller. Nobody may record into it.
+ */
+public synchronized void takeInterval(Histogram interval)
+{
+	if (taken == null)
+	{
+		taken = new long[BUCKETS];
+	}
+	var total = 0L;
+	for (var bucket = 0; bucket < BUCKETS; bucket = bucket + 1)
+	{
+		var current = counts.get(bucket);
+		interval.counts.set(bucket, current - taken[bucket]);
+		total = total + current - taken[bucket];
+		taken[bucket] = current;
+	}
+	interval.count.set(total);
+	var interval_max = this.interval_max.getAndSet(0);
+	interval.max.set(interval_max);
+	interval.interval_max.set(interval_max);
+}
+/**
+ * Values below 16 get a bucket each. Above, the highest bit picks the power of two and the next 4 bits the bucket within it.
+ */
+private static int bucket(long value)
+{
+	if (value < SUB)
+	{
+		return (int) value;
+	}
+	var exponent = 63 - Long.numberOfLeadingZeros(value);
+	var mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB - 1);
+	return (exponent - SUB_BITS + 1) * SUB + mantissa;
+}
+/**
+ * @return The smallest value, that falls into the bucket.
+ */
+private static long lowest(int bucket)
+{
+	if (bucket < SUB)
+	{
+		return bucket;
+	}
+	if (bucket >= BUCKETS)
+	{
+		return Long.MAX_VALUE;
+	}
+	var exponent = bucket / SUB + SUB_BITS - 1;
+	return (long) (SUB + bucket % SUB) << (exponent - SUB_BITS);
+}
+}
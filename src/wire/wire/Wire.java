@@ -0,0 +1,124 @@
+package wire;
+import java.nio.ByteBuffer;
+/**
+ * The binary protocol of the market, next to HTTP on the same port.
+ *
+ * A client opens with the {@link #PREFACE}. Its first byte is 0, which no HTTP request starts with, so the server knows after one byte,
+ * which protocol the connection speaks. Then both sides exchange frames:
+ * <pre>
+ * varint length of the rest of the frame
+ * varint stream, chosen by the client, echoed by the server
+ * varint code, the operation of a request or the status of a response
+ *        payload
+ * </pre>
+ * Varints are unsigned LEB128: 7 bits per byte, least significant first, the high bit set on every byte but the last.
+ * Small numbers, like most streams, codes and lengths, take one or two bytes.
+ * A client may send as many requests as it likes, without waiting for their responses. The stream tells, which response belongs to which request.
+ * The server answers the requests of a connection in order today. Clients must not rely on that.
+ */
+public final class Wire
+{
+/** What a client sends first: 0, "WIRE", version 1. */
+private static final byte[] PREFACE = {0, 'W', 'I', 'R', 'E', 1};
+/** The length of the preface in bytes. */
+public static final int PREFACE_LENGTH = PREFACE.length;
+/** Request: the listing of all widgets. No payload. The response is a varint count, then a varint length, the UTF-8 name and the varint size of every widget. */
+public static final int LIST = 1;
+/** Request: the artifact of a widget. The payload is its UTF-8 name. The response is the artifact. */
+public static final int ARTIFACT = 2;
+/** Request: the status of the market. No payload. The response is the same text as `GET /status`. */
+public static final int STATUS = 3;
+/** Request: a blob of the store of the market, like a thumbnail. The payload is its key, the 32 bytes of its SHA-256. The response is the blob. */
+public static final int BLOB = 4;
+/** Response: like HTTP 200. */
+public static final int OK = 200;
+/** Response: the request makes no sense, like an unknown operation. */
+public static final int BAD_REQUEST = 400;
+/** Response: there is no such widget. */
+public static final int NOT_FOUND = 404;
+/** Response, made up by the client: the payload did not fit into the buffer of the caller. */
+public static final int TOO_LARGE = 413;
+/** Returned by {@link #getVarint(ByteBuffer)}, when the varint is not complete yet. */
+public static final long INCOMPLETE = -1;
+/** A varint of a long takes at most this many bytes. */
+public static final int MAX_VARINT = 10;
+private Wire()
+{
+}
+/**
+ * Writes the preface.
+ * @param buffer Where to. Needs {@link #PREFACE_LENGTH} bytes of room.
+ */
+public static void putPreface(ByteBuffer buffer)
+{
+	buffer.put(PREFACE);
+}
+/**
+ * Checks the first bytes of a connection against the preface.
+ * @param bytes Where the connection starts.
+ * @param from The first byte of the connection.
+ * @param to After the last byte, that was read.
+ * @return Whether the bytes, as far as they go, start the preface.
+ */
+public static boolean startsPreface(byte[] bytes, int from, int to)
+{
+	for (var index = 0; index < PREFACE.length && from + index < to; index = index + 1)
+	{
+		if (bytes[from + index] != PREFACE[index])
+		{
+			return false;
+		}
+	}
+	return true;
+}
+/**
+ * Computes the length of a varint, before it is written.
+ * @param value Not negative.
+ * @return How many bytes the varint of `value` takes.
+ */
+public static int varintLength(long value)
+{
+	//every 7 bits of the value cost a byte. 0 takes one byte, too.
+	return Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 6) / 7);
+}
+/**
+ * Writes `value` as a varint.
+ * @param buffer Where to. Needs {@link #varintLength(long)} bytes of room.
+ * @param value Not negative.
+ */
+public static void putVarint(ByteBuffer buffer, long value)
+{
+	while ((value & ~0x7FL) != 0)
+	{
+		buffer.put((byte) ((value & 0x7F) | 0x80));
+		value = value >>> 7;
+	}
+	buffer.put((byte) value);
+}
+/**
+ * Reads a varint. Leaves the position alone, if it is not complete.
+ * @param buffer Where from, at its position.
+ * @return The value, or {@link #INCOMPLETE}.
+ * @throws IllegalArgumentException if the varint is longer than any varint of a long.
+ */
+public static long getVarint(ByteBuffer buffer)
+{
+	var position = buffer.position();
+	var value = 0L;
+	for (var index = 0; index < MAX_VARINT; index = index + 1)
+	{
+		if (position + index >= buffer.limit())
+		{
+			return INCOMPLETE;
+		}
+		var next = buffer.get(position + index);
+		value = value | (long) (next & 0x7F) << (7 * index);
+		if (next >= 0)
+		{
+			buffer.position(position + index + 1);
+			return value;
+		}
+	}
+	throw new IllegalArgumentException("A varint longer than " + MAX_VARINT + " bytes.");
+}
+}